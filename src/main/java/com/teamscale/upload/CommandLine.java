@@ -1,17 +1,23 @@
 package com.teamscale.upload;
 
+import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 
 import com.teamscale.upload.utils.LogUtils;
 import com.teamscale.upload.utils.MessageUtils;
 import com.teamscale.upload.utils.SecretUtils;
+import com.teamscale.upload.xcode.XcodeReportConverter;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.helper.HelpScreenException;
@@ -78,8 +84,8 @@ public class CommandLine {
 	/**
 	 * The input file to use or null if none is given.
 	 * <p>
-	 * The file defines a mapping from report files to report-file-format. For
-	 * example,
+	 * The file defines a mapping from report files to report-file-format,
+	 * optionally grouped into further partitions. For example,
 	 * 
 	 * <pre>
 	 * [jacoco]
@@ -87,6 +93,10 @@ public class CommandLine {
 	 *
 	 * [simple]
 	 * src/test/resources/coverage_files/coverage.simple
+	 *
+	 * [partition: UI Tests]
+	 * [jacoco]
+	 * src/test/resources/coverage_files/ui*.simple
 	 * </pre>
 	 */
 	public final Path inputFile;
@@ -128,20 +138,104 @@ public class CommandLine {
 	 */
 	public final int maxAttempts;
 
+	/**
+	 * Whether the report files of each format are packed into a single zip part
+	 * instead of uploading one part per file.
+	 */
+	public final boolean packReports;
+
+	/**
+	 * The Unix domain socket of the upload daemon that should perform the upload
+	 * or null if the upload should be performed by this process.
+	 */
+	public final Path daemonSocket;
+
+	/**
+	 * The absolute path of the directory in which uploads are stored if Teamscale
+	 * is unreachable or null if such uploads should fail.
+	 */
+	public final Path spoolDirectory;
+
+	/**
+	 * The manifest of the uploads to perform instead of uploading the files given
+	 * via FILES or --input or null if none is given. See BACKFILL in the help.
+	 */
+	public final Path backfillManifest;
+
+	/**
+	 * The file whose creation ends the watch mode or null if the reports should be
+	 * uploaded once. See WATCH in the help.
+	 */
+	public final Path watchStopFile;
+
+	/**
+	 * The port on which the relay listens for uploads to forward to --server or
+	 * null if this process uploads reports itself. See RELAY in the help.
+	 */
+	public final Integer relayPort;
+
+	/**
+	 * The host name or address on which the relay listens or null for the
+	 * loopback address. See RELAY in the help.
+	 */
+	public final String relayHost;
+
+	/**
+	 * The Unix domain socket on which this process runs the upload daemon or null
+	 * if it uploads reports itself. See DAEMON in the help.
+	 */
+	public final Path daemonListenSocket;
+
+	/**
+	 * The spool directory (see {@link #spoolDirectory}) whose uploads this process
+	 * performs or null if it uploads reports itself.
+	 */
+	public final Path flushSpoolDirectory;
+
+	/**
+	 * The command line arguments from which this was parsed, e.g. to repeat the
+	 * upload later.
+	 */
+	public final List<String> arguments;
+
+	/**
+	 * The further Teamscale servers to which the reports are uploaded, each in the
+	 * format {@code URL;PROJECT;USER[;ACCESSKEY]}.
+	 */
+	public final List<String> mirrors;
+
+	/**
+	 * The mirror (see {@link #mirrors}) to which this command line uploads or null
+	 * if it uploads to the server given via --server.
+	 */
+	public final String mirror;
+
 	private final String keystorePathAndPassword;
 
-	private CommandLine(Namespace namespace) {
+	/** The parsed arguments, from which the command lines of the mirrors are derived. */
+	private final Namespace namespace;
+
+	private CommandLine(String[] args, Namespace namespace, UnaryOperator<String> accessKeyResolver, String mirror) {
+		this.arguments = List.of(args);
+		this.namespace = namespace;
+		this.mirror = mirror;
+		this.mirrors = getListSafe(namespace, "mirror");
 		this.project = namespace.getString("project");
 		this.username = namespace.getString("user");
 		String accessKeyViaOption = namespace.getString("accesskey");
-		this.accessKey = SecretUtils.determineAccessKeyToUse(accessKeyViaOption);
+		this.accessKey = accessKeyResolver.apply(accessKeyViaOption);
 		this.partition = namespace.getString("partition");
 		this.commit = namespace.getString("commit");
 		this.repository = namespace.getString("repository");
 		this.timestamp = namespace.getString("branch_and_timestamp");
 		this.pathPrefix = namespace.getString("path_prefix");
 		this.files = getListSafe(namespace, "files");
-		this.url = HttpUrl.parse(namespace.getString("server"));
+		String server = namespace.getString("server");
+		if (server != null) {
+			this.url = HttpUrl.parse(server);
+		} else {
+			this.url = null;
+		}
 		this.message = namespace.getString("message");
 		this.proxy = namespace.getString("proxy");
 		this.keystorePathAndPassword = namespace.getString("trusted_keystore");
@@ -151,6 +245,7 @@ public class CommandLine {
 		this.printStackTrace = namespace.getBoolean("stacktrace");
 		this.debugLogEnabled = namespace.getBoolean("debug");
 		this.maxAttempts = namespace.getInt("max_attempts");
+		this.packReports = namespace.getBoolean("pack_reports");
 
 		String inputFilePath = namespace.getString("input");
 		if (inputFilePath != null) {
@@ -159,6 +254,51 @@ public class CommandLine {
 			this.inputFile = null;
 		}
 
+		String daemonSocketPath = namespace.getString("daemon_socket");
+		if (daemonSocketPath != null) {
+			this.daemonSocket = Paths.get(daemonSocketPath);
+		} else {
+			this.daemonSocket = null;
+		}
+
+		String backfillManifestPath = namespace.getString("backfill");
+		if (backfillManifestPath != null) {
+			this.backfillManifest = Paths.get(backfillManifestPath);
+		} else {
+			this.backfillManifest = null;
+		}
+
+		this.relayPort = namespace.getInt("relay");
+		this.relayHost = namespace.getString("relay_host");
+
+		String watchStopFilePath = namespace.getString("watch");
+		if (watchStopFilePath != null) {
+			this.watchStopFile = Paths.get(watchStopFilePath).toAbsolutePath();
+		} else {
+			this.watchStopFile = null;
+		}
+
+		String daemonListenSocketPath = namespace.getString("daemon");
+		if (daemonListenSocketPath != null) {
+			this.daemonListenSocket = Paths.get(daemonListenSocketPath);
+		} else {
+			this.daemonListenSocket = null;
+		}
+
+		String flushSpoolDirectoryPath = namespace.getString("flush_spool");
+		if (flushSpoolDirectoryPath != null) {
+			this.flushSpoolDirectory = Paths.get(flushSpoolDirectoryPath);
+		} else {
+			this.flushSpoolDirectory = null;
+		}
+
+		String spoolDirectoryPath = namespace.getString("spool_dir");
+		if (spoolDirectoryPath != null) {
+			this.spoolDirectory = Paths.get(spoolDirectoryPath).toAbsolutePath();
+		} else {
+			this.spoolDirectory = null;
+		}
+
 		String formatRaw = namespace.getString("format");
 		if (formatRaw != null) {
 			this.format = formatRaw.toUpperCase();
@@ -180,17 +320,29 @@ public class CommandLine {
 	 * Parses the given command line arguments and validates them.
 	 */
 	public static CommandLine parseArguments(String[] args) {
+		return parseArguments(args, SecretUtils::determineAccessKeyToUse);
+	}
+
+	/**
+	 * Parses the given command line arguments and validates them. The access key
+	 * is determined from the value of the --accesskey option (null if not given)
+	 * with the given resolver, e.g. to use the access key read by the client of
+	 * the upload daemon.
+	 */
+	public static CommandLine parseArguments(String[] args, UnaryOperator<String> accessKeyResolver) {
 		ArgumentParser parser = ArgumentParsers.newFor("teamscale-upload").build().defaultHelp(true)
 				.description("Upload coverage, findings, ... to Teamscale.")
 				.version("Teamscale Upload " + ToolVersion.VERSION);
 		parser.addArgument("--version").action(Arguments.version())
 				.help("Prints the version number of this teamscale-upload tool and exits.");
 
-		parser.addArgument("-s", "--server").metavar("URL").required(true)
+		// --server and --user are required unless --daemon or --flush-spool is given, see validate()
+		parser.addArgument("-s", "--server").metavar("URL").required(false)
 				.help("The url under which the Teamscale server can be reached.");
-		parser.addArgument("-p", "--project").metavar("PROJECT").required(true)
+		// --project and --partition are required unless --relay is given, see validate()
+		parser.addArgument("-p", "--project").metavar("PROJECT").required(false)
 				.help("The project ID (NOT the project name!) to which to upload the data.");
-		parser.addArgument("-u", "--user").metavar("USER").required(true)
+		parser.addArgument("-u", "--user").metavar("USER").required(false)
 				.help("The username used to perform the upload. Must have the"
 						+ " 'Perform External Uploads' permission for the given Teamscale project.");
 		parser.addArgument("-a", "--accesskey").metavar("ACCESSKEY").required(false)
@@ -198,12 +350,13 @@ public class CommandLine {
 						+ "If the argument is a single dash, i.e. '--accesskey -', teamscale-upload will read the"
 						+ " access key from standard input. As a third option, you can provide the access key in the"
 						+ " environment variable $" + SecretUtils.TEAMSCALE_ACCESS_KEY_ENVIRONMENT_VARIABLE + ".");
-		parser.addArgument("-t", "--partition").metavar("PARTITION").required(true)
+		parser.addArgument("-t", "--partition").metavar("PARTITION").required(false)
 				.help("The partition into which the data is inserted in Teamscale."
 						+ " Successive uploads into the same partition will overwrite the data"
 						+ " previously inserted there, so use different partitions if you'd instead"
 						+ " like to merge data from different sources (e.g. one for Findbugs findings"
-						+ " and one for JaCoCo coverage).");
+						+ " and one for JaCoCo coverage). Further partitions can be specified in the"
+						+ " input file, see INPUTFILE.");
 		parser.addArgument("-x", "--proxy").metavar("PROXY").required(false).help(
 				"The proxy url + port that should be used to connect to Teamscale. Format url:port, e.g. localhost:8080. "
 						+ "If your proxy needs authentication, you can set the TEAMSCALE_PROXY_USER and TEAMSCALE_PROXY_PASSWORD"
@@ -259,7 +412,9 @@ public class CommandLine {
 						+ " message instead of replacing it. You may specify this parameter multiple"
 						+ " times to append several lines to the message.");
 		parser.addArgument("files").metavar("FILES").nargs("*")
-				.help("Path(s) or pattern(s) of the report files to upload. Alternatively, you may"
+				.help("Path(s) or pattern(s) of the report files to upload. Reports within zip or tar"
+						+ " archives are uploaded without extracting them if the pattern continues after a"
+						+ " '!/', e.g. build/reports.zip!/**/TEST-*.xml. Alternatively, you may"
 						+ " provide input files via -i or --input");
 		parser.addArgument("--stacktrace").action(Arguments.storeTrue()).required(false)
 				.help("Enables printing stack traces in all cases where errors occur. Used for debugging.");
@@ -271,6 +426,56 @@ public class CommandLine {
 		parser.addArgument("--max-attempts").metavar("MAX_ATTEMPTS").type(Integer.class).setDefault(3).required(false)
 				.help("The maximum number of attempts for uploads that fail due to transient network errors"
 						+ " (e.g. connection resets, server errors). Defaults to 3.");
+		parser.addArgument("--pack-reports").action(Arguments.storeTrue()).required(false)
+				.help("Packs the report files of each format into a single zip archive that is compressed"
+						+ " while it is uploaded, instead of uploading each file on its own. This speeds up"
+						+ " uploads of many small report files, e.g. JUnit reports. Requires a Teamscale"
+						+ " server that extracts zipped report uploads.");
+		parser.addArgument("--backfill").metavar("MANIFEST").required(false)
+				.help("Performs all uploads listed in the given manifest instead of uploading FILES, e.g. to"
+						+ " upload the reports of many past commits into a new Teamscale project. See BACKFILL.");
+		parser.addArgument("--relay").metavar("PORT").type(Integer.class).required(false)
+				.help("Runs a relay that accepts uploads from other teamscale-upload invocations on the given"
+						+ " port instead of uploading reports, and forwards them in batched sessions to --server."
+						+ " See RELAY.");
+		parser.addArgument("--relay-host").metavar("HOST").required(false)
+				.help("The host name or address of the interface on which the relay listens, e.g. 0.0.0.0 for"
+						+ " all interfaces. By default, the relay only accepts uploads from the same machine."
+						+ " See RELAY.");
+		parser.addArgument("--watch").metavar("STOP_FILE").required(false)
+				.help("Instead of uploading the report files once, watches for report files that match the"
+						+ " patterns and uploads them in batches as they are completed, until STOP_FILE"
+						+ " exists or the process is terminated. See WATCH.");
+		parser.addArgument("--mirror").metavar("URL;PROJECT;USER[;ACCESSKEY]").action(Arguments.append())
+				.required(false)
+				.help("Uploads the reports to a further Teamscale server, project and user in addition to"
+						+ " --server, e.g. to a staging instance. May be given multiple times. The reports are"
+						+ " resolved and converted once and uploaded to all servers concurrently with the"
+						+ " same partition, commit and message. If the access key is omitted, the one given for"
+						+ " --server is used.");
+		parser.addArgument("--daemon-socket").metavar("SOCKET").required(false)
+				.help("Hands the upload over to the upload daemon listening on the given Unix domain socket,"
+						+ " see DAEMON. The report files are still resolved and converted and the commit is"
+						+ " still detected by this process. If the daemon cannot be reached, the upload is"
+						+ " performed by this process.");
+		parser.addArgument("--spool-dir").metavar("SPOOL_DIR").required(false)
+				.help("If the upload of a partition still fails after all attempts because Teamscale refuses"
+						+ " the connection, does not answer in time or reports a server error, e.g. because it is"
+						+ " down for maintenance, the reports are stored in the given directory instead of"
+						+ " failing the upload. Other errors fail the upload as usual. Run 'teamscale-upload"
+						+ " --flush-spool SPOOL_DIR' to upload them once Teamscale is reachable again. The access"
+						+ " key is not stored unless it is given via --accesskey, so provide it in the"
+						+ " environment variable $" + SecretUtils.TEAMSCALE_ACCESS_KEY_ENVIRONMENT_VARIABLE
+						+ " when flushing.");
+		parser.addArgument("--flush-spool").metavar("SPOOL_DIR").required(false)
+				.help("Performs the uploads stored in the given directory via --spool-dir instead of uploading"
+						+ " FILES. Successful uploads are removed from the directory. The access key of uploads"
+						+ " for which it was not stored is taken from --accesskey or the environment variable $"
+						+ SecretUtils.TEAMSCALE_ACCESS_KEY_ENVIRONMENT_VARIABLE + ". --insecure and"
+						+ " --trusted-keystore apply to uploads that were stored without these options.");
+		parser.addArgument("--daemon").metavar("SOCKET").required(false)
+				.help("Runs an upload daemon that performs the uploads handed over via --daemon-socket SOCKET"
+						+ " instead of uploading FILES. See DAEMON.");
 		parser.epilog("For general usage help and alternative upload methods, please check our online"
 				+ " documentation at:" + "\nhttp://cqse.eu/tsu-docs" + "\n\nTARGET COMMIT"
 				+ "\n\nBy default, teamscale-upload tries to automatically detect the code commit"
@@ -285,19 +490,59 @@ public class CommandLine {
 				+ " report format. The report file patterns have the same format as used on the command"
 				+ " line. The entries in the file are separated by line breaks. Blank lines are ignored."
 				+ "\n\nExample:" + "\n\n[jacoco]" + "\npattern1/**.xml" + "\npattern2/**.xml" + "\n[findbugs]"
-				+ "\npattern1/**.findbugs.xml" + "\npattern2/**.findbugs.xml");
+				+ "\npattern1/**.findbugs.xml" + "\npattern2/**.findbugs.xml"
+				+ "\n\nThese reports are uploaded into the partition given via --partition. To upload"
+				+ " into further partitions in the same invocation, start a section with [partition: NAME]."
+				+ " Each partition is uploaded in its own session, concurrently to the others. Within a"
+				+ " partition section, [message: MESSAGE] and [path-prefix: PATH_PREFIX] replace the"
+				+ " respective command line options for that partition."
+				+ "\n\nExample:" + "\n\n[jacoco]" + "\nunit/**.xml" + "\n[partition: UI Tests]"
+				+ "\n[message: UI test coverage]" + "\n[jacoco]" + "\nui/**.xml" + "\n\nDAEMON"
+				+ "\n\nOn machines that upload very often, 'teamscale-upload --daemon SOCKET' starts an upload"
+				+ " daemon that listens on the Unix domain socket SOCKET and keeps its connections to Teamscale"
+				+ " open between uploads. Invocations with --daemon-socket SOCKET hand their uploads over to"
+				+ " the daemon. Proxy credentials are taken from the environment of the daemon. --insecure and"
+				+ " --trusted-keystore given to the daemon apply to uploads that don't specify these options."
+				+ "\n\nBACKFILL" + "\n\nThe manifest given via --backfill lists one upload per line in the"
+				+ " format REVISION;PARTITION;FORMAT;PATTERN[;PATTERN...]. REVISION is a commit or, if it"
+				+ " contains a colon, BRANCH:TIMESTAMP. If PARTITION is empty, --partition is used. Lines with"
+				+ " the same revision and partition are uploaded in one session. Empty lines and lines starting"
+				+ " with # are ignored. The uploads are performed concurrently and the completed ones are"
+				+ " recorded in MANIFEST.progress, so that a rerun only performs the missing uploads."
+				+ "\n\nExample:" + "\n\n3f2a9c1;Unit Tests;jacoco;reports/3f2a9c1/**.xml"
+				+ "\nmaster:1597845930000;;simple;coverage/1597845930000/*.simple" + "\n\nWATCH"
+				+ "\n\nWith --watch STOP_FILE, teamscale-upload can run alongside a long-running test suite."
+				+ " It watches the directories of the report patterns, including ones that are created only"
+				+ " later, and considers a matching file complete once it has not changed for a while."
+				+ " Completed files are uploaded in batches into one session of the partition given via"
+				+ " --partition, which is closed once STOP_FILE exists or the process is terminated, e.g."
+				+ " via Ctrl+C. Each file is uploaded once. The input file must not contain partition"
+				+ " sections." + "\n\nRELAY" + "\n\nWith --relay PORT, teamscale-upload runs a relay that"
+				+ " offers the upload endpoints of Teamscale on the given port, e.g. for many short-lived"
+				+ " containers that upload small reports. Point their --server to the relay and give them"
+				+ " the same user and access key as the relay. Uploads into the same project, partition and"
+				+ " commit that are finished within a short time window are forwarded to --server in one"
+				+ " session over a few persistent connections. An upload only succeeds once it was"
+				+ " forwarded, so errors of Teamscale are reported to the uploading invocation. The message"
+				+ " of the first upload in a batch is used for the forwarded session. The relay listens on"
+				+ " the loopback address unless --relay-host is given. It only speaks plain HTTP and clients"
+				+ " send their access key with every request, so terminate TLS in front of the relay, e.g. in"
+				+ " a reverse proxy, before making it reachable from other machines.");
 
 		try {
 			Namespace namespace = parser.parseArgs(args);
-			CommandLine commandLine = new CommandLine(namespace);
+			CommandLine commandLine = new CommandLine(args, namespace, accessKeyResolver, null);
 			commandLine.validate(parser);
 			return commandLine;
 		} catch (HelpScreenException e) {
-			System.exit(0); // teamscale-upload -h should return exit code 0
+			LogUtils.exit(0); // teamscale-upload -h should return exit code 0
 			return null;
 		} catch (ArgumentParserException e) {
-			parser.handleError(e);
-			System.exit(1);
+			// The upload daemon sends the errors of a job to its client
+			PrintWriter errorWriter = new PrintWriter(LogUtils.getErrorStream());
+			parser.handleError(e, errorWriter);
+			errorWriter.flush();
+			LogUtils.exit(1);
 			return null;
 		}
 
@@ -314,6 +559,41 @@ public class CommandLine {
 		return keystorePathAndPassword.split(";", 2)[0];
 	}
 
+	/**
+	 * Returns the {@link #arguments} with the paths given via options made
+	 * absolute, so that another process can parse them in a different working
+	 * directory, e.g. the upload daemon or a later flush of the spool. The
+	 * absolute paths are appended, since the last occurrence of an option wins.
+	 */
+	public String[] getArgumentsWithAbsolutePaths() {
+		List<String> absolutePathOptions = new ArrayList<>();
+		if (getKeyStorePath() != null && keystorePathAndPassword.contains(";")) {
+			absolutePathOptions.add("--trusted-keystore");
+			absolutePathOptions.add(Paths.get(getKeyStorePath()).toAbsolutePath() + ";" + getKeyStorePassword());
+		}
+		addAbsolutePathOption(absolutePathOptions, "--input", inputFile);
+		addAbsolutePathOption(absolutePathOptions, "--daemon-socket", daemonSocket);
+		addAbsolutePathOption(absolutePathOptions, "--backfill", backfillManifest);
+		addAbsolutePathOption(absolutePathOptions, "--watch", watchStopFile);
+		addAbsolutePathOption(absolutePathOptions, "--spool-dir", spoolDirectory);
+
+		List<String> absoluteArguments = new ArrayList<>(arguments);
+		// Options after "--" would be parsed as report patterns
+		int endOfOptions = absoluteArguments.indexOf("--");
+		if (endOfOptions < 0) {
+			endOfOptions = absoluteArguments.size();
+		}
+		absoluteArguments.addAll(endOfOptions, absolutePathOptions);
+		return absoluteArguments.toArray(new String[0]);
+	}
+
+	private static void addAbsolutePathOption(List<String> options, String option, Path path) {
+		if (path != null) {
+			options.add(option);
+			options.add(path.toAbsolutePath().toString());
+		}
+	}
+
 	/**
 	 * Returns the password for the keystore to use for self-signed certificates or
 	 * null if none was configured.
@@ -335,20 +615,112 @@ public class CommandLine {
 		return Long.parseLong(timeoutInSecondsAsString);
 	}
 
+	/** Returns the command lines for uploading to each of the {@link #mirrors}. */
+	public List<CommandLine> getMirrors() {
+		return mirrors.stream().map(this::getTarget).toList();
+	}
+
+	/**
+	 * Returns the command line for uploading only to the given mirror (see
+	 * {@link #mirrors}) or only to the server given via --server if the mirror is
+	 * null. If the mirror has no access key, the access key of this command line is
+	 * used.
+	 */
+	public CommandLine getTarget(String mirror) {
+		Map<String, Object> attributes = new HashMap<>(namespace.getAttrs());
+		attributes.remove("mirror");
+		if (mirror == null) {
+			return new CommandLine(arguments.toArray(new String[0]), new Namespace(attributes),
+					accessKeyViaOption -> accessKey, null);
+		}
+
+		String[] mirrorParts = mirror.split(";", 4);
+		attributes.put("server", mirrorParts[0]);
+		attributes.put("project", mirrorParts[1]);
+		attributes.put("user", mirrorParts[2]);
+		String mirrorAccessKey;
+		if (mirrorParts.length == 4) {
+			mirrorAccessKey = mirrorParts[3];
+		} else {
+			mirrorAccessKey = accessKey;
+		}
+		return new CommandLine(arguments.toArray(new String[0]), new Namespace(attributes),
+				accessKeyViaOption -> mirrorAccessKey, mirror);
+	}
+
+	/**
+	 * Returns the command line for uploading to the given commit or, if the
+	 * revision contains a colon, to the given branch and timestamp.
+	 */
+	public CommandLine forRevision(String revision) {
+		Map<String, Object> attributes = new HashMap<>(namespace.getAttrs());
+		if (revision.contains(":")) {
+			attributes.put("commit", null);
+			attributes.put("branch_and_timestamp", revision);
+		} else {
+			attributes.put("commit", revision);
+			attributes.put("branch_and_timestamp", null);
+		}
+		return new CommandLine(arguments.toArray(new String[0]), new Namespace(attributes),
+				accessKeyViaOption -> accessKey, mirror);
+	}
+
+	/**
+	 * Returns this command line with --insecure and --trusted-keystore of the
+	 * given command line, e.g. of the upload daemon, if this command line
+	 * specifies neither of them.
+	 */
+	public CommandLine withTlsDefaults(CommandLine defaults) {
+		if (!validateSsl || keystorePathAndPassword != null
+				|| (defaults.validateSsl && defaults.keystorePathAndPassword == null)) {
+			return this;
+		}
+		Map<String, Object> attributes = new HashMap<>(namespace.getAttrs());
+		attributes.put("insecure", !defaults.validateSsl);
+		attributes.put("trusted_keystore", defaults.keystorePathAndPassword);
+		return new CommandLine(arguments.toArray(new String[0]), new Namespace(attributes),
+				accessKeyViaOption -> accessKey, mirror);
+	}
+
 	/**
 	 * Checks the validity of the command line arguments and throws an exception if
 	 * any invalid configuration is detected.
 	 */
 	private void validate(ArgumentParser parser) throws ArgumentParserException {
+		if (daemonListenSocket != null || flushSpoolDirectory != null) {
+			validateDaemonOrFlushSpool(parser);
+			return;
+		}
+		if (namespace.getString("server") == null) {
+			throw new ArgumentParserException("argument -s/--server is required", parser);
+		}
+		if (username == null) {
+			throw new ArgumentParserException("argument -u/--user is required", parser);
+		}
 		if (url == null) {
 			throw new ArgumentParserException("You provided an invalid URL in the --server option", parser);
 		}
 
+		if (relayPort != null) {
+			validateRelay(parser);
+			return;
+		}
+		if (relayHost != null) {
+			throw new ArgumentParserException("You can only specify --relay-host together with --relay.", parser);
+		}
+		if (project == null) {
+			throw new ArgumentParserException("argument -p/--project is required", parser);
+		}
+		if (partition == null) {
+			throw new ArgumentParserException("argument -t/--partition is required", parser);
+		}
+
 		validateTimeoutInSeconds(parser);
 		validateMaxAttempts(parser);
 		validateProxy(parser);
 		validateKeystoreSettings(parser);
 		validateAccessKey(parser);
+		validateMirrors(parser);
 
 		if (hasMoreThanOneCommitOptionSet()) {
 			throw new ArgumentParserException("You used more than one of --commit and --branch-and-timestamp."
@@ -361,6 +733,15 @@ public class CommandLine {
 					parser);
 		}
 
+		if (backfillManifest != null) {
+			validateBackfill(parser);
+			return;
+		}
+
+		if (watchStopFile != null) {
+			validateWatch(parser);
+		}
+
 		if (files.isEmpty() && inputFile == null) {
 			throw new ArgumentParserException("You did not provide any report files to upload."
 					+ " You must either specify the paths of the report files as command line"
@@ -439,6 +820,74 @@ public class CommandLine {
 		}
 	}
 
+	private void validateBackfill(ArgumentParser parser) throws ArgumentParserException {
+		if (commit != null || timestamp != null) {
+			throw new ArgumentParserException("The commits are given per upload in the backfill manifest."
+					+ " You cannot combine --backfill with --commit or --branch-and-timestamp.", parser);
+		}
+		if (!files.isEmpty() || inputFile != null || watchStopFile != null) {
+			throw new ArgumentParserException("The report files are given per upload in the backfill manifest."
+					+ " You cannot combine --backfill with FILES, --input or --watch.", parser);
+		}
+	}
+
+	private void validateRelay(ArgumentParser parser) throws ArgumentParserException {
+		validateTimeoutInSeconds(parser);
+		validateProxy(parser);
+		validateKeystoreSettings(parser);
+		validateAccessKey(parser);
+		if (relayPort < 1 || relayPort > 65535) {
+			throw new ArgumentParserException("The relay port must be between 1 and 65535.", parser);
+		}
+		if (!files.isEmpty() || inputFile != null || commit != null || timestamp != null || backfillManifest != null
+				|| watchStopFile != null || daemonSocket != null || spoolDirectory != null || !mirrors.isEmpty()) {
+			throw new ArgumentParserException("The relay forwards the uploads of other invocations to --server."
+					+ " You cannot combine --relay with report files, the target commit, --backfill, --watch,"
+					+ " --daemon-socket, --spool-dir or --mirror.", parser);
+		}
+	}
+
+	private void validateDaemonOrFlushSpool(ArgumentParser parser) throws ArgumentParserException {
+		if (daemonListenSocket != null && flushSpoolDirectory != null) {
+			throw new ArgumentParserException("You cannot combine --daemon with --flush-spool.", parser);
+		}
+		validateKeystoreSettings(parser);
+		if (namespace.getString("server") != null || username != null || project != null || partition != null
+				|| !files.isEmpty() || inputFile != null || commit != null || timestamp != null
+				|| backfillManifest != null || watchStopFile != null || relayPort != null || daemonSocket != null
+				|| spoolDirectory != null || !mirrors.isEmpty()) {
+			throw new ArgumentParserException("The uploads are taken from the submitted or spooled uploads."
+					+ " You cannot combine --daemon or --flush-spool with the target server, project, partition"
+					+ " or commit, report files, --backfill, --watch, --relay, --daemon-socket, --spool-dir or"
+					+ " --mirror.", parser);
+		}
+	}
+
+	private void validateWatch(ArgumentParser parser) throws ArgumentParserException {
+		if (daemonSocket != null || spoolDirectory != null || !mirrors.isEmpty()) {
+			throw new ArgumentParserException("You cannot combine --watch with --daemon-socket, --spool-dir or"
+					+ " --mirror.", parser);
+		}
+		if (XcodeReportConverter.XCODE_REPORT_FORMAT.equals(format)) {
+			throw new ArgumentParserException(
+					"You cannot use --watch for " + XcodeReportConverter.XCODE_REPORT_FORMAT + " reports.", parser);
+		}
+	}
+
+	private void validateMirrors(ArgumentParser parser) throws ArgumentParserException {
+		for (String mirror : mirrors) {
+			String[] mirrorParts = mirror.split(";", 4);
+			if (mirrorParts.length < 3) {
+				throw new ArgumentParserException("The mirror '" + mirror + "' is in the wrong format, please"
+						+ " specify `URL;PROJECT;USER` or `URL;PROJECT;USER;ACCESSKEY`.", parser);
+			}
+			if (HttpUrl.parse(mirrorParts[0]) == null) {
+				throw new ArgumentParserException("You provided an invalid URL in the --mirror option: "
+						+ mirrorParts[0], parser);
+			}
+		}
+	}
+
 	private void validateBranchAndTimestamp(ArgumentParser parser) throws ArgumentParserException {
 		if (timestamp == null) {
 			return;
@@ -7,11 +7,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.teamscale.upload.autodetect_revision.AutodetectCommitUtils;
+import com.teamscale.upload.backfill.Backfill;
 import com.teamscale.upload.client.TeamscaleClient;
+import com.teamscale.upload.daemon.UploadDaemon;
+import com.teamscale.upload.daemon.UploadDaemonClient;
+import com.teamscale.upload.daemon.UploadSpool;
+import com.teamscale.upload.relay.UploadRelay;
+import com.teamscale.upload.resolve.ArchiveEntryFile;
 import com.teamscale.upload.resolve.FilePatternResolutionException;
+import com.teamscale.upload.resolve.ReportPartition;
 import com.teamscale.upload.resolve.ReportPatternUtils;
 import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.watch.ReportWatcher;
 import com.teamscale.upload.xcode.ConversionException;
+import com.teamscale.upload.xcode.ConvertedReport;
 import com.teamscale.upload.xcode.XcodeReportConverter;
 
 /**
@@ -32,24 +42,73 @@ public class TeamscaleUpload {
 			LogUtils.enableStackTracePrintingForKnownErrors();
 		}
 
-		Map<String, Set<File>> filesByFormat = resolveAndConvertFiles(commandLine);
-		TeamscaleClient.performUpload(commandLine, filesByFormat);
-	}
+		if (commandLine.daemonListenSocket != null) {
+			UploadDaemon.run(commandLine);
+			return;
+		}
+		if (commandLine.flushSpoolDirectory != null) {
+			int exitCode = new UploadSpool(commandLine.flushSpoolDirectory).flush(commandLine.accessKey, commandLine);
+			if (exitCode != 0) {
+				LogUtils.exit(exitCode);
+			}
+			return;
+		}
+		if (commandLine.relayPort != null) {
+			UploadRelay.run(commandLine);
+			return;
+		}
+		if (commandLine.backfillManifest != null) {
+			int exitCode = Backfill.run(commandLine);
+			if (exitCode != 0) {
+				LogUtils.exit(exitCode);
+			}
+			return;
+		}
 
+		if (commandLine.commit == null && commandLine.timestamp == null) {
+			// The commit is needed only for the upload, so we detect it in the meantime
+			AutodetectCommitUtils.startDetection();
+		}
+		if (commandLine.watchStopFile != null) {
+			int exitCode = ReportWatcher.run(commandLine);
+			if (exitCode != 0) {
+				LogUtils.exit(exitCode);
+			}
+			return;
+		}
+		List<ReportPartition> partitions = resolveAndConvertFiles(commandLine);
+		if (commandLine.daemonSocket != null) {
+			Integer exitCode = UploadDaemonClient.submit(commandLine, partitions);
+			if (exitCode != null) {
+				if (exitCode != 0) {
+					LogUtils.exit(exitCode);
+				}
+				return;
+			}
+		}
+		TeamscaleClient.performUpload(commandLine, partitions);
+	}
 
 	/**
 	 * Resolves the files that should be uploaded to Teamscale and converts them to
 	 * the expected formated if needed (e.g., XCode reports).
 	 */
-	private static Map<String, Set<File>> resolveAndConvertFiles(CommandLine commandLine)
+	private static List<ReportPartition> resolveAndConvertFiles(CommandLine commandLine)
 			throws FilePatternResolutionException, IOException {
-		Map<String, Set<File>> filesByFormat = ReportPatternUtils.resolveInputFilePatterns(commandLine.inputFile,
-				commandLine.files, commandLine.format);
-		if (containsAnyXCodeReports(filesByFormat.keySet())) {
-			// XCode reports need to be converted before they can be uploaded to Teamscale
-			convertXCodeReports(filesByFormat);
+		List<ReportPartition> partitions = ReportPatternUtils.resolveInputFilePatterns(commandLine.inputFile,
+				commandLine.files, commandLine.format, formats -> {
+					if (containsAnyXCodeReports(formats)) {
+						// Determining the Xcode toolchain is slow, so we do it while resolving the files
+						XcodeReportConverter.startToolchainProbing();
+					}
+				});
+		for (ReportPartition partition : partitions) {
+			if (containsAnyXCodeReports(partition.filesByFormat.keySet())) {
+				// XCode reports need to be converted before they can be uploaded to Teamscale
+				convertXCodeReports(partition.filesByFormat);
+			}
 		}
-		return filesByFormat;
+		return partitions;
 	}
 
 	/**
@@ -67,11 +126,17 @@ public class TeamscaleUpload {
 	private static void convertXCodeReports(Map<String, Set<File>> filesByFormat) {
 		try {
 			Set<File> xcresultBundles = filesByFormat.remove(XcodeReportConverter.XCODE_REPORT_FORMAT);
-			List<File> convertedReports = XcodeReportConverter.convert(xcresultBundles);
+			if (xcresultBundles.stream().anyMatch(ArchiveEntryFile.class::isInstance)) {
+				LogUtils.fail("XCode reports cannot be read from within archives."
+						+ " Please pass the archive that contains the *.xcresult bundles instead.");
+			}
+			List<ConvertedReport> convertedReports = XcodeReportConverter.convert(xcresultBundles);
 
 			// Add the converted reports back to filesByFormat
-			filesByFormat.computeIfAbsent(XcodeReportConverter.XCODE_REPORT_FORMAT, format -> new HashSet<>())
-					.addAll(convertedReports);
+			for (ConvertedReport convertedReport : convertedReports) {
+				filesByFormat.computeIfAbsent(convertedReport.reportFormat, format -> new HashSet<>())
+						.add(convertedReport.report);
+			}
 		} catch (ConversionException e) {
 			LogUtils.failWithoutStackTrace(e.getMessage(), e);
 		}
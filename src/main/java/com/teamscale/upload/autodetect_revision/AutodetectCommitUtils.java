@@ -1,26 +1,80 @@
 package com.teamscale.upload.autodetect_revision;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.teamscale.upload.utils.ThreadUtils;
+
 /**
  * Utilities for automatically detecting the commit to which to upload data.
+ * <p>
+ * The detection runs in the background (see {@link #startDetection()}) so that
+ * it doesn't delay the upload, and its result is reused for the whole run.
  */
 public class AutodetectCommitUtils {
 
+	private static final ExecutorService DETECTION_EXECUTOR = ThreadUtils.createTaskExecutor("commit-detection-");
+
+	/** The running or completed detection. */
+	private static CompletableFuture<String> detection;
+
+	/**
+	 * Starts detecting the commit in the background if this hasn't happened yet.
+	 * Should be called as early as possible, e.g. while the files to upload are
+	 * resolved.
+	 */
+	public static void startDetection() {
+		getDetection();
+	}
+
 	/**
 	 * Tries to automatically detect the commit to which data should be uploaded.
 	 * Returns null if no such commit can be detected.
 	 */
 	public static String detectCommit() {
+		return getDetection().join();
+	}
+
+	/**
+	 * Uses the given commit (may be null) as the detected commit instead of
+	 * detecting it in the current working directory. Used by the upload daemon,
+	 * whose jobs are submitted from other directories that have already been
+	 * checked by the submitting process.
+	 */
+	public static synchronized void useDetectedCommit(String commit) {
+		detection = CompletableFuture.completedFuture(commit);
+	}
+
+	private static synchronized CompletableFuture<String> getDetection() {
+		if (detection == null) {
+			detection = CompletableFuture.supplyAsync(AutodetectCommitUtils::detectCommitNow, DETECTION_EXECUTOR);
+		}
+		return detection;
+	}
+
+	/**
+	 * Checks the environment variables, Git and SVN in this order of precedence.
+	 * Usually, Git can be checked without starting a process. Only if git has to
+	 * be run, SVN is probed in parallel to it.
+	 */
+	private static String detectCommitNow() {
 		String commit = EnvironmentVariableChecker.findCommit();
 		if (commit != null) {
 			return commit;
 		}
 
-		commit = GitChecker.findCommit();
+		AtomicReference<CompletableFuture<SvnChecker.SvnProbe>> svnProbe = new AtomicReference<>();
+		commit = GitChecker.findCommit(() -> svnProbe
+				.set(CompletableFuture.supplyAsync(SvnChecker::probeRevision, DETECTION_EXECUTOR)));
 		if (commit != null) {
 			return commit;
 		}
 
-		return SvnChecker.findRevision();
+		if (svnProbe.get() == null) {
+			return SvnChecker.findRevision();
+		}
+		return svnProbe.get().join().report();
 	}
 
 }
@@ -1,10 +1,15 @@
 package com.teamscale.upload.autodetect_revision;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import com.teamscale.upload.utils.LogUtils;
 
 /**
  * Tries to detect a Git repository in the current directory and read its
- * checked out commit.
+ * checked out commit. The commit is read directly from the repository if
+ * possible (see {@link GitHeadReader}), which avoids starting git.
  */
 public class GitChecker {
 
@@ -13,6 +18,50 @@ public class GitChecker {
 	 * current commit SHA-1. Otherwise, returns null.
 	 */
 	public static String findCommit() {
+		return findCommit(() -> {
+			// Nothing to prepare
+		});
+	}
+
+	/**
+	 * Like {@link #findCommit()}, but runs the given action before git is started,
+	 * e.g. to run other slow checks in parallel to git.
+	 */
+	/* package */ static String findCommit(Runnable beforeStartingGit) {
+		if (!GitHeadReader.canLocateRepository()) {
+			beforeStartingGit.run();
+			return findCommitWithGit();
+		}
+
+		Path gitDirectory;
+		try {
+			gitDirectory = GitHeadReader.findGitDirectory(Paths.get(""));
+		} catch (IOException e) {
+			LogUtils.debug(e.getMessage() + ". Falling back to git.");
+			beforeStartingGit.run();
+			return findCommitWithGit();
+		}
+		if (gitDirectory == null) {
+			LogUtils.info("The working directory does not appear to be within a Git repository.");
+			return null;
+		}
+
+		String sha1 = GitHeadReader.readHead(gitDirectory);
+		if (sha1 != null) {
+			LogUtils.info("Using Git commit " + sha1);
+			return sha1;
+		}
+
+		LogUtils.debug("Could not read the checked-out commit from " + gitDirectory + ". Falling back to git.");
+		beforeStartingGit.run();
+		return findCommitWithGit();
+	}
+
+	/**
+	 * Determines the checked-out commit with the git executable, which supports
+	 * all repository layouts and configurations.
+	 */
+	private static String findCommitWithGit() {
 		if (!isInsideGit()) {
 			LogUtils.info("The working directory does not appear to be within a Git repository.");
 			return null;
@@ -0,0 +1,202 @@
+package com.teamscale.upload.autodetect_revision;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import com.teamscale.upload.utils.LogUtils;
+
+/**
+ * Reads the checked-out commit of a Git repository directly from the
+ * repository's files, which is much faster than starting {@code git}.
+ * <p>
+ * Supports regular repositories, worktrees and submodules (where {@code .git}
+ * is a file pointing to the actual Git directory), loose refs and
+ * {@code packed-refs}. For anything else (e.g. the reftable format or
+ * repositories configured via environment variables), the methods return null
+ * and the caller should fall back to the {@code git} executable.
+ */
+/* package */ class GitHeadReader {
+
+	/** Environment variables that change where Git looks for the repository. */
+	private static final String[] GIT_LOCATION_ENVIRONMENT_VARIABLES = { "GIT_DIR", "GIT_WORK_TREE",
+			"GIT_COMMON_DIR" };
+
+	/** SHA-1 or SHA-256 object IDs. */
+	private static final Pattern OBJECT_ID_PATTERN = Pattern.compile("[0-9a-f]{40}|[0-9a-f]{64}");
+
+	private static final String GIT_FILE_PREFIX = "gitdir:";
+
+	private static final String SYMBOLIC_REF_PREFIX = "ref:";
+
+	/** Git gives up on longer chains of symbolic refs as well. */
+	private static final int MAX_SYMBOLIC_REF_DEPTH = 5;
+
+	/**
+	 * Returns false if the repository location is configured via environment
+	 * variables, which is only supported by the {@code git} executable.
+	 */
+	/* package */ static boolean canLocateRepository() {
+		for (String variable : GIT_LOCATION_ENVIRONMENT_VARIABLES) {
+			if (System.getenv(variable) != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the Git directory of the repository containing the given directory
+	 * or null if there is none. Like {@code git}, the parent directories are
+	 * searched for a {@code .git} directory or file.
+	 *
+	 * @throws IOException
+	 *             if a {@code .git} file was found whose Git directory cannot be
+	 *             read, so only the {@code git} executable can decide whether
+	 *             this is a repository.
+	 */
+	/* package */ static Path findGitDirectory(Path directory) throws IOException {
+		Path current = directory.toAbsolutePath().normalize();
+		while (current != null) {
+			Path dotGit = current.resolve(".git");
+			if (Files.isDirectory(dotGit)) {
+				return dotGit;
+			}
+			if (Files.isRegularFile(dotGit)) {
+				return readGitFile(dotGit);
+			}
+			current = current.getParent();
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves the commit checked out in the given Git directory or returns null
+	 * if it cannot be resolved from the files.
+	 */
+	/* package */ static String readHead(Path gitDirectory) {
+		try {
+			Path commonDirectory = findCommonDirectory(gitDirectory);
+			if (Files.exists(commonDirectory.resolve("reftable"))) {
+				return null;
+			}
+
+			String value = readFirstLine(gitDirectory.resolve("HEAD"));
+			for (int depth = 0; value != null && depth < MAX_SYMBOLIC_REF_DEPTH; depth++) {
+				if (!value.startsWith(SYMBOLIC_REF_PREFIX)) {
+					return toObjectId(value);
+				}
+				String refName = value.substring(SYMBOLIC_REF_PREFIX.length()).trim();
+				value = readRef(gitDirectory, commonDirectory, refName);
+			}
+			return null;
+		} catch (IOException e) {
+			LogUtils.debug("Could not read HEAD of Git directory " + gitDirectory + ": " + e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a {@code .git} file as used by worktrees and submodules, which
+	 * contains the path of the actual Git directory.
+	 */
+	private static Path readGitFile(Path gitFile) throws IOException {
+		String content = readFirstLine(gitFile);
+		if (content == null || !content.startsWith(GIT_FILE_PREFIX)) {
+			throw new IOException("Git file " + gitFile + " does not point to a Git directory");
+		}
+		Path gitDirectory;
+		try {
+			gitDirectory = gitFile.getParent().resolve(content.substring(GIT_FILE_PREFIX.length()).trim())
+					.normalize();
+		} catch (InvalidPathException e) {
+			throw new IOException("Git file " + gitFile + " contains an invalid path", e);
+		}
+		if (!Files.isDirectory(gitDirectory)) {
+			throw new IOException("Git directory " + gitDirectory + " referenced by " + gitFile + " does not exist");
+		}
+		return gitDirectory;
+	}
+
+	/**
+	 * Returns the directory containing the refs shared by all worktrees. For
+	 * worktrees, this is the Git directory of the main repository.
+	 */
+	private static Path findCommonDirectory(Path gitDirectory) throws IOException {
+		String commonDirectory = readFirstLine(gitDirectory.resolve("commondir"));
+		if (commonDirectory == null) {
+			return gitDirectory;
+		}
+		return gitDirectory.resolve(commonDirectory.trim()).normalize();
+	}
+
+	/**
+	 * Returns the content of the loose ref or the object ID from the
+	 * {@code packed-refs}. Refs like {@code HEAD} are specific to a worktree, so
+	 * the Git directory is checked before the common directory.
+	 */
+	private static String readRef(Path gitDirectory, Path commonDirectory, String refName) throws IOException {
+		if (refName.contains("..")) {
+			return null;
+		}
+
+		String value = readFirstLine(gitDirectory.resolve(refName));
+		if (value == null && !commonDirectory.equals(gitDirectory)) {
+			value = readFirstLine(commonDirectory.resolve(refName));
+		}
+		if (value != null) {
+			return value;
+		}
+		return readPackedRef(commonDirectory.resolve("packed-refs"), refName);
+	}
+
+	/**
+	 * Looks up the ref in the {@code packed-refs} file, which contains lines of the
+	 * form {@code <object ID> <ref name>}. Comments start with {@code #} and the
+	 * peeled object IDs of annotated tags with {@code ^}.
+	 */
+	private static String readPackedRef(Path packedRefs, String refName) throws IOException {
+		if (!Files.isRegularFile(packedRefs)) {
+			return null;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(packedRefs, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#") || line.startsWith("^")) {
+					continue;
+				}
+				int separator = line.indexOf(' ');
+				if (separator > 0 && line.substring(separator + 1).equals(refName)) {
+					return line.substring(0, separator);
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String toObjectId(String value) {
+		if (OBJECT_ID_PATTERN.matcher(value).matches()) {
+			return value;
+		}
+		return null;
+	}
+
+	/** Returns the trimmed first line of the file or null if it doesn't exist. */
+	private static String readFirstLine(Path file) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if (line == null) {
+				return null;
+			}
+			return line.trim();
+		}
+	}
+}
@@ -3,8 +3,17 @@ package com.teamscale.upload.autodetect_revision;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.teamscale.upload.utils.FileSystemUtils;
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.utils.ThreadUtils;
 
 /**
  * Utility methods for executing processes on the command line.
@@ -19,6 +28,34 @@ public class ProcessUtils {
 
 	private static final int EXIT_CODE_SUCCESS = 0;
 
+	/**
+	 * Exit code reported in the {@link ProcessResult} if the process could not be
+	 * run or was destroyed after a timeout.
+	 */
+	private static final int EXIT_CODE_NOT_COMPLETED = -1;
+
+	/**
+	 * How long to wait for the output streams to be closed after a process was
+	 * destroyed.
+	 */
+	private static final long STREAM_CLOSE_TIMEOUT_MILLIS = 10_000;
+
+	/**
+	 * Runs the {@link ProcessOutputReader}s. Processes are started frequently (e.g.
+	 * once per source file during the legacy Xcode conversion), so the readers run
+	 * on virtual threads or reused platform threads instead of two new platform
+	 * threads per process.
+	 */
+	private static final ExecutorService OUTPUT_READER_EXECUTOR = ThreadUtils
+			.createTaskExecutor("process-output-reader-");
+
+	/**
+	 * The time after which a process is destroyed if no other timeout is given.
+	 * Ensures that a hanging tool doesn't block the upload forever.
+	 */
+	public static final Duration DEFAULT_TIMEOUT = Duration
+			.ofMinutes(Long.getLong("com.teamscale.upload.process-timeout-minutes", 60));
+
 	/**
 	 * Starts a {@link Process} for the command and returns the
 	 * {@link ProcessResult}.
@@ -27,6 +64,15 @@ public class ProcessUtils {
 		return runWithStdIn(null, command);
 	}
 
+	/**
+	 * Starts a {@link Process} for the command and returns the
+	 * {@link ProcessResult}. The process and all its descendants are destroyed if
+	 * it doesn't finish within the given timeout.
+	 */
+	public static ProcessResult run(Duration timeout, String... command) {
+		return toProcessResult(runWithStdInAndParser(null, FileSystemUtils::getInputAsString, timeout, command));
+	}
+
 	/**
 	 * Starts a {@link Process} for the command and returns the
 	 * {@link ProcessResult}. Additionally, takes a file which can be used to pipe
@@ -34,12 +80,49 @@ public class ProcessUtils {
 	 * indicate that no stdin should be used.
 	 */
 	public static ProcessResult runWithStdIn(File stdInFile, String... command) {
+		return toProcessResult(
+				runWithStdInAndParser(stdInFile, FileSystemUtils::getInputAsString, DEFAULT_TIMEOUT, command));
+	}
+
+	private static ProcessResult toProcessResult(ParsedProcessResult<String> result) {
+		String output = result.parsedOutput;
+		if (output == null) {
+			output = "";
+		}
+		return new ProcessResult(result.exitCode, output, result.errorOutput, result.exception);
+	}
+
+	/**
+	 * Starts a {@link Process} for the command and passes its stdout directly to
+	 * the given {@link OutputParser} instead of buffering it in a {@link String}.
+	 * This avoids materializing large outputs in memory if only parts of them are
+	 * needed. The {@link ParsedProcessResult#output} is always null, the parsed
+	 * output is available via {@link ParsedProcessResult#parsedOutput}.
+	 */
+	public static <T> ParsedProcessResult<T> runAndParseOutput(OutputParser<T> outputParser, String... command) {
+		return runAndParseOutput(DEFAULT_TIMEOUT, outputParser, command);
+	}
+
+	/**
+	 * Like {@link #runAndParseOutput(OutputParser, String...)}, but destroys the
+	 * process and all its descendants if it doesn't finish within the given
+	 * timeout.
+	 */
+	public static <T> ParsedProcessResult<T> runAndParseOutput(Duration timeout, OutputParser<T> outputParser,
+			String... command) {
+		return runWithStdInAndParser(null, outputParser, timeout, command);
+	}
+
+	private static <T> ParsedProcessResult<T> runWithStdInAndParser(File stdInFile, OutputParser<T> outputParser,
+			Duration timeout, String... command) {
+		long startTime = System.nanoTime();
+		Process process = null;
 		try {
 			ProcessBuilder processBuilder = new ProcessBuilder(command);
 			if (stdInFile != null) {
 				processBuilder.redirectInput(stdInFile);
 			}
-			Process process = processBuilder.start();
+			process = processBuilder.start();
 
 			/*
 			 * Both input streams need to be drained in separate threads since reading
@@ -48,52 +131,140 @@ public class ProcessUtils {
 			 *
 			 * See https://stackoverflow.com/a/7562321.
 			 */
-			ProcessOutputReader inputStreamReader = new ProcessOutputReader(process.getInputStream());
-			ProcessOutputReader errorStreamReader = new ProcessOutputReader(process.getErrorStream());
-			Thread inputStreamReaderThread = new Thread(inputStreamReader);
-			Thread errorStreamReaderThread = new Thread(errorStreamReader);
-			inputStreamReaderThread.start();
-			errorStreamReaderThread.start();
+			ProcessOutputReader<T> inputStreamReader = new ProcessOutputReader<>(process.getInputStream(),
+					outputParser);
+			ProcessOutputReader<String> errorStreamReader = new ProcessOutputReader<>(process.getErrorStream(),
+					FileSystemUtils::getInputAsString);
+			Future<?> inputStreamReaderTask = OUTPUT_READER_EXECUTOR.submit(inputStreamReader);
+			Future<?> errorStreamReaderTask = OUTPUT_READER_EXECUTOR.submit(errorStreamReader);
 
-			int exitCode = process.waitFor();
+			if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+				destroyProcessTree(process);
+				// Don't wait forever in case a detached process still holds the pipes open
+				awaitOutputReader(inputStreamReaderTask, STREAM_CLOSE_TIMEOUT_MILLIS);
+				awaitOutputReader(errorStreamReaderTask, STREAM_CLOSE_TIMEOUT_MILLIS);
+				String message = String.format("Process did not finish within %.1f seconds and was destroyed: %s",
+						timeout.toMillis() / 1000.0, String.join(" ", command));
+				LogUtils.warn(message);
+				return new ParsedProcessResult<>(EXIT_CODE_NOT_COMPLETED, null, message,
+						new TimeoutException(message));
+			}
+			int exitCode = process.exitValue();
 
 			/*
-			 * Ensure that both threads have finished execution if the process terminates
-			 * earlier than the threads.
+			 * Ensure that both readers have finished execution if the process terminates
+			 * earlier than the readers.
 			 */
-			inputStreamReaderThread.join();
-			errorStreamReaderThread.join();
+			awaitOutputReader(inputStreamReaderTask);
+			awaitOutputReader(errorStreamReaderTask);
 			inputStreamReader.rethrowCaughtException();
 			errorStreamReader.rethrowCaughtException();
 
-			return new ProcessResult(exitCode, inputStreamReader.result, errorStreamReader.result, null);
-		} catch (IOException | InterruptedException e) {
-			return new ProcessResult(-1, "", e.getMessage(), e);
+			logDuration(command, exitCode, startTime);
+			return new ParsedProcessResult<>(exitCode, inputStreamReader.result, errorStreamReader.result, null);
+		} catch (InterruptedException e) {
+			// E.g. the conversion was cancelled, so the process is no longer needed
+			if (process != null) {
+				destroyProcessTree(process);
+			}
+			Thread.currentThread().interrupt();
+			return new ParsedProcessResult<>(EXIT_CODE_NOT_COMPLETED, null, e.getMessage(), e);
+		} catch (IOException e) {
+			return new ParsedProcessResult<>(EXIT_CODE_NOT_COMPLETED, null, e.getMessage(), e);
+		}
+	}
+
+	private static void awaitOutputReader(Future<?> outputReaderTask) throws InterruptedException, IOException {
+		try {
+			outputReaderTask.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Reading the process output failed: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Waits for the output reader to finish, but at most the given time. Failures
+	 * are ignored since the process was destroyed anyway.
+	 */
+	private static void awaitOutputReader(Future<?> outputReaderTask, long timeoutMillis)
+			throws InterruptedException {
+		try {
+			outputReaderTask.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException | TimeoutException e) {
+			LogUtils.debug("Output of destroyed process could not be read completely: " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Forcibly destroys the process and all its descendants. Tools like
+	 * {@code xcrun} start child processes that would otherwise keep running (and
+	 * keep the output pipes open).
+	 */
+	private static void destroyProcessTree(Process process) {
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroyForcibly();
+	}
+
+	private static void logDuration(String[] command, int exitCode, long startTime) {
+		long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+		LogUtils.debug("Process finished with exit code %d after %d ms: %s", exitCode, durationMillis,
+				String.join(" ", command));
+	}
+
+	/**
+	 * Parses the stdout of a process while it is running.
+	 */
+	@FunctionalInterface
+	public interface OutputParser<T> {
+
+		/**
+		 * Parses the given stream. Implementations need not consume the stream
+		 * completely and must not close it.
+		 */
+		T parse(InputStream inputStream) throws IOException;
+	}
+
 	/**
 	 * Runnable for reading the input stream asynchronously from a separate thread
 	 * to prevent a deadlock due to blocking read operations.
 	 */
-	private static class ProcessOutputReader implements Runnable {
+	private static class ProcessOutputReader<T> implements Runnable {
 
 		private final InputStream inputStream;
 
+		private final OutputParser<T> outputParser;
+
 		private IOException exception;
 
-		private String result;
+		private T result;
 
-		private ProcessOutputReader(InputStream inputStream) {
+		private ProcessOutputReader(InputStream inputStream, OutputParser<T> outputParser) {
 			this.inputStream = inputStream;
+			this.outputParser = outputParser;
 		}
 
 		@Override
 		public void run() {
 			try {
-				result = FileSystemUtils.getInputAsString(inputStream);
+				result = outputParser.parse(inputStream);
 			} catch (IOException e) {
 				exception = e;
+			} finally {
+				drainRemainingOutput();
+			}
+		}
+
+		/**
+		 * The parser may stop early (or fail). The rest of the output must still be
+		 * drained as the process would otherwise block on a full pipe.
+		 */
+		private void drainRemainingOutput() {
+			try {
+				inputStream.transferTo(OutputStream.nullOutputStream());
+			} catch (IOException e) {
+				if (exception == null) {
+					exception = e;
+				}
 			}
 		}
 
@@ -156,5 +327,31 @@ public class ProcessUtils {
 		public boolean wasSuccessful() {
 			return exception == null && exitCode == EXIT_CODE_SUCCESS;
 		}
+
+		/**
+		 * Returns true if the process was destroyed because it did not finish within
+		 * its timeout.
+		 */
+		public boolean timedOut() {
+			return exception instanceof TimeoutException;
+		}
+	}
+
+	/**
+	 * The result of a process execution whose stdout was passed to an
+	 * {@link OutputParser}.
+	 */
+	public static class ParsedProcessResult<T> extends ProcessResult {
+
+		/**
+		 * The result of the {@link OutputParser} or null if the process could not be
+		 * run.
+		 */
+		public final T parsedOutput;
+
+		private ParsedProcessResult(int exitCode, T parsedOutput, String errorOutput, Exception exception) {
+			super(exitCode, null, errorOutput, exception);
+			this.parsedOutput = parsedOutput;
+		}
 	}
 }
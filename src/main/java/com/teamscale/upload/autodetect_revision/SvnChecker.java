@@ -13,21 +13,19 @@ public class SvnChecker {
 	 * directory's revision. Otherwise, returns null.
 	 */
 	public static String findRevision() {
-		if (!isInsideSvn()) {
-			LogUtils.info("The working directory does not appear to be within an SVN repository.");
-			return null;
-		}
+		return probeRevision().report();
+	}
 
-		ProcessUtils.ProcessResult result = ProcessUtils.run("svn", "info", "--show-item", "revision");
-		if (result.wasSuccessful()) {
-			String revision = result.output.trim();
-			LogUtils.info("Using SVN revision " + revision);
-			return revision;
+	/**
+	 * Runs svn to determine the revision, but doesn't log anything yet. This allows
+	 * to probe SVN in parallel to other checks and to only log the result if it is
+	 * actually used.
+	 */
+	/* package */ static SvnProbe probeRevision() {
+		if (!isInsideSvn()) {
+			return new SvnProbe(null);
 		}
-
-		LogUtils.warn("Failed to read checked-out SVN revision. svn info --show-item revision returned: "
-				+ result.errorOutput);
-		return null;
+		return new SvnProbe(ProcessUtils.run("svn", "info", "--show-item", "revision"));
 	}
 
 	private static boolean isInsideSvn() {
@@ -35,4 +33,36 @@ public class SvnChecker {
 		return result.wasSuccessful() && result.output.contains("URL:");
 	}
 
+	/** The result of {@link #probeRevision()}. */
+	/* package */ static class SvnProbe {
+
+		/**
+		 * The result of querying the revision or null if the working directory is not
+		 * an SVN checkout.
+		 */
+		private final ProcessUtils.ProcessResult result;
+
+		private SvnProbe(ProcessUtils.ProcessResult result) {
+			this.result = result;
+		}
+
+		/** Logs the outcome of the probe and returns the revision or null. */
+		/* package */ String report() {
+			if (result == null) {
+				LogUtils.info("The working directory does not appear to be within an SVN repository.");
+				return null;
+			}
+
+			if (result.wasSuccessful()) {
+				String revision = result.output.trim();
+				LogUtils.info("Using SVN revision " + revision);
+				return revision;
+			}
+
+			LogUtils.warn("Failed to read checked-out SVN revision. svn info --show-item revision returned: "
+					+ result.errorOutput);
+			return null;
+		}
+	}
+
 }
@@ -0,0 +1,218 @@
+package com.teamscale.upload.backfill;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.client.TeamscaleClient;
+import com.teamscale.upload.resolve.FilePatternResolutionException;
+import com.teamscale.upload.resolve.ReportPartition;
+import com.teamscale.upload.resolve.ReportPatternUtils;
+import com.teamscale.upload.utils.JobExitException;
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.utils.ThreadUtils;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Performs all uploads listed in a {@link BackfillManifest}, e.g. to upload the
+ * reports of many past commits into a new Teamscale project.
+ * <p>
+ * The sessions are uploaded concurrently over one client, so connections and
+ * TLS sessions are reused. Completed sessions are appended to a progress file
+ * next to the manifest, so that a rerun after a failure or an abort only
+ * performs the missing sessions.
+ */
+public class Backfill {
+
+	/** The number of sessions that are uploaded concurrently. */
+	private static final int PARALLEL_SESSIONS = Integer.getInteger("com.teamscale.upload.backfill.parallel-sessions",
+			4);
+
+	/**
+	 * The maximum number of sessions that are started per minute, so that a
+	 * backfill doesn't overload Teamscale. 0 means unlimited.
+	 */
+	private static final int MAX_SESSIONS_PER_MINUTE = Integer
+			.getInteger("com.teamscale.upload.backfill.max-sessions-per-minute", 0);
+
+	private static final String PROGRESS_FILE_SUFFIX = ".progress";
+
+	private final CommandLine commandLine;
+
+	private final int parallelSessions;
+
+	/** See {@link #MAX_SESSIONS_PER_MINUTE}. */
+	private final int maxSessionsPerMinute;
+
+	private final Path progressFile;
+
+	private final Object progressLock = new Object();
+
+	private final Object rateLimitLock = new Object();
+
+	/** The earliest time in nanoseconds at which the next session may start. */
+	private long nextSessionStartNanos = System.nanoTime();
+
+	private final AtomicInteger completedSessions = new AtomicInteger();
+
+	private Backfill(CommandLine commandLine, int parallelSessions, int maxSessionsPerMinute) {
+		this.commandLine = commandLine;
+		this.parallelSessions = parallelSessions;
+		this.maxSessionsPerMinute = maxSessionsPerMinute;
+		this.progressFile = commandLine.backfillManifest
+				.resolveSibling(commandLine.backfillManifest.getFileName() + PROGRESS_FILE_SUFFIX);
+	}
+
+	/**
+	 * Performs the uploads of the manifest given via --backfill.
+	 *
+	 * @return the exit code, i.e. 0 if all uploads succeeded and 1 otherwise.
+	 */
+	public static int run(CommandLine commandLine) throws IOException {
+		return run(commandLine, PARALLEL_SESSIONS, MAX_SESSIONS_PER_MINUTE);
+	}
+
+	/**
+	 * Performs the uploads of the manifest given via --backfill with the given
+	 * concurrency and rate limit.
+	 *
+	 * @return the exit code, i.e. 0 if all uploads succeeded and 1 otherwise.
+	 */
+	/* package */ static int run(CommandLine commandLine, int parallelSessions, int maxSessionsPerMinute)
+			throws IOException {
+		return new Backfill(commandLine, parallelSessions, maxSessionsPerMinute).run();
+	}
+
+	private int run() throws IOException {
+		BackfillManifest manifest = BackfillManifest.read(commandLine.backfillManifest);
+		Set<String> completedKeys = readProgress();
+		List<BackfillManifest.Session> sessions = new ArrayList<>();
+		for (BackfillManifest.Session session : manifest.sessions) {
+			if (!completedKeys.contains(session.getKey())) {
+				sessions.add(session);
+			}
+		}
+
+		if (sessions.isEmpty()) {
+			LogUtils.info("All " + manifest.sessions.size() + " upload(s) of the backfill manifest "
+					+ commandLine.backfillManifest + " have already been performed");
+			return 0;
+		}
+		LogUtils.info("Performing " + sessions.size() + " of " + manifest.sessions.size()
+				+ " upload(s) of the backfill manifest " + commandLine.backfillManifest);
+
+		OkHttpClient client = TeamscaleClient.createClient(commandLine);
+		ExecutorService executor = Executors.newFixedThreadPool(parallelSessions,
+				ThreadUtils.createThreadFactory("backfill-"));
+		LogUtils.throwOnExit();
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (BackfillManifest.Session session : sessions) {
+				results.add(executor.submit(() -> upload(client, session, sessions.size())));
+			}
+
+			int failedSessions = 0;
+			for (Future<Boolean> result : results) {
+				if (!awaitUpload(result)) {
+					failedSessions++;
+				}
+			}
+			if (failedSessions > 0) {
+				LogUtils.warn(failedSessions + " of " + sessions.size() + " backfill upload(s) failed."
+						+ " Rerun the same command to retry them.");
+				return 1;
+			}
+			LogUtils.info("Performed all uploads of the backfill manifest");
+			return 0;
+		} finally {
+			LogUtils.terminateOnExit();
+			executor.shutdownNow();
+			client.dispatcher().executorService().shutdownNow();
+			client.connectionPool().evictAll();
+		}
+	}
+
+	private static boolean awaitUpload(Future<Boolean> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			LogUtils.warn("Backfill upload failed: " + e.getCause().getMessage(), e.getCause());
+			return false;
+		}
+	}
+
+	/** Uploads the session and records it in the progress file if it succeeded. */
+	private boolean upload(OkHttpClient client, BackfillManifest.Session session, int sessionCount)
+			throws InterruptedException {
+		String description = "revision " + session.revision
+				+ (session.partition == null ? "" : " in partition " + session.partition);
+		try {
+			Map<String, Set<File>> filesByFormat = ReportPatternUtils.resolveFilePatterns(session.formatToFilePatterns);
+			awaitRateLimit();
+			TeamscaleClient.performUpload(client, commandLine.forRevision(session.revision),
+					List.of(new ReportPartition(session.partition, null, null, filesByFormat)), null);
+			recordProgress(session.getKey());
+			LogUtils.info("Backfill progress: " + completedSessions.incrementAndGet() + "/" + sessionCount
+					+ " upload(s) done (" + description + ")");
+			return true;
+		} catch (JobExitException e) {
+			LogUtils.warn("Backfill upload of " + description + " failed.");
+			return false;
+		} catch (FilePatternResolutionException | IOException | RuntimeException e) {
+			LogUtils.warn("Backfill upload of " + description + " failed: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Waits until the next session may start according to
+	 * {@link #maxSessionsPerMinute}.
+	 */
+	private void awaitRateLimit() throws InterruptedException {
+		if (maxSessionsPerMinute <= 0) {
+			return;
+		}
+		long startNanos;
+		synchronized (rateLimitLock) {
+			startNanos = Math.max(nextSessionStartNanos, System.nanoTime());
+			nextSessionStartNanos = startNanos + TimeUnit.MINUTES.toNanos(1) / maxSessionsPerMinute;
+		}
+		long waitNanos = startNanos - System.nanoTime();
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	private Set<String> readProgress() throws IOException {
+		if (!Files.isRegularFile(progressFile)) {
+			return Set.of();
+		}
+		return new HashSet<>(Files.readAllLines(progressFile, StandardCharsets.UTF_8));
+	}
+
+	private void recordProgress(String sessionKey) throws IOException {
+		synchronized (progressLock) {
+			Files.writeString(progressFile, sessionKey + System.lineSeparator(), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+	}
+}
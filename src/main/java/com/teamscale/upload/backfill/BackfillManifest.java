@@ -0,0 +1,112 @@
+package com.teamscale.upload.backfill;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.xcode.XcodeReportConverter;
+
+/**
+ * The uploads listed in a backfill manifest. Each line has the format
+ * {@code REVISION;PARTITION;FORMAT;PATTERN[;PATTERN...]}. Lines with the same
+ * revision and partition form one {@link Session}, in the order in which they
+ * first appear.
+ */
+/* package */ class BackfillManifest {
+
+	private static final String SEPARATOR = ";";
+
+	private static final String COMMENT_PREFIX = "#";
+
+	/** The sessions in manifest order. */
+	/* package */ final List<Session> sessions;
+
+	private BackfillManifest(List<Session> sessions) {
+		this.sessions = sessions;
+	}
+
+	/** Reads the manifest from the given file. */
+	/* package */ static BackfillManifest read(Path manifestFile) throws IOException {
+		if (!Files.isRegularFile(manifestFile)) {
+			LogUtils.fail("Could not find the specified backfill manifest: '" + manifestFile
+					+ "'. Please ensure that you have no typo in the file path.");
+		}
+		return parse(Files.readAllLines(manifestFile, StandardCharsets.UTF_8));
+	}
+
+	/** Parses the given lines of a manifest. */
+	/* package */ static BackfillManifest parse(List<String> lines) {
+		Map<String, Session> sessionsByKey = new LinkedHashMap<>();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) {
+				continue;
+			}
+
+			String[] columns = line.split(SEPARATOR, -1);
+			int lineNumber = i + 1;
+			if (columns.length < 4) {
+				LogUtils.fail("Line " + lineNumber + " of the backfill manifest must have the format"
+						+ " REVISION;PARTITION;FORMAT;PATTERN[;PATTERN...]: " + line);
+			}
+			String revision = columns[0].trim();
+			String partition = columns[1].trim();
+			String format = columns[2].trim().toUpperCase();
+			if (revision.isEmpty() || format.isEmpty()) {
+				LogUtils.fail("Line " + lineNumber + " of the backfill manifest has no revision or format: " + line);
+			}
+			if (format.equals(XcodeReportConverter.XCODE_REPORT_FORMAT)) {
+				LogUtils.fail("Line " + lineNumber + " of the backfill manifest uses the format " + format
+						+ ", which is not supported for backfills. Please convert the reports beforehand.");
+			}
+
+			Session session = sessionsByKey.computeIfAbsent(revision + SEPARATOR + partition,
+					key -> new Session(revision, partition.isEmpty() ? null : partition));
+			Set<String> patterns = session.formatToFilePatterns.computeIfAbsent(format,
+					key -> new LinkedHashSet<>());
+			for (int column = 3; column < columns.length; column++) {
+				String pattern = columns[column].trim();
+				if (!pattern.isEmpty()) {
+					patterns.add(pattern);
+				}
+			}
+			if (patterns.isEmpty()) {
+				LogUtils.fail("Line " + lineNumber + " of the backfill manifest has no file pattern: " + line);
+			}
+		}
+		return new BackfillManifest(new ArrayList<>(sessionsByKey.values()));
+	}
+
+	/** One upload session, i.e. the reports of one partition for one revision. */
+	/* package */ static class Session {
+
+		/** The commit or BRANCH:TIMESTAMP. */
+		/* package */ final String revision;
+
+		/** The partition or null if the one given via --partition is used. */
+		/* package */ final String partition;
+
+		/* package */ final Map<String, Set<String>> formatToFilePatterns = new LinkedHashMap<>();
+
+		private Session(String revision, String partition) {
+			this.revision = revision;
+			this.partition = partition;
+		}
+
+		/**
+		 * Returns the key under which the session is recorded as completed in the
+		 * progress file.
+		 */
+		/* package */ String getKey() {
+			return revision + SEPARATOR + (partition == null ? "" : partition);
+		}
+	}
+}
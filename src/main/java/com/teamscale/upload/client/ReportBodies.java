@@ -0,0 +1,202 @@
+package com.teamscale.upload.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.teamscale.upload.resolve.ArchiveEntryFile;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Creates the request bodies for report files. When uploading to several
+ * servers, the contents of the files are read from disk once and kept in memory
+ * for the other servers and retries, as long as they fit into the memory
+ * budget. Larger files are read again for each request.
+ */
+/* package */ class ReportBodies {
+
+	private static final MediaType REPORT_MEDIA_TYPE = MediaType.get("application/octet-stream");
+
+	private static final MediaType ZIP_MEDIA_TYPE = MediaType.get("application/zip");
+
+	/**
+	 * The memory that may be used for shared report contents. Defaults to a
+	 * quarter of the maximum heap size.
+	 */
+	private static final long MEMORY_BUDGET_BYTES = Long.getLong("com.teamscale.upload.shared-report-memory-bytes",
+			Runtime.getRuntime().maxMemory() / 4);
+
+	private final boolean shareContents;
+
+	private final Map<File, byte[]> contents = new ConcurrentHashMap<>();
+
+	private final AtomicLong remainingBudget = new AtomicLong(MEMORY_BUDGET_BYTES);
+
+	/**
+	 * @param shareContents
+	 *            Whether the contents of the files should be shared between the
+	 *            requests, i.e. whether the reports are uploaded to several
+	 *            servers.
+	 */
+	/* package */ ReportBodies(boolean shareContents) {
+		this.shareContents = shareContents;
+	}
+
+	/** Returns the request body with the contents of the file. */
+	/* package */ RequestBody create(File file) throws IOException {
+		if (shareContents) {
+			byte[] sharedContent = getSharedContent(file);
+			if (sharedContent != null) {
+				return RequestBody.create(sharedContent, REPORT_MEDIA_TYPE);
+			}
+		}
+		if (file instanceof ArchiveEntryFile) {
+			return new ArchiveEntryBody((ArchiveEntryFile) file);
+		}
+		return RequestBody.create(file, REPORT_MEDIA_TYPE);
+	}
+
+	/**
+	 * Returns a request body that packs all files into one zip archive. The
+	 * archive is compressed while it is written to the request, so it is neither
+	 * stored on disk nor kept in memory.
+	 */
+	/* package */ RequestBody createPacked(Set<File> files) {
+		return new PackedReportsBody(files);
+	}
+
+	/**
+	 * Returns the contents of the file, which are read on first access, or null if
+	 * they don't fit into the remaining budget.
+	 */
+	private byte[] getSharedContent(File file) throws IOException {
+		byte[] content = contents.get(file);
+		if (content != null) {
+			return content;
+		}
+
+		long size = file.length();
+		if (size < 0) {
+			// The size of archive entries may be unknown
+			return null;
+		}
+		if (remainingBudget.addAndGet(-size) < 0) {
+			remainingBudget.addAndGet(size);
+			return null;
+		}
+		boolean[] readByThisCall = { false };
+		try {
+			content = contents.computeIfAbsent(file, key -> {
+				readByThisCall[0] = true;
+				return readFile(key);
+			});
+		} catch (UncheckedIOException e) {
+			remainingBudget.addAndGet(size);
+			throw e.getCause();
+		}
+		if (!readByThisCall[0]) {
+			// Another request read the file in the meantime
+			remainingBudget.addAndGet(size);
+		}
+		return content;
+	}
+
+	private static byte[] readFile(File file) {
+		try {
+			if (file instanceof ArchiveEntryFile) {
+				return ((ArchiveEntryFile) file).readAllBytes();
+			}
+			return Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the given files into a zip archive. Files with the same name are put
+	 * into numbered directories, so that no entry is overwritten.
+	 */
+	private class PackedReportsBody extends RequestBody {
+
+		private final Set<File> files;
+
+		private PackedReportsBody(Set<File> files) {
+			this.files = files;
+		}
+
+		@Override
+		public MediaType contentType() {
+			return ZIP_MEDIA_TYPE;
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException {
+			// Not closed, since that would close the sink, which is owned by OkHttp
+			ZipOutputStream zip = new ZipOutputStream(sink.outputStream());
+			Set<String> entryNames = new HashSet<>();
+			int duplicateIndex = 0;
+			for (File file : files) {
+				String entryName = file.getName();
+				while (!entryNames.add(entryName)) {
+					entryName = duplicateIndex++ + "/" + file.getName();
+				}
+				zip.putNextEntry(new ZipEntry(entryName));
+				writeFile(file, zip);
+				zip.closeEntry();
+			}
+			zip.finish();
+			zip.flush();
+		}
+
+		private void writeFile(File file, OutputStream output) throws IOException {
+			byte[] sharedContent = shareContents ? getSharedContent(file) : null;
+			if (sharedContent != null) {
+				output.write(sharedContent);
+			} else if (file instanceof ArchiveEntryFile) {
+				((ArchiveEntryFile) file).writeTo(output);
+			} else {
+				Files.copy(file.toPath(), output);
+			}
+		}
+	}
+
+	/**
+	 * Streams the content of an archive entry into the request, so that it is
+	 * neither extracted to disk nor kept in memory.
+	 */
+	private static class ArchiveEntryBody extends RequestBody {
+
+		private final ArchiveEntryFile entry;
+
+		private ArchiveEntryBody(ArchiveEntryFile entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public MediaType contentType() {
+			return REPORT_MEDIA_TYPE;
+		}
+
+		@Override
+		public long contentLength() {
+			return entry.length();
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException {
+			entry.writeTo(sink.outputStream());
+		}
+	}
+}
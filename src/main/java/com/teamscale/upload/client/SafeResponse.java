@@ -2,6 +2,8 @@ package com.teamscale.upload.client;
 
 import java.io.IOException;
 
+import com.teamscale.upload.utils.LogUtils;
+
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 
@@ -41,7 +43,7 @@ public class SafeResponse {
 			}
 			return body.string();
 		} catch (IOException e) {
-			e.printStackTrace();
+			e.printStackTrace(LogUtils.getErrorStream());
 			return "Failed to read response body: " + e.getMessage();
 		}
 	}
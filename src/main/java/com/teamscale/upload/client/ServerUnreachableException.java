@@ -0,0 +1,14 @@
+package com.teamscale.upload.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown if Teamscale refused the connection, did not answer in time or failed
+ * with a server error, i.e. if the same upload may succeed later.
+ */
+/* package */ class ServerUnreachableException extends IOException {
+
+	/* package */ ServerUnreachableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
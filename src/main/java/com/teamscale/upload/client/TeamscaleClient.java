@@ -6,22 +6,31 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.net.ssl.SSLHandshakeException;
 
 import com.teamscale.upload.CommandLine;
 import com.teamscale.upload.autodetect_revision.AutodetectCommitUtils;
+import com.teamscale.upload.daemon.UploadSpool;
+import com.teamscale.upload.resolve.ArchiveEntryFile;
+import com.teamscale.upload.resolve.ReportPartition;
 import com.teamscale.upload.utils.LogUtils;
 import com.teamscale.upload.utils.MessageUtils;
 import com.teamscale.upload.utils.OkHttpUtils;
 import com.teamscale.upload.utils.TeamscaleUrlUtils;
+import com.teamscale.upload.utils.ThreadUtils;
 
 import okhttp3.Credentials;
 import okhttp3.HttpUrl;
-import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -34,18 +43,15 @@ public class TeamscaleClient {
 	/** The version against which the API requests are performed. */
 	private static final String MINIMUM_REQUIRED_API_VERSION = "v8.2";
 
-	/** Performs the upload of the files. */
-	public static void performUpload(CommandLine commandLine, Map<String, Set<File>> filesByFormat) throws IOException {
-		OkHttpClient client = OkHttpUtils.createClient(commandLine.validateSsl, commandLine.proxy,
-				commandLine.getKeyStorePath(), commandLine.getKeyStorePassword(), commandLine.getTimeoutInSeconds());
+	/**
+	 * Performs the upload of the files. Each partition is uploaded in its own
+	 * session. Multiple partitions and {@linkplain CommandLine#mirrors mirrors} are
+	 * uploaded concurrently over the same client so that they share connections.
+	 */
+	public static void performUpload(CommandLine commandLine, List<ReportPartition> partitions) throws IOException {
+		OkHttpClient client = createClient(commandLine);
 		try {
-			if (filesByFormat.isEmpty()) {
-				LogUtils.warn("There are no files to upload. Skipping upload.");
-				return;
-			}
-			performUploadWithRetry(client, commandLine, filesByFormat);
-		} catch (SSLHandshakeException e) {
-			handleSslConnectionFailure(commandLine, e);
+			performUpload(client, commandLine, partitions, UploadSpool.forCommandLine(commandLine));
 		} finally {
 			// we must shut down OkHttp as otherwise it will leave threads running and
 			// prevent JVM shutdown
@@ -54,15 +60,105 @@ public class TeamscaleClient {
 		}
 	}
 
+	/**
+	 * Performs the upload of the files with the given client, which is not shut
+	 * down afterwards. This allows the upload daemon to reuse connections and TLS
+	 * sessions across uploads.
+	 *
+	 * @param spool
+	 *            Stores the uploads of partitions that fail due to transient
+	 *            network errors. May be null if such uploads should fail.
+	 */
+	public static void performUpload(OkHttpClient client, CommandLine commandLine, List<ReportPartition> partitions,
+			UploadSpool spool) throws IOException {
+		if (partitions.isEmpty()) {
+			LogUtils.warn("There are no files to upload. Skipping upload.");
+			return;
+		}
+
+		List<CommandLine> targets = new ArrayList<>();
+		targets.add(commandLine);
+		targets.addAll(commandLine.getMirrors());
+		ReportBodies reportBodies = new ReportBodies(targets.size() > 1);
+		try {
+			if (targets.size() == 1 && partitions.size() == 1) {
+				performUploadToTarget(client, commandLine, partitions.get(0), spool, reportBodies);
+			} else {
+				performConcurrentUploads(client, targets, partitions, spool, reportBodies);
+			}
+		} finally {
+			ArchiveEntryFile.closeArchives(partitions);
+		}
+	}
+
+	/** Creates a client with the connection settings given on the command line. */
+	public static OkHttpClient createClient(CommandLine commandLine) {
+		return OkHttpUtils.createClient(commandLine.validateSsl, commandLine.proxy, commandLine.getKeyStorePath(),
+				commandLine.getKeyStorePassword(), commandLine.getTimeoutInSeconds());
+	}
+
+	private static void performConcurrentUploads(OkHttpClient client, List<CommandLine> targets,
+			List<ReportPartition> partitions, UploadSpool spool, ReportBodies reportBodies) throws IOException {
+		ExecutorService executor = ThreadUtils.createTaskExecutor("upload-");
+		try {
+			List<Future<?>> uploads = new ArrayList<>();
+			for (CommandLine target : targets) {
+				for (ReportPartition partition : partitions) {
+					uploads.add(executor.submit(() -> {
+						performUploadToTarget(client, target, partition, spool, reportBodies);
+						return null;
+					}));
+				}
+			}
+			for (Future<?> upload : uploads) {
+				awaitUpload(upload);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void awaitUpload(Future<?> upload) throws IOException {
+		try {
+			upload.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the upload to finish", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Upload failed: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Uploads the partition to the server of the given command line. SSL errors
+	 * are reported for that server.
+	 */
+	private static void performUploadToTarget(OkHttpClient client, CommandLine target, ReportPartition partition,
+			UploadSpool spool, ReportBodies reportBodies) throws IOException {
+		try {
+			performUploadWithRetry(client, target, partition, spool, reportBodies);
+		} catch (SSLHandshakeException e) {
+			handleSslConnectionFailure(target, e);
+		}
+	}
+
 	private static void performUploadWithRetry(OkHttpClient client, CommandLine commandLine,
-			Map<String, Set<File>> filesByFormat) throws IOException {
+			ReportPartition partition, UploadSpool spool, ReportBodies reportBodies) throws IOException {
+		Map<String, Set<File>> filesByFormat = partition.filesByFormat;
 		int maxAttempts = commandLine.maxAttempts;
 		for (int attempt = 1; attempt <= maxAttempts; attempt++) {
 			try {
-				String sessionId = openSession(client, commandLine, filesByFormat.keySet());
+				String sessionId = openSession(client, commandLine, partition, filesByFormat.keySet());
 				for (String format : filesByFormat.keySet()) {
 					Set<File> filesForFormat = filesByFormat.get(format);
-					sendRequestForFormat(client, commandLine, format, filesForFormat, sessionId);
+					sendRequestForFormat(client, commandLine, partition, format, filesForFormat, sessionId,
+							reportBodies);
 				}
 				closeSession(client, commandLine, sessionId);
 				return;
@@ -72,6 +168,8 @@ public class TeamscaleClient {
 			} catch (IOException e) {
 				if (attempt < maxAttempts) {
 					LogUtils.warn("Failed attempt " + attempt + " / " + maxAttempts + ": " + e.getMessage());
+				} else if (spool != null && e instanceof ServerUnreachableException) {
+					storeInSpool(spool, commandLine, partition, e);
 				} else {
 					LogUtils.failWithoutStackTrace(
 							"Upload failed after " + maxAttempts + " attempt(s): " + e.getMessage(), e);
@@ -80,7 +178,37 @@ public class TeamscaleClient {
 		}
 	}
 
-	private static void handleSslConnectionFailure(CommandLine commandLine, SSLHandshakeException e) {
+	/**
+	 * Stores the upload of the partition in the spool, so that it can be performed
+	 * later. The revision and message are determined now, since they depend on the
+	 * working directory and the time of the upload.
+	 */
+	private static void storeInSpool(UploadSpool spool, CommandLine commandLine, ReportPartition partition,
+			IOException cause) {
+		String revision = getRevisionOrBranchTimestamp(commandLine);
+		String detectedCommit = null;
+		if (commandLine.commit == null && commandLine.timestamp == null) {
+			detectedCommit = revision;
+		}
+		String message = createMessage(commandLine, partition, revision, partition.filesByFormat.keySet());
+		ReportPartition partitionWithMessage = new ReportPartition(partition.partition, message,
+				partition.pathPrefix, partition.filesByFormat);
+
+		String partitionName = partition.getPartition(commandLine.partition);
+		try {
+			Path entry = spool.store(commandLine, partitionWithMessage, detectedCommit);
+			LogUtils.warn("Upload into partition " + partitionName + " failed after " + commandLine.maxAttempts
+					+ " attempt(s): " + cause.getMessage() + "\nThe reports were stored in " + entry
+					+ ". Upload them later via 'teamscale-upload " + UploadSpool.FLUSH_OPTION + " "
+					+ spool.getDirectory() + "'.");
+		} catch (IOException e) {
+			LogUtils.failWithoutStackTrace("Upload into partition " + partitionName + " failed after "
+					+ commandLine.maxAttempts + " attempt(s) and the reports could not be stored in "
+					+ spool.getDirectory() + ": " + cause.getMessage(), e);
+		}
+	}
+
+	/* package */ static void handleSslConnectionFailure(CommandLine commandLine, SSLHandshakeException e) {
 		if (commandLine.getKeyStorePath() != null) {
 			LogUtils.failWithoutStackTrace("Failed to connect via HTTPS to " + commandLine.url
 					+ "\nYou enabled certificate validation and provided a keystore with certificates"
@@ -116,20 +244,17 @@ public class TeamscaleClient {
 		}
 	}
 
-	private static String openSession(OkHttpClient client, CommandLine commandLine, Collection<String> formats)
-			throws IOException {
+	/* package */ static String openSession(OkHttpClient client, CommandLine commandLine, ReportPartition partition,
+			Collection<String> formats) throws IOException {
+		String partitionName = partition.getPartition(commandLine.partition);
 		HttpUrl.Builder builder = commandLine.url.newBuilder().addPathSegments("api")
 				.addPathSegments(MINIMUM_REQUIRED_API_VERSION).addPathSegments("projects")
 				.addPathSegment(commandLine.project).addPathSegments("external-analysis/session")
-				.addQueryParameter("partition", commandLine.partition);
+				.addQueryParameter("partition", partitionName);
 
 		String revision = handleRevisionAndBranchTimestamp(commandLine, builder);
 
-		String message = commandLine.message;
-		if (message == null) {
-			message = MessageUtils.createDefaultMessage(revision, commandLine.partition, formats);
-
-		}
+		String message = createMessage(commandLine, partition, revision, formats);
 		for (String additionalLine : commandLine.additionalMessageLines) {
 			// noinspection StringConcatenationInLoop
 			message += "\n" + additionalLine.trim();
@@ -142,7 +267,7 @@ public class TeamscaleClient {
 				.header("Authorization", Credentials.basic(commandLine.username, commandLine.accessKey)).url(url)
 				.post(OkHttpUtils.EMPTY_BODY).build();
 
-		LogUtils.debug("Opening upload session");
+		LogUtils.debug("Opening upload session for partition " + partitionName);
 		String sessionId = sendRequest(client, commandLine, url, request);
 		if (sessionId == null) {
 			LogUtils.fail("Could not open session.");
@@ -151,6 +276,20 @@ public class TeamscaleClient {
 		return sessionId;
 	}
 
+	/**
+	 * Returns the message given for the partition or on the command line or
+	 * creates the default message. The additional message lines are not included.
+	 */
+	private static String createMessage(CommandLine commandLine, ReportPartition partition, String revision,
+			Collection<String> formats) {
+		String message = partition.getMessage(commandLine.message);
+		if (message == null) {
+			return MessageUtils.createDefaultMessage(revision, partition.getPartition(commandLine.partition),
+					formats);
+		}
+		return message;
+	}
+
 	/**
 	 * Adds either a revision or t parameter to the given builder, based on the
 	 * input.
@@ -161,36 +300,41 @@ public class TeamscaleClient {
 	 * @return the revision or branch:timestamp coordinate used.
 	 */
 	private static String handleRevisionAndBranchTimestamp(CommandLine commandLine, HttpUrl.Builder builder) {
+		String revision = getRevisionOrBranchTimestamp(commandLine);
+		if (commandLine.timestamp != null) {
+			builder.addQueryParameter("t", revision);
+			return revision;
+		}
+		builder.addQueryParameter("revision", revision);
+		if (commandLine.commit != null && commandLine.repository != null) {
+			// repository can be specified optionally when specifying a commit/revision
+			builder.addQueryParameter("repository", commandLine.repository);
+		}
+		return revision;
+	}
+
+	/**
+	 * Returns the commit or branch:timestamp given on the command line or the
+	 * automatically detected commit.
+	 */
+	private static String getRevisionOrBranchTimestamp(CommandLine commandLine) {
 		if (commandLine.commit != null) {
-			builder.addQueryParameter("revision", commandLine.commit);
-			if (commandLine.repository != null) {
-				// repository can be specified optionally when specifying a commit/revision
-				builder.addQueryParameter("repository", commandLine.repository);
-			}
 			return commandLine.commit;
 		} else if (commandLine.timestamp != null) {
-			builder.addQueryParameter("t", commandLine.timestamp);
 			return commandLine.timestamp;
-		} else {
-			// auto-detect if neither option is given
-			String commit = AutodetectCommitUtils.detectCommit();
-			if (commit == null) {
-				LogUtils.fail(
-						"Failed to automatically detect the commit. Please specify it manually via --commit or --branch-and-timestamp");
-			}
-			builder.addQueryParameter("revision", commit);
-			return commit;
 		}
+		// auto-detect if neither option is given
+		String commit = AutodetectCommitUtils.detectCommit();
+		if (commit == null) {
+			LogUtils.fail(
+					"Failed to automatically detect the commit. Please specify it manually via --commit or --branch-and-timestamp");
+		}
+		return commit;
 	}
 
-	private static void closeSession(OkHttpClient client, CommandLine commandLine, String sessionId)
+	/* package */ static void closeSession(OkHttpClient client, CommandLine commandLine, String sessionId)
 			throws IOException {
-		HttpUrl.Builder builder = commandLine.url.newBuilder().addPathSegments("api")
-				.addPathSegments(MINIMUM_REQUIRED_API_VERSION).addPathSegments("projects")
-				.addPathSegment(commandLine.project).addPathSegments("external-analysis/session")
-				.addPathSegment(sessionId);
-
-		HttpUrl url = builder.build();
+		HttpUrl url = createSessionUrl(commandLine, sessionId);
 
 		Request request = new Request.Builder()
 				.header("Authorization", Credentials.basic(commandLine.username, commandLine.accessKey)).url(url)
@@ -199,13 +343,44 @@ public class TeamscaleClient {
 		sendRequest(client, commandLine, url, request);
 	}
 
-	private static void sendRequestForFormat(OkHttpClient client, CommandLine commandLine, String format,
-			Set<File> fileList, String sessionId) throws IOException {
+	/**
+	 * Deletes the session, so that Teamscale discards the reports uploaded into it.
+	 * Failures are only logged, since the caller reports the error that caused the
+	 * cancellation.
+	 */
+	/* package */ static void cancelSession(OkHttpClient client, CommandLine commandLine, String sessionId) {
+		HttpUrl url = createSessionUrl(commandLine, sessionId);
+		Request request = new Request.Builder()
+				.header("Authorization", Credentials.basic(commandLine.username, commandLine.accessKey)).url(url)
+				.delete().build();
+		LogUtils.debug("Cancelling upload session");
+		try (Response response = client.newCall(request).execute()) {
+			if (!response.isSuccessful()) {
+				LogUtils.warn("Failed to cancel the upload session " + sessionId + ": Teamscale responded with HTTP "
+						+ response.code());
+			}
+		} catch (IOException e) {
+			LogUtils.warn("Failed to cancel the upload session " + sessionId + ": " + e.getMessage());
+		}
+	}
+
+	private static HttpUrl createSessionUrl(CommandLine commandLine, String sessionId) {
+		return commandLine.url.newBuilder().addPathSegments("api").addPathSegments(MINIMUM_REQUIRED_API_VERSION)
+				.addPathSegments("projects").addPathSegment(commandLine.project)
+				.addPathSegments("external-analysis/session").addPathSegment(sessionId).build();
+	}
+
+	/* package */ static void sendRequestForFormat(OkHttpClient client, CommandLine commandLine,
+			ReportPartition partition, String format, Set<File> fileList, String sessionId, ReportBodies reportBodies)
+			throws IOException {
 		MultipartBody.Builder multipartBodyBuilder = new MultipartBody.Builder().setType(MultipartBody.FORM);
 
-		for (File file : fileList) {
-			multipartBodyBuilder.addFormDataPart("report", file.getName(),
-					RequestBody.create(file, MediaType.get("application/octet-stream")));
+		if (commandLine.packReports && fileList.size() > 1) {
+			multipartBodyBuilder.addFormDataPart("report", "reports.zip", reportBodies.createPacked(fileList));
+		} else {
+			for (File file : fileList) {
+				multipartBodyBuilder.addFormDataPart("report", file.getName(), reportBodies.create(file));
+			}
 		}
 
 		RequestBody requestBody = multipartBodyBuilder.build();
@@ -215,8 +390,9 @@ public class TeamscaleClient {
 				.addPathSegment(commandLine.project).addPathSegments("external-analysis/session")
 				.addPathSegment(sessionId).addPathSegment("report").addQueryParameter("format", format);
 
-		if (commandLine.pathPrefix != null) {
-			builder.addQueryParameter("path-prefix", commandLine.pathPrefix);
+		String pathPrefix = partition.getPathPrefix(commandLine.pathPrefix);
+		if (pathPrefix != null) {
+			builder.addQueryParameter("path-prefix", pathPrefix);
 		}
 
 		HttpUrl url = builder.build();
@@ -225,10 +401,22 @@ public class TeamscaleClient {
 				.header("Authorization", Credentials.basic(commandLine.username, commandLine.accessKey)).url(url)
 				.post(requestBody).build();
 
-		LogUtils.info("Uploading reports for format " + format);
+		LogUtils.info("Uploading reports for format " + format + " into partition "
+				+ partition.getPartition(commandLine.partition) + describeMirror(commandLine));
 		sendRequest(client, commandLine, url, request);
 	}
 
+	/**
+	 * Names the server when uploading to mirrors. Otherwise, the server is clear
+	 * from the command line.
+	 */
+	private static String describeMirror(CommandLine commandLine) {
+		if (commandLine.mirror == null && commandLine.mirrors.isEmpty()) {
+			return "";
+		}
+		return " of project " + commandLine.project + " on " + commandLine.url;
+	}
+
 	private static String sendRequest(OkHttpClient client, CommandLine commandLine, HttpUrl url, Request request)
 			throws IOException {
 
@@ -250,12 +438,12 @@ public class TeamscaleClient {
 							+ " in the file path and that the specified report file is readable.",
 					e);
 		} catch (ConnectException e) {
-			throw new IOException(
+			throw new ServerUnreachableException(
 					"The host " + host + " refused a connection. Please ensure that you have no typo and that"
 							+ " this endpoint is reachable and not blocked by firewalls.",
 					e);
 		} catch (SocketTimeoutException e) {
-			throw new IOException(
+			throw new ServerUnreachableException(
 					"Request timeout reached. Consider setting a higher timeout value using the '--timeout' option.",
 					e);
 		}
@@ -300,7 +488,8 @@ public class TeamscaleClient {
 			int code = response.unsafeResponse.code();
 			if (code >= 500) {
 				String url = response.unsafeResponse.request().url().toString();
-				throw new IOException("Server error (HTTP " + code + ") from " + url + ": " + response.body);
+				throw new ServerUnreachableException(
+						"Server error (HTTP " + code + ") from " + url + ": " + response.body, null);
 			}
 			LogUtils.fail("Unexpected response from Teamscale", response);
 		}
@@ -0,0 +1,110 @@
+package com.teamscale.upload.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.SSLHandshakeException;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.resolve.ReportPartition;
+import com.teamscale.upload.utils.LogUtils;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * An upload session that stays open while reports are added to it in several
+ * batches, e.g. while watching for reports that are still being produced. In
+ * contrast to the uploads of {@link TeamscaleClient}, each request is retried
+ * on its own, so a failing batch does not repeat the previous ones.
+ */
+public class UploadSession {
+
+	private final OkHttpClient client;
+
+	private final CommandLine commandLine;
+
+	/** The partition given on the command line without any files. */
+	private final ReportPartition partition;
+
+	private final String sessionId;
+
+	private final ReportBodies reportBodies = new ReportBodies(false);
+
+	private UploadSession(OkHttpClient client, CommandLine commandLine, ReportPartition partition, String sessionId) {
+		this.client = client;
+		this.commandLine = commandLine;
+		this.partition = partition;
+		this.sessionId = sessionId;
+	}
+
+	/**
+	 * Opens a session for the partition given on the command line.
+	 *
+	 * @param formats
+	 *            The formats of the reports that may be uploaded, which are part
+	 *            of the default message.
+	 */
+	public static UploadSession open(OkHttpClient client, CommandLine commandLine, Collection<String> formats)
+			throws IOException {
+		ReportPartition partition = new ReportPartition(null, null, null, Map.of());
+		String sessionId = performWithRetry(commandLine, "open the upload session",
+				() -> TeamscaleClient.openSession(client, commandLine, partition, formats));
+		return new UploadSession(client, commandLine, partition, sessionId);
+	}
+
+	/** Uploads the given reports of the given format into the session. */
+	public void upload(String format, Set<File> reports) throws IOException {
+		performWithRetry(commandLine, "upload the reports", () -> {
+			TeamscaleClient.sendRequestForFormat(client, commandLine, partition, format, reports, sessionId,
+					reportBodies);
+			return null;
+		});
+	}
+
+	/** Closes the session, after which Teamscale processes the uploaded reports. */
+	public void close() throws IOException {
+		performWithRetry(commandLine, "close the upload session", () -> {
+			TeamscaleClient.closeSession(client, commandLine, sessionId);
+			return null;
+		});
+	}
+
+	/**
+	 * Cancels the session, so that Teamscale discards the reports uploaded so far.
+	 * Failures are only logged.
+	 */
+	public void cancel() {
+		TeamscaleClient.cancelSession(client, commandLine, sessionId);
+	}
+
+	private static <T> T performWithRetry(CommandLine commandLine, String action, SessionRequest<T> request)
+			throws IOException {
+		int maxAttempts = commandLine.maxAttempts;
+		for (int attempt = 1; attempt < maxAttempts; attempt++) {
+			try {
+				return request.perform();
+			} catch (SSLHandshakeException e) {
+				TeamscaleClient.handleSslConnectionFailure(commandLine, e);
+			} catch (IOException e) {
+				LogUtils.warn("Failed attempt " + attempt + " / " + maxAttempts + " to " + action + ": "
+						+ e.getMessage());
+			}
+		}
+		try {
+			return request.perform();
+		} catch (SSLHandshakeException e) {
+			TeamscaleClient.handleSslConnectionFailure(commandLine, e);
+			throw e;
+		}
+	}
+
+	/** A request to Teamscale within the session. */
+	@FunctionalInterface
+	private interface SessionRequest<T> {
+
+		T perform() throws IOException;
+	}
+}
@@ -0,0 +1,206 @@
+package com.teamscale.upload.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+
+/**
+ * The protocol between the {@link UploadDaemonClient} and the
+ * {@link UploadDaemon}. The client sends one {@link UploadJob} as
+ * length-prefixed JSON. Once the daemon can perform the job, it sends a ready
+ * frame and only starts the job after the client confirmed it. This way, a
+ * client that stopped waiting can upload the reports itself without the risk
+ * that the daemon uploads them as well. The daemon then answers with frames
+ * that contain the output of the job for stdout or stderr and finishes with a
+ * frame that contains the exit code of the job.
+ */
+/* package */ class DaemonProtocol {
+
+	/** Marks the frame that contains the exit code. */
+	private static final byte EXIT_CODE_FRAME = 0;
+
+	/** Marks a frame with output for stdout. */
+	/* package */ static final byte STDOUT_FRAME = 1;
+
+	/** Marks a frame with output for stderr. */
+	/* package */ static final byte STDERR_FRAME = 2;
+
+	/** Marks the frame with which the daemon offers to start the job. */
+	private static final byte READY_FRAME = 3;
+
+	/** Sent by the client to let the daemon start the job. */
+	private static final byte START_CONFIRMATION = 1;
+
+	/** Protects the daemon against reading arbitrary amounts of data. */
+	private static final int MAX_JOB_SIZE = 64 * 1024 * 1024;
+
+	private static final Gson GSON = new Gson();
+
+	/** Sends the job to the daemon. */
+	/* package */ static void writeJob(OutputStream outputStream, UploadJob job) throws IOException {
+		byte[] json = GSON.toJson(job).getBytes(StandardCharsets.UTF_8);
+		DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+		dataOutputStream.writeInt(json.length);
+		dataOutputStream.write(json);
+		dataOutputStream.flush();
+	}
+
+	/** Receives a job from a client. */
+	/* package */ static UploadJob readJob(InputStream inputStream) throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(inputStream);
+		int length = dataInputStream.readInt();
+		if (length < 0 || length > MAX_JOB_SIZE) {
+			throw new IOException("Invalid upload job size: " + length);
+		}
+		byte[] json = new byte[length];
+		dataInputStream.readFully(json);
+		return GSON.fromJson(new String(json, StandardCharsets.UTF_8), UploadJob.class);
+	}
+
+	/**
+	 * Waits until the daemon is ready to perform the job.
+	 *
+	 * @return whether the daemon is ready or false if it didn't offer to start the
+	 *         job within the given time.
+	 */
+	/* package */ static boolean awaitReady(SocketChannel channel, long timeoutMillis) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(1);
+		// Unix domain socket channels don't support read timeouts, so we wait via a
+		// selector
+		channel.configureBlocking(false);
+		try (Selector selector = Selector.open()) {
+			channel.register(selector, SelectionKey.OP_READ);
+			long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+			while (frame.hasRemaining()) {
+				long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+				if (remainingMillis <= 0) {
+					return false;
+				}
+				selector.select(remainingMillis);
+				if (channel.read(frame) < 0) {
+					throw new EOFException("The upload daemon closed the connection");
+				}
+			}
+		}
+		// Closing the selector deregisters the channel, which is required for blocking
+		// mode
+		channel.configureBlocking(true);
+		if (frame.get(0) != READY_FRAME) {
+			throw new IOException("Unexpected frame type " + frame.get(0) + " received from the upload daemon");
+		}
+		return true;
+	}
+
+	/** Lets the daemon start the job after {@link #awaitReady}. */
+	/* package */ static void confirmStart(OutputStream outputStream) throws IOException {
+		outputStream.write(START_CONFIRMATION);
+		outputStream.flush();
+	}
+
+	/**
+	 * Waits for the client to confirm that the daemon should start the job.
+	 *
+	 * @return whether the client confirmed the start or false if it closed the
+	 *         connection, since it stopped waiting.
+	 */
+	/* package */ static boolean awaitStartConfirmation(InputStream inputStream) throws IOException {
+		int confirmation = inputStream.read();
+		if (confirmation < 0) {
+			return false;
+		}
+		if (confirmation != START_CONFIRMATION) {
+			throw new IOException("Invalid start confirmation: " + confirmation);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the frames sent by the daemon, forwards the output to the given
+	 * streams and returns the exit code of the job.
+	 */
+	/* package */ static int readResponse(InputStream inputStream, OutputStream stdout, OutputStream stderr)
+			throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(inputStream);
+		while (true) {
+			byte frameType = dataInputStream.readByte();
+			if (frameType == EXIT_CODE_FRAME) {
+				return dataInputStream.readInt();
+			}
+
+			byte[] output = new byte[dataInputStream.readInt()];
+			dataInputStream.readFully(output);
+			if (frameType == STDOUT_FRAME) {
+				stdout.write(output);
+				stdout.flush();
+			} else if (frameType == STDERR_FRAME) {
+				stderr.write(output);
+				stderr.flush();
+			} else {
+				throw new IOException("Unknown frame type " + frameType + " received from the upload daemon");
+			}
+		}
+	}
+
+	/**
+	 * Writes the frames of the response. Output may be written from several
+	 * threads, e.g. for concurrent uploads of partitions, so each frame is written
+	 * atomically.
+	 */
+	/* package */ static class FrameWriter {
+
+		private final DataOutputStream outputStream;
+
+		/* package */ FrameWriter(OutputStream outputStream) {
+			this.outputStream = new DataOutputStream(outputStream);
+		}
+
+		/** Returns a stream whose output is sent in frames of the given type. */
+		/* package */ OutputStream createOutputStream(byte frameType) {
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] bytes, int offset, int length) throws IOException {
+					writeOutput(frameType, bytes, offset, length);
+				}
+			};
+		}
+
+		private synchronized void writeOutput(byte frameType, byte[] bytes, int offset, int length)
+				throws IOException {
+			if (length == 0) {
+				return;
+			}
+			outputStream.writeByte(frameType);
+			outputStream.writeInt(length);
+			outputStream.write(bytes, offset, length);
+			outputStream.flush();
+		}
+
+		/** Offers the client to start the job, see {@link #awaitReady}. */
+		/* package */ synchronized void writeReady() throws IOException {
+			outputStream.writeByte(READY_FRAME);
+			outputStream.flush();
+		}
+
+		/** Writes the final frame of the response. */
+		/* package */ synchronized void writeExitCode(int exitCode) throws IOException {
+			outputStream.writeByte(EXIT_CODE_FRAME);
+			outputStream.writeInt(exitCode);
+			outputStream.flush();
+		}
+	}
+}
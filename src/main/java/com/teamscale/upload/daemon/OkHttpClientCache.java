@@ -0,0 +1,40 @@
+package com.teamscale.upload.daemon;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.client.TeamscaleClient;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Reuses {@link OkHttpClient}s for uploads with the same connection settings,
+ * so that loaded trust stores, open connections and TLS sessions are shared.
+ */
+/* package */ class OkHttpClientCache {
+
+	/** The clients by their connection settings. */
+	private final Map<List<Object>, OkHttpClient> clients = new HashMap<>();
+
+	/** Returns the client for the connection settings of the command line. */
+	/* package */ synchronized OkHttpClient getClient(CommandLine commandLine) {
+		List<Object> settings = Arrays.asList(commandLine.validateSsl, commandLine.proxy,
+				commandLine.getKeyStorePath(), commandLine.getKeyStorePassword(), commandLine.getTimeoutInSeconds());
+		return clients.computeIfAbsent(settings, key -> TeamscaleClient.createClient(commandLine));
+	}
+
+	/**
+	 * Shuts down all clients. Otherwise, OkHttp leaves threads running that
+	 * prevent the JVM shutdown.
+	 */
+	/* package */ synchronized void shutdown() {
+		for (OkHttpClient client : clients.values()) {
+			client.dispatcher().executorService().shutdownNow();
+			client.connectionPool().evictAll();
+		}
+		clients.clear();
+	}
+}
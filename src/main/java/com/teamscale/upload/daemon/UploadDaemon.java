@@ -0,0 +1,291 @@
+package com.teamscale.upload.daemon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.client.TeamscaleClient;
+import com.teamscale.upload.utils.JobExitException;
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.utils.ThreadUtils;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Long-running process that performs uploads submitted by the
+ * {@link UploadDaemonClient} via a Unix domain socket. In contrast to a new
+ * process per upload, the daemon keeps its {@link OkHttpClient}s and thus the
+ * loaded trust stores, open connections and TLS sessions between uploads.
+ * <p>
+ * Each connection is handled in its own thread, so a client that is slow to
+ * send its job doesn't block others. Up to {@link #MAX_CONCURRENT_JOBS} jobs are
+ * performed concurrently, each with its own output that is sent to its client
+ * (see {@link LogUtils#runJob(PrintStream, PrintStream, java.util.function.IntSupplier)}).
+ * Further jobs wait until a running job finishes or their client stops waiting
+ * and uploads the reports itself.
+ */
+public class UploadDaemon {
+
+	/**
+	 * How long a client may take to send its job after connecting and to confirm
+	 * the start of the job.
+	 */
+	private static final long JOB_READ_TIMEOUT_SECONDS = 60;
+
+	/** The maximum number of jobs that are performed concurrently. */
+	private static final int MAX_CONCURRENT_JOBS = Integer.getInteger("com.teamscale.upload.daemon.max-concurrent-jobs",
+			8);
+
+	private final OkHttpClientCache clients = new OkHttpClientCache();
+
+	private final ExecutorService connectionExecutor = ThreadUtils.createTaskExecutor("daemon-connection-");
+
+	/** Closes the connections whose job was not received in time. */
+	private final ScheduledExecutorService readTimeouts = Executors
+			.newSingleThreadScheduledExecutor(ThreadUtils.createThreadFactory("daemon-read-timeout-"));
+
+	/** Limits the number of jobs that are performed concurrently. */
+	private final Semaphore jobPermits;
+
+	private final Path socketPath;
+
+	/**
+	 * The command line of the daemon, whose TLS settings apply to jobs without
+	 * their own (see {@link CommandLine#withTlsDefaults(CommandLine)}).
+	 */
+	private final CommandLine daemonCommandLine;
+
+	/** The channel on which the daemon listens or null before it was opened. */
+	private volatile ServerSocketChannel server;
+
+	/* package */ UploadDaemon(CommandLine daemonCommandLine, int maxConcurrentJobs) {
+		this.socketPath = daemonCommandLine.daemonListenSocket;
+		this.daemonCommandLine = daemonCommandLine;
+		this.jobPermits = new Semaphore(maxConcurrentJobs, true);
+	}
+
+	/**
+	 * Listens for upload jobs on the socket given via --daemon until the process
+	 * is killed.
+	 */
+	public static void run(CommandLine commandLine) throws IOException {
+		new UploadDaemon(commandLine, MAX_CONCURRENT_JOBS).run();
+	}
+
+	/** Listens for upload jobs until {@link #stop()} is called. */
+	/* package */ void run() throws IOException {
+		removeStaleSocket();
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			this.server = server;
+			bindPrivately(server);
+			Runtime.getRuntime().addShutdownHook(new Thread(this::deleteSocket));
+
+			LogUtils.info("Listening for upload jobs on " + socketPath);
+			while (true) {
+				SocketChannel channel;
+				try {
+					channel = server.accept();
+				} catch (ClosedChannelException e) {
+					// The daemon was stopped
+					return;
+				} catch (IOException e) {
+					LogUtils.warn("Failed to accept upload job: " + e.getMessage());
+					continue;
+				}
+				connectionExecutor.execute(() -> handleConnection(channel));
+			}
+		} finally {
+			connectionExecutor.shutdownNow();
+			readTimeouts.shutdownNow();
+			clients.shutdown();
+			deleteSocket();
+		}
+	}
+
+	/** Stops listening for upload jobs and aborts the running ones. */
+	/* package */ void stop() throws IOException {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	/**
+	 * Deletes the socket file left behind by a previous daemon that was killed.
+	 * Fails if a daemon is still listening on the socket.
+	 */
+	private void removeStaleSocket() throws IOException {
+		if (!Files.exists(socketPath)) {
+			return;
+		}
+		try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+			LogUtils.fail("An upload daemon is already listening on " + socketPath);
+		} catch (IOException e) {
+			Files.delete(socketPath);
+		}
+	}
+
+	/**
+	 * Jobs contain access keys, so other users must not be able to connect to the
+	 * socket where the file system supports this. A socket is created with the
+	 * permissions of the umask, so it is bound within a directory that only the
+	 * current user can access, restricted there and then moved into place.
+	 */
+	private void bindPrivately(ServerSocketChannel server) throws IOException {
+		if (!socketPath.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+			return;
+		}
+
+		Path parentDirectory = socketPath.toAbsolutePath().getParent();
+		Path privateDirectory = Files.createTempDirectory(parentDirectory, ".daemon",
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		Path privateSocketPath = privateDirectory.resolve("socket");
+		try {
+			server.bind(UnixDomainSocketAddress.of(privateSocketPath));
+			Files.setPosixFilePermissions(privateSocketPath, PosixFilePermissions.fromString("rw-------"));
+			Files.move(privateSocketPath, socketPath, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(privateSocketPath);
+			Files.delete(privateDirectory);
+		}
+	}
+
+	private void deleteSocket() {
+		try {
+			Files.deleteIfExists(socketPath);
+		} catch (IOException e) {
+			// Nothing we can do during shutdown
+		}
+	}
+
+	private void handleConnection(SocketChannel channel) {
+		try (channel) {
+			UploadJob job = readWithTimeout(channel, DaemonProtocol::readJob);
+			jobPermits.acquire();
+			try {
+				DaemonProtocol.FrameWriter frameWriter = new DaemonProtocol.FrameWriter(
+						Channels.newOutputStream(channel));
+				if (!offerStart(channel, frameWriter)) {
+					LogUtils.warn("A client stopped waiting for its upload job to start. If this happens often,"
+							+ " increase the JVM property com.teamscale.upload.daemon.max-concurrent-jobs.");
+					return;
+				}
+				handleJob(frameWriter, job);
+			} finally {
+				jobPermits.release();
+			}
+		} catch (InterruptedException e) {
+			// The daemon was stopped
+			Thread.currentThread().interrupt();
+		} catch (IOException | RuntimeException e) {
+			LogUtils.warn("Failed to handle upload job: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Offers the client to start the job and waits for its confirmation.
+	 *
+	 * @return whether the job should be started or false if the client stopped
+	 *         waiting and closed the connection.
+	 */
+	private boolean offerStart(SocketChannel channel, DaemonProtocol.FrameWriter frameWriter) throws IOException {
+		try {
+			frameWriter.writeReady();
+		} catch (IOException e) {
+			// The client already closed the connection
+			return false;
+		}
+		return readWithTimeout(channel, DaemonProtocol::awaitStartConfirmation);
+	}
+
+	/**
+	 * Reads from the client. The connection is closed if the client doesn't send
+	 * the data within {@link #JOB_READ_TIMEOUT_SECONDS}, since Unix domain socket
+	 * channels don't support read timeouts.
+	 */
+	private <T> T readWithTimeout(SocketChannel channel, ClientRead<T> read) throws IOException {
+		ScheduledFuture<?> timeout = readTimeouts.schedule(() -> {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// The reading thread fails anyway
+			}
+		}, JOB_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		try {
+			return read.read(Channels.newInputStream(channel));
+		} catch (AsynchronousCloseException e) {
+			throw new IOException("The client did not respond within " + JOB_READ_TIMEOUT_SECONDS + " seconds", e);
+		} finally {
+			timeout.cancel(false);
+		}
+	}
+
+	private void handleJob(DaemonProtocol.FrameWriter frameWriter, UploadJob job) throws IOException {
+		PrintStream out = new PrintStream(frameWriter.createOutputStream(DaemonProtocol.STDOUT_FRAME), true,
+				StandardCharsets.UTF_8);
+		PrintStream err = new PrintStream(frameWriter.createOutputStream(DaemonProtocol.STDERR_FRAME), true,
+				StandardCharsets.UTF_8);
+		int exitCode = LogUtils.runJob(out, err, () -> performUpload(job));
+		frameWriter.writeExitCode(exitCode);
+	}
+
+	/**
+	 * Performs the upload of the job and returns its exit code. Runs within
+	 * {@link LogUtils#runJob(PrintStream, PrintStream, java.util.function.IntSupplier)},
+	 * so all output is sent to the client.
+	 */
+	private int performUpload(UploadJob job) {
+		try {
+			// The commit is passed on the command line, since concurrent jobs may upload to
+			// different commits
+			CommandLine commandLine = CommandLine
+					.parseArguments(job.getArgumentsWithDetectedCommit(), accessKeyViaOption -> job.accessKey)
+					.withTlsDefaults(daemonCommandLine);
+			if (commandLine.debugLogEnabled) {
+				LogUtils.enableDebugLogging();
+			}
+			if (commandLine.printStackTrace) {
+				LogUtils.enableStackTracePrintingForKnownErrors();
+			}
+			if (commandLine.commit == null && commandLine.timestamp == null) {
+				LogUtils.fail("The upload daemon cannot detect the commit in the working directory of the client."
+						+ " Please specify it manually via --commit or --branch-and-timestamp");
+			}
+
+			TeamscaleClient.performUpload(clients.getClient(commandLine), commandLine, job.toReportPartitions(),
+					job.getSpool());
+			return 0;
+		} catch (JobExitException e) {
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace(LogUtils.getErrorStream());
+			return 1;
+		}
+	}
+
+	/** Reads data sent by the client, see {@link #readWithTimeout}. */
+	@FunctionalInterface
+	private interface ClientRead<T> {
+
+		T read(InputStream inputStream) throws IOException;
+	}
+}
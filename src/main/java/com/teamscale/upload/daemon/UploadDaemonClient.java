@@ -0,0 +1,106 @@
+package com.teamscale.upload.daemon;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.autodetect_revision.AutodetectCommitUtils;
+import com.teamscale.upload.resolve.ReportPartition;
+import com.teamscale.upload.utils.LogUtils;
+
+/**
+ * Hands uploads over to the {@link UploadDaemon} given via --daemon-socket.
+ */
+public class UploadDaemonClient {
+
+	/**
+	 * How long to wait for the daemon to start the upload, e.g. while it performs
+	 * the maximum number of concurrent jobs, before performing the upload in this
+	 * process.
+	 */
+	private static final long START_TIMEOUT_MILLIS = Long.getLong("com.teamscale.upload.daemon.start-timeout-millis",
+			10_000);
+
+	/**
+	 * Submits the upload of the given partitions to the daemon and forwards the
+	 * output of the daemon to stdout and stderr.
+	 *
+	 * @return the exit code of the upload or null if the daemon could not be
+	 *         reached or didn't start the upload in time and the upload must be
+	 *         performed by this process.
+	 */
+	public static Integer submit(CommandLine commandLine, List<ReportPartition> partitions) {
+		return submit(commandLine, partitions, START_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * See {@link #submit(CommandLine, List)}. Waits at most the given time for the
+	 * daemon to start the upload.
+	 */
+	/* package */ static Integer submit(CommandLine commandLine, List<ReportPartition> partitions,
+			long startTimeoutMillis) {
+		String detectedCommit = null;
+		if (commandLine.commit == null && commandLine.timestamp == null) {
+			// The daemon runs in a different directory and environment
+			detectedCommit = AutodetectCommitUtils.detectCommit();
+			if (detectedCommit == null) {
+				// The upload fails with the usual error message in this process
+				return null;
+			}
+		}
+		// The daemon parses the arguments in its own working directory
+		UploadJob job = UploadJob.create(commandLine.getArgumentsWithAbsolutePaths(), commandLine.accessKey,
+				detectedCommit, partitions);
+		if (commandLine.spoolDirectory != null) {
+			job.spoolDirectory = commandLine.spoolDirectory.toString();
+		}
+
+		SocketChannel channel;
+		try {
+			channel = SocketChannel.open(UnixDomainSocketAddress.of(commandLine.daemonSocket));
+		} catch (IOException | UnsupportedOperationException e) {
+			LogUtils.warn("Could not connect to the upload daemon at " + commandLine.daemonSocket
+					+ ". Performing the upload without the daemon: " + e.getMessage());
+			return null;
+		}
+
+		try (channel) {
+			if (!startJob(channel, job, commandLine, startTimeoutMillis)) {
+				return null;
+			}
+			return DaemonProtocol.readResponse(Channels.newInputStream(channel), System.out, System.err);
+		} catch (IOException e) {
+			LogUtils.failWithoutStackTrace(
+					"The upload daemon at " + commandLine.daemonSocket + " did not finish the upload.", e);
+			return 1;
+		}
+	}
+
+	/**
+	 * Sends the job and lets the daemon start it once it is ready. Until then, the
+	 * daemon hasn't uploaded anything, so the upload can still be performed by
+	 * this process.
+	 *
+	 * @return whether the daemon started the job.
+	 */
+	private static boolean startJob(SocketChannel channel, UploadJob job, CommandLine commandLine,
+			long startTimeoutMillis) {
+		try {
+			DaemonProtocol.writeJob(Channels.newOutputStream(channel), job);
+			if (!DaemonProtocol.awaitReady(channel, startTimeoutMillis)) {
+				LogUtils.warn("The upload daemon at " + commandLine.daemonSocket + " did not start the upload within "
+						+ startTimeoutMillis + " ms. Performing the upload without the daemon.");
+				return false;
+			}
+			DaemonProtocol.confirmStart(Channels.newOutputStream(channel));
+			return true;
+		} catch (IOException e) {
+			LogUtils.warn("The upload daemon at " + commandLine.daemonSocket
+					+ " did not accept the upload. Performing the upload without the daemon: " + e.getMessage());
+			return false;
+		}
+	}
+}
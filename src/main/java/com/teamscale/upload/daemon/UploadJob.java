@@ -0,0 +1,122 @@
+package com.teamscale.upload.daemon;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.resolve.ArchiveEntryFile;
+import com.teamscale.upload.resolve.ReportPartition;
+
+/**
+ * An upload submitted to the {@link UploadDaemon}. Everything that depends on
+ * the working directory or the environment of the submitting process (report
+ * files, access key, commit) has already been resolved by that process.
+ * Serialized as JSON.
+ */
+/* package */ class UploadJob {
+
+	/** The command line arguments of the submitting process. */
+	/* package */ String[] arguments;
+
+	/** The access key determined by the submitting process. */
+	/* package */ String accessKey;
+
+	/**
+	 * The commit detected by the submitting process. Null if it was given on the
+	 * command line or could not be detected.
+	 */
+	/* package */ String detectedCommit;
+
+	/**
+	 * The absolute path of the spool directory given by the submitting process or
+	 * null if uploads should not be spooled.
+	 */
+	/* package */ String spoolDirectory;
+
+	/**
+	 * The mirror to which a spooled upload must be performed or null for the
+	 * server given via --server, see {@link CommandLine#mirror}.
+	 */
+	/* package */ String mirror;
+
+	/* package */ List<Partition> partitions;
+
+	/* package */ static UploadJob create(String[] arguments, String accessKey, String detectedCommit,
+			List<ReportPartition> reportPartitions) {
+		UploadJob job = new UploadJob();
+		job.arguments = arguments;
+		job.accessKey = accessKey;
+		job.detectedCommit = detectedCommit;
+		job.partitions = new ArrayList<>();
+		for (ReportPartition reportPartition : reportPartitions) {
+			Partition partition = new Partition();
+			partition.partition = reportPartition.partition;
+			partition.message = reportPartition.message;
+			partition.pathPrefix = reportPartition.pathPrefix;
+			partition.filesByFormat = new HashMap<>();
+			reportPartition.filesByFormat.forEach((format, files) -> partition.filesByFormat.put(format,
+					files.stream().map(File::getAbsolutePath).toList()));
+			job.partitions.add(partition);
+		}
+		return job;
+	}
+
+	/**
+	 * Returns the arguments with the detected commit passed via --commit. This
+	 * allows to perform several jobs with different commits concurrently.
+	 */
+	/* package */ String[] getArgumentsWithDetectedCommit() {
+		if (detectedCommit == null) {
+			return arguments;
+		}
+		List<String> argumentsWithCommit = new ArrayList<>(Arrays.asList(arguments));
+		// Options after "--" would be parsed as report patterns
+		int endOfOptions = argumentsWithCommit.indexOf("--");
+		if (endOfOptions < 0) {
+			endOfOptions = argumentsWithCommit.size();
+		}
+		argumentsWithCommit.addAll(endOfOptions, List.of("--commit", detectedCommit));
+		return argumentsWithCommit.toArray(new String[0]);
+	}
+
+	/** Returns the spool for uploads that fail or null if there is none. */
+	/* package */ UploadSpool getSpool() {
+		if (spoolDirectory == null) {
+			return null;
+		}
+		return new UploadSpool(Paths.get(spoolDirectory));
+	}
+
+	/** Returns the partitions with the report files to upload. */
+	/* package */ List<ReportPartition> toReportPartitions() {
+		List<ReportPartition> reportPartitions = new ArrayList<>();
+		for (Partition partition : partitions) {
+			Map<String, Set<File>> filesByFormat = new HashMap<>();
+			partition.filesByFormat.forEach((format, paths) -> {
+				filesByFormat.put(format, new LinkedHashSet<>(ArchiveEntryFile.fromPaths(paths)));
+			});
+			reportPartitions.add(
+					new ReportPartition(partition.partition, partition.message, partition.pathPrefix, filesByFormat));
+		}
+		return reportPartitions;
+	}
+
+	/** Serialized form of a {@link ReportPartition} with absolute file paths. */
+	/* package */ static class Partition {
+
+		private String partition;
+
+		private String message;
+
+		private String pathPrefix;
+
+		private Map<String, List<String>> filesByFormat;
+	}
+}
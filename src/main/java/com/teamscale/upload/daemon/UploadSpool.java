@@ -0,0 +1,308 @@
+package com.teamscale.upload.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.autodetect_revision.AutodetectCommitUtils;
+import com.teamscale.upload.client.TeamscaleClient;
+import com.teamscale.upload.resolve.ArchiveEntryFile;
+import com.teamscale.upload.resolve.ReportPartition;
+import com.teamscale.upload.utils.FileSystemUtils;
+import com.teamscale.upload.utils.JobExitException;
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.utils.SecretUtils;
+import com.teamscale.upload.utils.ThreadUtils;
+
+/**
+ * Stores uploads that failed because Teamscale was unreachable in a local
+ * directory, so that they can be uploaded later via {@link #flush()}.
+ * <p>
+ * Each upload of a partition is stored in its own entry directory, which
+ * contains a copy of the report files and the {@link UploadJob} with the session
+ * coordinates (arguments, commit, partition and message). The entries are
+ * named after the time at which they were stored, so they are flushed in this
+ * order. The access key is not stored; it is taken from the environment of the
+ * flushing process unless it was given literally on the command line.
+ */
+public class UploadSpool {
+
+	/** Command line option that flushes the spool, followed by its directory. */
+	public static final String FLUSH_OPTION = "--flush-spool";
+
+	/** The number of spooled uploads that are performed concurrently. */
+	private static final int FLUSH_CONCURRENCY = Integer.getInteger("com.teamscale.upload.spool.flush-concurrency",
+			4);
+
+	/** Written last, so entries without it are incomplete and not flushed. */
+	private static final String JOB_FILE = "upload.json";
+
+	private static final String REPORTS_DIRECTORY = "reports";
+
+	/** Prevents that several processes flush the same spool. */
+	private static final String LOCK_FILE = ".flush.lock";
+
+	private static final DateTimeFormatter ENTRY_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+			.withZone(ZoneOffset.UTC);
+
+	private static final Gson GSON = new Gson();
+
+	private final Path directory;
+
+	public UploadSpool(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the spool given via --spool-dir or null if uploads should not be
+	 * spooled.
+	 */
+	public static UploadSpool forCommandLine(CommandLine commandLine) {
+		if (commandLine.spoolDirectory == null) {
+			return null;
+		}
+		return new UploadSpool(commandLine.spoolDirectory);
+	}
+
+	/** Returns the directory of the spool. */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Stores the upload of the given partition. The message of the partition must
+	 * already be set, since the default message contains the time and host of the
+	 * upload.
+	 *
+	 * @param detectedCommit
+	 *            The automatically detected commit or null if the commit or
+	 *            branch and timestamp was given on the command line.
+	 * @return the entry directory.
+	 */
+	public Path store(CommandLine commandLine, ReportPartition partition, String detectedCommit) throws IOException {
+		Files.createDirectories(directory);
+		Path entry = directory
+				.resolve(ENTRY_NAME_FORMAT.format(Instant.now()) + "-" + UUID.randomUUID().toString().substring(0, 8));
+		Files.createDirectory(entry);
+		try {
+			restrictToCurrentUser(entry);
+			Map<String, Set<File>> spooledFiles = copyReports(partition.filesByFormat,
+					entry.resolve(REPORTS_DIRECTORY));
+			ReportPartition spooledPartition = new ReportPartition(partition.partition, partition.message,
+					partition.pathPrefix, spooledFiles);
+			UploadJob job = UploadJob.create(commandLine.getArgumentsWithAbsolutePaths(), null, detectedCommit,
+					List.of(spooledPartition));
+			job.mirror = commandLine.mirror;
+
+			Path incompleteJobFile = entry.resolve(JOB_FILE + ".tmp");
+			Files.writeString(incompleteJobFile, GSON.toJson(job), StandardCharsets.UTF_8);
+			Files.move(incompleteJobFile, entry.resolve(JOB_FILE), StandardCopyOption.ATOMIC_MOVE);
+			return entry;
+		} catch (IOException | RuntimeException e) {
+			FileSystemUtils.deleteRecursively(entry.toFile());
+			throw e;
+		}
+	}
+
+	/**
+	 * Spooled uploads may contain access keys given on the command line, so other
+	 * users must not be able to read them where the file system supports this.
+	 */
+	private static void restrictToCurrentUser(Path entry) throws IOException {
+		if (entry.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.setPosixFilePermissions(entry, PosixFilePermissions.fromString("rwx------"));
+		}
+	}
+
+	/**
+	 * Copies the report files to the given directory. Each file is copied to its
+	 * own subdirectory, so that the file names are retained.
+	 */
+	private static Map<String, Set<File>> copyReports(Map<String, Set<File>> filesByFormat, Path reportsDirectory)
+			throws IOException {
+		Map<String, Set<File>> copiedFilesByFormat = new HashMap<>();
+		int fileIndex = 0;
+		for (Map.Entry<String, Set<File>> entry : filesByFormat.entrySet()) {
+			Set<File> copiedFiles = new HashSet<>();
+			for (File file : entry.getValue()) {
+				Path copy = reportsDirectory.resolve(String.valueOf(fileIndex++)).resolve(file.getName());
+				Files.createDirectories(copy.getParent());
+				if (file instanceof ArchiveEntryFile) {
+					try (OutputStream output = Files.newOutputStream(copy, StandardOpenOption.CREATE_NEW)) {
+						((ArchiveEntryFile) file).writeTo(output);
+					}
+				} else {
+					Files.copy(file.toPath(), copy);
+				}
+				copiedFiles.add(copy.toFile());
+			}
+			copiedFilesByFormat.put(entry.getKey(), copiedFiles);
+		}
+		return copiedFilesByFormat;
+	}
+
+	/**
+	 * Performs all spooled uploads with the access key from the environment and
+	 * removes the successful ones from the spool.
+	 *
+	 * @return the exit code, i.e. 0 if all spooled uploads succeeded and 1
+	 *         otherwise.
+	 */
+	public int flush() throws IOException {
+		return flush(SecretUtils.determineAccessKeyToUse(null), null);
+	}
+
+	/**
+	 * Performs all spooled uploads and removes the successful ones from the spool.
+	 *
+	 * @param accessKey
+	 *            The access key for uploads whose access key was not given
+	 *            literally on the command line.
+	 * @param tlsDefaults
+	 *            The command line whose --insecure and --trusted-keystore apply
+	 *            to uploads without these options (see
+	 *            {@link CommandLine#withTlsDefaults(CommandLine)}) or null.
+	 * @return the exit code, i.e. 0 if all spooled uploads succeeded and 1
+	 *         otherwise.
+	 */
+	public int flush(String accessKey, CommandLine tlsDefaults) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			LogUtils.info("There are no spooled uploads in " + directory);
+			return 0;
+		}
+
+		try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE)) {
+			FileLock lock = lockChannel.tryLock();
+			if (lock == null) {
+				LogUtils.fail("Another process is already flushing the spooled uploads in " + directory);
+			}
+			return flushEntries(listEntries(), accessKey, tlsDefaults);
+		}
+	}
+
+	/** Returns the complete entries in the order in which they were stored. */
+	private List<Path> listEntries() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(entry -> Files.isRegularFile(entry.resolve(JOB_FILE))).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private int flushEntries(List<Path> entries, String accessKey, CommandLine tlsDefaults) {
+		if (entries.isEmpty()) {
+			LogUtils.info("There are no spooled uploads in " + directory);
+			return 0;
+		}
+
+		LogUtils.info("Uploading " + entries.size() + " spooled upload(s) from " + directory);
+		OkHttpClientCache clients = new OkHttpClientCache();
+		ExecutorService executor = Executors.newFixedThreadPool(FLUSH_CONCURRENCY,
+				ThreadUtils.createThreadFactory("spool-flush-"));
+		// The commits were detected when the uploads were spooled
+		AutodetectCommitUtils.useDetectedCommit(null);
+		LogUtils.throwOnExit();
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (Path entry : entries) {
+				results.add(executor.submit(() -> flushEntry(entry, clients, accessKey, tlsDefaults)));
+			}
+
+			int failedUploads = 0;
+			for (Future<Boolean> result : results) {
+				if (!awaitFlush(result)) {
+					failedUploads++;
+				}
+			}
+			if (failedUploads > 0) {
+				LogUtils.warn(failedUploads + " of " + entries.size()
+						+ " spooled upload(s) failed and remain in " + directory);
+				return 1;
+			}
+			LogUtils.info("Uploaded all spooled uploads");
+			return 0;
+		} finally {
+			LogUtils.terminateOnExit();
+			executor.shutdownNow();
+			clients.shutdown();
+		}
+	}
+
+	private static boolean awaitFlush(Future<Boolean> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			LogUtils.warn("Spooled upload failed: " + e.getCause().getMessage(), e.getCause());
+			return false;
+		}
+	}
+
+	/**
+	 * Performs the spooled upload and deletes the entry if it succeeded. Failed
+	 * uploads are not spooled again but remain in their entry.
+	 */
+	private static boolean flushEntry(Path entry, OkHttpClientCache clients, String accessKey,
+			CommandLine tlsDefaults) {
+		String entryName = entry.getFileName().toString();
+		try {
+			UploadJob job = GSON.fromJson(Files.readString(entry.resolve(JOB_FILE), StandardCharsets.UTF_8),
+					UploadJob.class);
+			CommandLine commandLine = CommandLine.parseArguments(job.getArgumentsWithDetectedCommit(),
+					accessKeyViaOption -> resolveAccessKey(accessKeyViaOption, accessKey)).getTarget(job.mirror);
+			if (tlsDefaults != null) {
+				commandLine = commandLine.withTlsDefaults(tlsDefaults);
+			}
+			LogUtils.info("Uploading spooled upload " + entryName);
+			TeamscaleClient.performUpload(clients.getClient(commandLine), commandLine, job.toReportPartitions(),
+					null);
+			FileSystemUtils.deleteRecursively(entry.toFile());
+			return true;
+		} catch (JobExitException e) {
+			LogUtils.warn("Spooled upload " + entryName + " failed and remains in the spool.");
+			return false;
+		} catch (IOException | RuntimeException e) {
+			LogUtils.warn("Spooled upload " + entryName + " failed and remains in the spool: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Access keys given literally on the command line are part of the spooled
+	 * arguments. Otherwise, the access key of the flushing process is used.
+	 */
+	private static String resolveAccessKey(String accessKeyViaOption, String flushAccessKey) {
+		if (accessKeyViaOption == null || accessKeyViaOption.equals("-")) {
+			return flushAccessKey;
+		}
+		return accessKeyViaOption;
+	}
+}
@@ -0,0 +1,89 @@
+package com.teamscale.upload.relay;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.teamscale.upload.utils.ThreadUtils;
+
+/**
+ * Collects the closed {@link RelayedSession}s with the same batch key for a
+ * short time window and hands each batch to the {@link RelayForwarder}.
+ */
+/* package */ class RelayBatcher {
+
+	/**
+	 * How long a batch collects sessions after the first one was closed. Longer
+	 * windows result in fewer sessions on Teamscale but delay each upload.
+	 */
+	private static final long BATCH_WINDOW_MILLIS = Long.getLong("com.teamscale.upload.relay.batch-window-millis",
+			2000);
+
+	/** The maximum number of sessions that are forwarded in one session. */
+	private static final int MAX_BATCH_SESSIONS = Integer.getInteger("com.teamscale.upload.relay.max-batch-sessions",
+			100);
+
+	/** The number of batches that are forwarded concurrently. */
+	private static final int FORWARD_CONCURRENCY = Integer
+			.getInteger("com.teamscale.upload.relay.forward-concurrency", 4);
+
+	private final RelayForwarder forwarder;
+
+	/** The batches that still collect sessions by batch key. */
+	private final Map<String, List<RelayedSession>> pendingBatches = new HashMap<>();
+
+	private final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor(ThreadUtils.createThreadFactory("relay-batcher-"));
+
+	private final ExecutorService forwarders = Executors.newFixedThreadPool(FORWARD_CONCURRENCY,
+			ThreadUtils.createThreadFactory("relay-forwarder-"));
+
+	/* package */ RelayBatcher(RelayForwarder forwarder) {
+		this.forwarder = forwarder;
+	}
+
+	/**
+	 * Adds the closed session to the batch of its key. Its future is completed once
+	 * the batch was forwarded.
+	 */
+	/* package */ synchronized void add(RelayedSession session) {
+		List<RelayedSession> batch = pendingBatches.get(session.batchKey);
+		if (batch == null) {
+			List<RelayedSession> newBatch = new ArrayList<>();
+			pendingBatches.put(session.batchKey, newBatch);
+			scheduler.schedule(() -> flush(session.batchKey, newBatch), BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+			batch = newBatch;
+		}
+		batch.add(session);
+		if (batch.size() >= MAX_BATCH_SESSIONS) {
+			flush(session.batchKey, batch);
+		}
+	}
+
+	/** Forwards the batch unless this already happened. */
+	private synchronized void flush(String batchKey, List<RelayedSession> batch) {
+		if (pendingBatches.get(batchKey) == batch) {
+			pendingBatches.remove(batchKey);
+			forwarders.execute(() -> forwarder.forward(batch));
+		}
+	}
+
+	/** Forwards all pending batches immediately, e.g. when the relay stops. */
+	/* package */ synchronized void flushAll() {
+		for (Map.Entry<String, List<RelayedSession>> entry : new ArrayList<>(pendingBatches.entrySet())) {
+			flush(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/** Waits for the forwarding of the flushed batches and stops the threads. */
+	/* package */ void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		scheduler.shutdownNow();
+		forwarders.shutdown();
+		forwarders.awaitTermination(timeout, unit);
+	}
+}
@@ -0,0 +1,138 @@
+package com.teamscale.upload.relay;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.client.SafeResponse;
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.utils.OkHttpUtils;
+
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Forwards a batch of {@link RelayedSession}s to Teamscale in one upload
+ * session.
+ */
+/* package */ class RelayForwarder {
+
+	private final OkHttpClient client;
+
+	private final CommandLine commandLine;
+
+	/* package */ RelayForwarder(OkHttpClient client, CommandLine commandLine) {
+		this.client = client;
+		this.commandLine = commandLine;
+	}
+
+	/**
+	 * Forwards the sessions, which must have the same batch key, and completes
+	 * their futures. If Teamscale rejects a batch of several sessions, e.g.
+	 * because one of them contains a report in an unknown format, the sessions are
+	 * forwarded one by one, so that only the responsible client gets the error.
+	 */
+	/* package */ void forward(List<RelayedSession> sessions) {
+		try {
+			forwardInOneSession(sessions);
+			LogUtils.info("Forwarded " + sessions.size() + " upload(s) into project " + sessions.get(0).project);
+			sessions.forEach(session -> session.forwarded.complete(null));
+		} catch (UpstreamErrorException e) {
+			if (sessions.size() > 1 && e.isClientError()) {
+				LogUtils.warn("Teamscale rejected a batch of " + sessions.size()
+						+ " uploads. Forwarding them one by one: " + e.getMessage());
+				sessions.forEach(session -> forward(List.of(session)));
+				return;
+			}
+			fail(sessions, e);
+		} catch (IOException | RuntimeException e) {
+			fail(sessions, e);
+		}
+		sessions.forEach(RelayedSession::deleteReports);
+	}
+
+	private static void fail(List<RelayedSession> sessions, Exception e) {
+		LogUtils.warn("Failed to forward " + sessions.size() + " upload(s): " + e.getMessage());
+		sessions.forEach(session -> session.forwarded.completeExceptionally(e));
+	}
+
+	private void forwardInOneSession(List<RelayedSession> sessions) throws IOException {
+		RelayedSession first = sessions.get(0);
+		HttpUrl sessionUrl = commandLine.url.newBuilder().addPathSegment("api").addPathSegment(first.apiVersion)
+				.addPathSegment("projects").addPathSegment(first.project).addPathSegments("external-analysis/session")
+				.build();
+
+		String sessionId = post(sessionUrl.newBuilder().encodedQuery(first.openSessionQuery).build(),
+				OkHttpUtils.EMPTY_BODY);
+		HttpUrl forwardedSessionUrl = sessionUrl.newBuilder().addPathSegment(sessionId).build();
+		try {
+			for (RelayedSession session : sessions) {
+				for (RelayedSession.Report report : session.getReports()) {
+					HttpUrl reportUrl = forwardedSessionUrl.newBuilder().addPathSegment("report")
+							.encodedQuery(report.query).build();
+					post(reportUrl, RequestBody.create(report.body.toFile(), report.contentType));
+				}
+			}
+			post(forwardedSessionUrl, OkHttpUtils.EMPTY_BODY);
+		} catch (IOException | RuntimeException e) {
+			cancelSession(forwardedSessionUrl);
+			throw e;
+		}
+	}
+
+	/**
+	 * Deletes a forwarded session that could not be completed, so that it doesn't
+	 * stay open in Teamscale. A failure is only logged, since the caller reports
+	 * the original error.
+	 */
+	private void cancelSession(HttpUrl forwardedSessionUrl) {
+		Request request = createRequest(forwardedSessionUrl).delete().build();
+		try (Response response = client.newCall(request).execute()) {
+			if (!response.isSuccessful()) {
+				LogUtils.warn("Failed to cancel the upload session " + forwardedSessionUrl
+						+ ": Teamscale responded with HTTP " + response.code());
+			}
+		} catch (IOException e) {
+			LogUtils.warn("Failed to cancel the upload session " + forwardedSessionUrl + ": " + e.getMessage());
+		}
+	}
+
+	/** Performs the request with the credentials of the relay and returns the body. */
+	private String post(HttpUrl url, RequestBody body) throws IOException {
+		Request request = createRequest(url).post(body).build();
+		try (Response response = client.newCall(request).execute()) {
+			SafeResponse safeResponse = new SafeResponse(response);
+			if (!response.isSuccessful()) {
+				throw new UpstreamErrorException(response.code(), safeResponse.body);
+			}
+			return safeResponse.body;
+		}
+	}
+
+	private Request.Builder createRequest(HttpUrl url) {
+		return new Request.Builder()
+				.header("Authorization", Credentials.basic(commandLine.username, commandLine.accessKey)).url(url);
+	}
+
+	/** Teamscale answered a forwarded request with an error status. */
+	/* package */ static class UpstreamErrorException extends IOException {
+
+		/* package */ final int statusCode;
+
+		/* package */ final String body;
+
+		private UpstreamErrorException(int statusCode, String body) {
+			super("Teamscale responded with HTTP " + statusCode + ": " + body);
+			this.statusCode = statusCode;
+			this.body = body;
+		}
+
+		private boolean isClientError() {
+			return statusCode >= 400 && statusCode < 500;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.teamscale.upload.relay;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import com.teamscale.upload.utils.FileSystemUtils;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+
+/**
+ * An upload session opened at the {@link UploadRelay} by one client. Its
+ * reports are buffered on disk until the session is forwarded together with the
+ * other sessions of its batch.
+ */
+/* package */ class RelayedSession {
+
+	/** Query parameter of the session message, which is not part of the batch key. */
+	private static final String MESSAGE_PARAMETER = "message";
+
+	/** The API version used by the client, e.g. v8.2. */
+	/* package */ final String apiVersion;
+
+	/* package */ final String project;
+
+	/**
+	 * The query of the request that opened the session, i.e. the partition,
+	 * revision and message.
+	 */
+	/* package */ final String openSessionQuery;
+
+	/**
+	 * Sessions with the same key are forwarded in one session. It consists of the
+	 * API version, the project and all query parameters except the message.
+	 */
+	/* package */ final String batchKey;
+
+	/* package */ final long openedNanos = System.nanoTime();
+
+	/** Completed once the session was forwarded or forwarding failed. */
+	/* package */ final CompletableFuture<Void> forwarded = new CompletableFuture<>();
+
+	/** The directory in which the report bodies are buffered. */
+	private final Path directory;
+
+	private final List<Report> reports = new ArrayList<>();
+
+	/* package */ RelayedSession(String apiVersion, String project, HttpUrl openSessionUrl, Path directory) {
+		this.directory = directory;
+		this.apiVersion = apiVersion;
+		this.project = project;
+		this.openSessionQuery = openSessionUrl.encodedQuery();
+		this.batchKey = createBatchKey(apiVersion, project, openSessionUrl);
+	}
+
+	private static String createBatchKey(String apiVersion, String project, HttpUrl openSessionUrl) {
+		Map<String, List<String>> parameters = new TreeMap<>();
+		for (String name : openSessionUrl.queryParameterNames()) {
+			if (!name.equals(MESSAGE_PARAMETER)) {
+				parameters.put(name, openSessionUrl.queryParameterValues(name));
+			}
+		}
+		return apiVersion + "/" + project + "?" + parameters;
+	}
+
+	/** Returns the file in which the body of the next report is buffered. */
+	/* package */ synchronized Path createReportFile() throws IOException {
+		Files.createDirectories(directory);
+		return Files.createTempFile(directory, "report", null);
+	}
+
+	/* package */ synchronized void addReport(Report report) {
+		reports.add(report);
+	}
+
+	/* package */ synchronized List<Report> getReports() {
+		return new ArrayList<>(reports);
+	}
+
+	/** Deletes the buffered report bodies. */
+	/* package */ synchronized void deleteReports() {
+		FileSystemUtils.deleteRecursively(directory.toFile());
+		directory.toFile().delete();
+		reports.clear();
+	}
+
+	/** A report request of a client, whose body is buffered in a file. */
+	/* package */ static class Report {
+
+		/** The query of the report request, i.e. the format and path prefix. */
+		/* package */ final String query;
+
+		/* package */ final MediaType contentType;
+
+		/* package */ final Path body;
+
+		/* package */ Report(String query, MediaType contentType, Path body) {
+			this.query = query;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+}
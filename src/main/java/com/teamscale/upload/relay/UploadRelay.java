@@ -0,0 +1,252 @@
+package com.teamscale.upload.relay;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.client.TeamscaleClient;
+import com.teamscale.upload.utils.FileSystemUtils;
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.utils.ThreadUtils;
+
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+
+/**
+ * Offers the upload session endpoints of Teamscale to other teamscale-upload
+ * invocations, e.g. in many short-lived containers, and forwards their uploads
+ * to the server given via --server, see --relay.
+ * <p>
+ * The reports of a session are buffered on disk until the client closes it.
+ * Closed sessions into the same project, partition and commit are then
+ * forwarded in one session by the {@link RelayBatcher}, over the persistent
+ * connections of a single client. The request that closes a session only
+ * returns once the session was forwarded, so the client sees the errors of
+ * Teamscale and retries as if it had uploaded directly.
+ * <p>
+ * The relay only speaks plain HTTP. It listens on the loopback address unless
+ * --relay-host is given, in which case TLS must be terminated in front of it.
+ */
+public class UploadRelay {
+
+	/**
+	 * Sessions that are not closed within this time are discarded, e.g. because
+	 * their client was killed.
+	 */
+	private static final long SESSION_TIMEOUT_MINUTES = Long
+			.getLong("com.teamscale.upload.relay.session-timeout-minutes", 60);
+
+	/** How long pending uploads are forwarded when the relay is terminated. */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+	private final CommandLine commandLine;
+
+	/** The Authorization header that clients must send. */
+	private final byte[] expectedAuthorization;
+
+	private final Path bufferDirectory;
+
+	private final RelayBatcher batcher;
+
+	/** The sessions that were opened but not closed yet by ID. */
+	private final Map<String, RelayedSession> openSessions = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService cleanup = Executors
+			.newSingleThreadScheduledExecutor(ThreadUtils.createThreadFactory("relay-cleanup-"));
+
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	private UploadRelay(CommandLine commandLine, Path bufferDirectory) {
+		this.commandLine = commandLine;
+		this.bufferDirectory = bufferDirectory;
+		this.expectedAuthorization = Credentials.basic(commandLine.username, commandLine.accessKey)
+				.getBytes(StandardCharsets.UTF_8);
+		this.batcher = new RelayBatcher(new RelayForwarder(TeamscaleClient.createClient(commandLine), commandLine));
+	}
+
+	/** Relays uploads on the port given via --relay until the process is terminated. */
+	public static void run(CommandLine commandLine) throws IOException {
+		Path bufferDirectory = Files.createTempDirectory("teamscale-upload-relay-");
+		new UploadRelay(commandLine, bufferDirectory).run();
+	}
+
+	private void run() throws IOException {
+		InetAddress address = InetAddress.getLoopbackAddress();
+		if (commandLine.relayHost != null) {
+			address = InetAddress.getByName(commandLine.relayHost);
+		}
+		HttpServer server = HttpServer.create(new InetSocketAddress(address, commandLine.relayPort), 0);
+		server.setExecutor(ThreadUtils.createTaskExecutor("relay-request-"));
+		server.createContext("/api/", this::handle);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(server)));
+		cleanup.scheduleWithFixedDelay(this::discardAbandonedSessions, 1, 1, TimeUnit.MINUTES);
+		server.start();
+		LogUtils.info("Relaying uploads on " + address.getHostAddress() + " port " + commandLine.relayPort + " to "
+				+ commandLine.url);
+		if (!address.isLoopbackAddress()) {
+			LogUtils.warn("The relay accepts uploads via plain HTTP. Clients send their access key with every"
+					+ " request, so make sure that TLS is terminated in front of the relay.");
+		}
+
+		try {
+			stopped.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Forwards the pending uploads before the process terminates. */
+	private void stop(HttpServer server) {
+		batcher.flushAll();
+		// Waits for the requests that wait for their upload to be forwarded
+		server.stop((int) SHUTDOWN_TIMEOUT_SECONDS);
+		try {
+			batcher.shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		cleanup.shutdownNow();
+		FileSystemUtils.deleteRecursively(bufferDirectory.toFile());
+		bufferDirectory.toFile().delete();
+		stopped.countDown();
+	}
+
+	private void discardAbandonedSessions() {
+		long now = System.nanoTime();
+		Iterator<RelayedSession> iterator = openSessions.values().iterator();
+		while (iterator.hasNext()) {
+			RelayedSession session = iterator.next();
+			if (now - session.openedNanos > TimeUnit.MINUTES.toNanos(SESSION_TIMEOUT_MINUTES)) {
+				iterator.remove();
+				session.deleteReports();
+				LogUtils.warn("Discarded an upload into project " + session.project + " that was not finished within "
+						+ SESSION_TIMEOUT_MINUTES + " minutes");
+			}
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				respond(exchange, 405, "Only POST requests are supported");
+				return;
+			}
+			if (!isAuthorized(exchange)) {
+				respond(exchange, 401, "The user or access key does not match the ones of the relay");
+				return;
+			}
+
+			URI uri = exchange.getRequestURI();
+			HttpUrl url = HttpUrl.get("http://relay" + uri.getRawPath()
+					+ (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery()));
+			List<String> segments = url.pathSegments();
+			if (segments.size() < 6 || !segments.get(0).equals("api") || !segments.get(2).equals("projects")
+					|| !segments.get(4).equals("external-analysis") || !segments.get(5).equals("session")) {
+				respond(exchange, 404, "Only upload sessions are relayed");
+			} else if (segments.size() == 6) {
+				openSession(exchange, segments.get(1), segments.get(3), url);
+			} else if (segments.size() == 7) {
+				closeSession(exchange, segments.get(6));
+			} else if (segments.size() == 8 && segments.get(7).equals("report")) {
+				addReport(exchange, segments.get(6), url);
+			} else {
+				respond(exchange, 404, "Only upload sessions are relayed");
+			}
+		} catch (IOException | RuntimeException e) {
+			LogUtils.warn("Failed to handle request " + exchange.getRequestURI() + ": " + e.getMessage());
+			respond(exchange, 500, "The relay failed to handle the request: " + e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private boolean isAuthorized(HttpExchange exchange) {
+		String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		return authorization != null
+				&& MessageDigest.isEqual(expectedAuthorization, authorization.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void openSession(HttpExchange exchange, String apiVersion, String project, HttpUrl url)
+			throws IOException {
+		String sessionId = UUID.randomUUID().toString();
+		openSessions.put(sessionId,
+				new RelayedSession(apiVersion, project, url, bufferDirectory.resolve(sessionId)));
+		respond(exchange, 200, sessionId);
+	}
+
+	private void addReport(HttpExchange exchange, String sessionId, HttpUrl url) throws IOException {
+		RelayedSession session = openSessions.get(sessionId);
+		if (session == null) {
+			respond(exchange, 404, "Unknown upload session " + sessionId);
+			return;
+		}
+		Path body = session.createReportFile();
+		Files.copy(exchange.getRequestBody(), body, StandardCopyOption.REPLACE_EXISTING);
+		MediaType contentType = MediaType.parse(exchange.getRequestHeaders().getFirst("Content-Type"));
+		session.addReport(new RelayedSession.Report(url.encodedQuery(), contentType, body));
+		respond(exchange, 200, "");
+	}
+
+	/**
+	 * Responds once the session was forwarded to Teamscale or with 504 if that
+	 * takes longer than the timeout given via --timeout, so that the client does
+	 * not wait forever for an unresponsive Teamscale.
+	 */
+	private void closeSession(HttpExchange exchange, String sessionId) throws IOException {
+		RelayedSession session = openSessions.remove(sessionId);
+		if (session == null) {
+			respond(exchange, 404, "Unknown upload session " + sessionId);
+			return;
+		}
+		batcher.add(session);
+		try {
+			session.forwarded.get(commandLine.getTimeoutInSeconds(), TimeUnit.SECONDS);
+			respond(exchange, 200, "");
+		} catch (TimeoutException e) {
+			respond(exchange, 504, "The relay did not manage to forward the upload within "
+					+ commandLine.getTimeoutInSeconds() + " seconds");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "The relay is shutting down");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RelayForwarder.UpstreamErrorException) {
+				RelayForwarder.UpstreamErrorException upstreamError = (RelayForwarder.UpstreamErrorException) e
+						.getCause();
+				respond(exchange, upstreamError.statusCode, upstreamError.body);
+			} else {
+				respond(exchange, 502, "The relay failed to forward the upload: " + e.getCause().getMessage());
+			}
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(statusCode, bytes.length == 0 ? -1 : bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+}
@@ -10,12 +10,15 @@ import java.util.List;
  */
 public class TestwiseCoverageReport {
 
+	/** The current version of the testwise coverage report format. */
+	public static final int CURRENT_VERSION = 2;
+
 	/**
 	 * Version number for the testwise coverage report. Defaults to version 1, which
 	 * represents the old testwise coverage report format. The current version is 2.
 	 * This field is only present in coverage reports of version 2+.
 	 */
-	public final int version = 2;
+	public final int version = CURRENT_VERSION;
 
 	/**
 	 * The tests contained in the report. They are independent of an executable
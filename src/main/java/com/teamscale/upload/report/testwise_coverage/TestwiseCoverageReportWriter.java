@@ -0,0 +1,58 @@
+package com.teamscale.upload.report.testwise_coverage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes a {@link TestwiseCoverageReport} test by test. In contrast to
+ * serializing a {@link TestwiseCoverageReport} at once, the tests need not be
+ * kept in memory, which matters for reports with tens of thousands of tests.
+ * The produced JSON has the same structure as a serialized
+ * {@link TestwiseCoverageReport}.
+ */
+public class TestwiseCoverageReportWriter implements Closeable {
+
+	private final Gson gson = new Gson();
+
+	private final JsonWriter jsonWriter;
+
+	private int testCount = 0;
+
+	/**
+	 * Creates a writer for the given report file. The report must be completed by
+	 * calling {@link #close()}.
+	 */
+	public TestwiseCoverageReportWriter(File reportFile) throws IOException {
+		jsonWriter = new JsonWriter(Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8));
+		jsonWriter.beginObject();
+		jsonWriter.name("version").value(TestwiseCoverageReport.CURRENT_VERSION);
+		jsonWriter.name("tests").beginArray();
+	}
+
+	/** Appends the given test to the report. */
+	public void writeTest(TestInfo testInfo) throws IOException {
+		gson.toJson(testInfo, TestInfo.class, jsonWriter);
+		testCount++;
+	}
+
+	/** Returns the number of tests written so far. */
+	public int getTestCount() {
+		return testCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			jsonWriter.endArray();
+			jsonWriter.endObject();
+		} finally {
+			jsonWriter.close();
+		}
+	}
+}
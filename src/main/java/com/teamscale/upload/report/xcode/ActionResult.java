@@ -11,7 +11,15 @@ public class ActionResult {
 	 */
 	public final CodeCoverageInfo coverage;
 
-	public ActionResult(CodeCoverageInfo coverage) {
+	/**
+	 * Reference to the test plan run summaries of this action. The referenced
+	 * object contains the {@link ActionTest} trees. May be null if the action did
+	 * not run any tests.
+	 */
+	public final XCResultObjectIdReference testsRef;
+
+	public ActionResult(CodeCoverageInfo coverage, XCResultObjectIdReference testsRef) {
 		this.coverage = coverage;
+		this.testsRef = testsRef;
 	}
 }
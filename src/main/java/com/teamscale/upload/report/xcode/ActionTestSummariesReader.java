@@ -0,0 +1,113 @@
+package com.teamscale.upload.report.xcode;
+
+import static com.teamscale.upload.report.xcode.XcresultJsonReaderUtils.readWrappedArray;
+import static com.teamscale.upload.report.xcode.XcresultJsonReaderUtils.readWrappedValue;
+import static com.teamscale.upload.report.xcode.XcresultJsonReaderUtils.skipNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import com.google.gson.stream.JsonReader;
+import com.teamscale.upload.report.testwise_coverage.TestInfo;
+import com.teamscale.upload.report.testwise_coverage.TestwiseCoverageReportWriter;
+
+/**
+ * Streaming reader for the JSON output of the XCode xcresulttool executable for
+ * an {@link ActionResult#testsRef}. An example invocation is
+ * {@code xcrun xcresulttool get --path path/to/some.xcresult --format json --id <testsRef>}.
+ * <p>
+ * The {@link ActionTest} trees are walked while reading and each actual test is
+ * directly written to a {@link TestwiseCoverageReportWriter}, so the trees are
+ * never held in memory completely.
+ */
+public class ActionTestSummariesReader {
+
+	/**
+	 * Reads the tests from the given stream and writes them to the given writer.
+	 * Does not close the stream. Returns the number of written tests.
+	 */
+	public static int read(InputStream inputStream, TestwiseCoverageReportWriter writer) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		reader.setLenient(true);
+		int testCountBefore = writer.getTestCount();
+		try {
+			readObjectWithArray(reader, "summaries",
+					summaryReader -> readObjectWithArray(summaryReader, "testableSummaries",
+							testableSummaryReader -> readObjectWithArray(testableSummaryReader, "tests",
+									testReader -> readActionTest(testReader, writer))));
+		} catch (IllegalStateException | NumberFormatException e) {
+			throw new IOException("Unexpected structure of the test summaries JSON: " + e.getMessage(), e);
+		}
+		return writer.getTestCount() - testCountBefore;
+	}
+
+	/**
+	 * Reads an object and passes the elements of the wrapped array with the given
+	 * field name to the {@link XcresultJsonReaderUtils.ElementReader}. All other
+	 * fields are skipped.
+	 */
+	private static void readObjectWithArray(JsonReader reader, String arrayFieldName,
+			XcresultJsonReaderUtils.ElementReader elementReader) throws IOException {
+		if (skipNull(reader)) {
+			return;
+		}
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(arrayFieldName)) {
+				readWrappedArray(reader, elementReader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+
+	/**
+	 * Reads an {@link ActionTest}. Sub-tests are read recursively and written as
+	 * soon as they are complete. Only nodes that represent actual tests (see
+	 * {@link TestInfo#create(ActionTest)}) are written.
+	 */
+	private static void readActionTest(JsonReader reader, TestwiseCoverageReportWriter writer) throws IOException {
+		if (skipNull(reader)) {
+			return;
+		}
+
+		String identifier = null;
+		String duration = null;
+		String testStatus = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "identifier":
+				identifier = readWrappedValue(reader);
+				break;
+			case "duration":
+				duration = readWrappedValue(reader);
+				break;
+			case "testStatus":
+				testStatus = readWrappedValue(reader);
+				break;
+			case "subtests":
+				readWrappedArray(reader, subTestReader -> readActionTest(subTestReader, writer));
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		double durationInSeconds = 0;
+		if (duration != null) {
+			durationInSeconds = Double.parseDouble(duration);
+		}
+		// Sub-tests have already been written above, so they need not be kept
+		Optional<TestInfo> testInfo = TestInfo.create(new ActionTest(durationInSeconds, identifier, testStatus, null));
+		if (testInfo.isPresent()) {
+			writer.writeTest(testInfo.get());
+		}
+	}
+}
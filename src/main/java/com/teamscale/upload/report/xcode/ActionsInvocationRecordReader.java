@@ -0,0 +1,127 @@
+package com.teamscale.upload.report.xcode;
+
+import static com.teamscale.upload.report.xcode.XcresultJsonReaderUtils.readReference;
+import static com.teamscale.upload.report.xcode.XcresultJsonReaderUtils.readWrappedArray;
+import static com.teamscale.upload.report.xcode.XcresultJsonReaderUtils.readWrappedValue;
+import static com.teamscale.upload.report.xcode.XcresultJsonReaderUtils.skipNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Streaming reader for the {@link ActionsInvocationRecord} JSON output of the
+ * XCode xcresulttool executable.
+ * <p>
+ * The output may be tens of MB for bundles with large test logs, but we only
+ * need a few fields of each {@link ActionRecord}. Instead of materializing the
+ * whole JSON tree, this reader extracts only the fields modeled by the DTOs in
+ * this package and skips everything else.
+ */
+public class ActionsInvocationRecordReader {
+
+	/**
+	 * Reads the {@link ActionsInvocationRecord} from the given stream. Does not
+	 * close the stream.
+	 */
+	public static ActionsInvocationRecord read(InputStream inputStream) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		reader.setLenient(true);
+		try {
+			return readActionsInvocationRecord(reader);
+		} catch (IllegalStateException | NumberFormatException e) {
+			throw new IOException("Unexpected structure of the ActionsInvocationRecord JSON: " + e.getMessage(), e);
+		}
+	}
+
+	private static ActionsInvocationRecord readActionsInvocationRecord(JsonReader reader) throws IOException {
+		List<ActionRecord> actions = new ArrayList<>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("actions")) {
+				readWrappedArray(reader, actionReader -> actions.add(readActionRecord(actionReader)));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new ActionsInvocationRecord(actions.toArray(new ActionRecord[0]));
+	}
+
+	private static ActionRecord readActionRecord(JsonReader reader) throws IOException {
+		if (skipNull(reader)) {
+			return null;
+		}
+
+		ActionResult actionResult = null;
+		String testPlanName = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "actionResult":
+				actionResult = readActionResult(reader);
+				break;
+			case "testPlanName":
+				testPlanName = readWrappedValue(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new ActionRecord(actionResult, testPlanName);
+	}
+
+	private static ActionResult readActionResult(JsonReader reader) throws IOException {
+		if (skipNull(reader)) {
+			return null;
+		}
+
+		CodeCoverageInfo coverage = null;
+		XCResultObjectIdReference testsRef = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "coverage":
+				coverage = readCodeCoverageInfo(reader);
+				break;
+			case "testsRef":
+				testsRef = readReference(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new ActionResult(coverage, testsRef);
+	}
+
+	private static CodeCoverageInfo readCodeCoverageInfo(JsonReader reader) throws IOException {
+		if (skipNull(reader)) {
+			return null;
+		}
+
+		XCResultObjectIdReference archiveRef = null;
+		boolean hasCoverageData = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "archiveRef":
+				archiveRef = readReference(reader);
+				break;
+			case "hasCoverageData":
+				hasCoverageData = Boolean.parseBoolean(readWrappedValue(reader));
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new CodeCoverageInfo(archiveRef, hasCoverageData);
+	}
+}
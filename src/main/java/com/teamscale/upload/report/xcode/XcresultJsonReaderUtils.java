@@ -0,0 +1,119 @@
+package com.teamscale.upload.report.xcode;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Utilities for streaming the JSON output of the XCode xcresulttool executable
+ * with a {@link JsonReader}. Wrapped values and arrays (see
+ * {@link com.teamscale.upload.report.xcode.deserializers}) are unwrapped while
+ * reading.
+ */
+/* package */ class XcresultJsonReaderUtils {
+
+	private static final String WRAPPED_VALUE_KEY = "_value";
+
+	private static final String WRAPPED_ARRAY_VALUES_KEY = "_values";
+
+	/** Reads a {@link XCResultObjectIdReference}. */
+	/* package */ static XCResultObjectIdReference readReference(JsonReader reader) throws IOException {
+		if (skipNull(reader)) {
+			return null;
+		}
+
+		String id = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("id")) {
+				id = readWrappedValue(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new XCResultObjectIdReference(id);
+	}
+
+	/**
+	 * Reads a wrapped value object (see
+	 * {@link com.teamscale.upload.report.xcode.deserializers.WrappedValueDeserializerBase})
+	 * and returns its value as a string.
+	 */
+	/* package */ static String readWrappedValue(JsonReader reader) throws IOException {
+		if (skipNull(reader)) {
+			return null;
+		}
+
+		String value = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(WRAPPED_VALUE_KEY)) {
+				value = readPrimitiveAsString(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return value;
+	}
+
+	/**
+	 * Reads a wrapped array object (see
+	 * {@link com.teamscale.upload.report.xcode.deserializers.WrappedArrayDeserializer})
+	 * and passes each element to the given {@link ElementReader}.
+	 */
+	/* package */ static void readWrappedArray(JsonReader reader, ElementReader elementReader) throws IOException {
+		if (skipNull(reader)) {
+			return;
+		}
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(WRAPPED_ARRAY_VALUES_KEY)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					elementReader.read(reader);
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+
+	private static String readPrimitiveAsString(JsonReader reader) throws IOException {
+		switch (reader.peek()) {
+		case NULL:
+			reader.nextNull();
+			return null;
+		case BOOLEAN:
+			return String.valueOf(reader.nextBoolean());
+		case STRING:
+		case NUMBER:
+			return reader.nextString();
+		default:
+			reader.skipValue();
+			return null;
+		}
+	}
+
+	/** Consumes the next value and returns true if it is a JSON null. */
+	/* package */ static boolean skipNull(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return true;
+		}
+		return false;
+	}
+
+	/** Reads a single element of a wrapped array. */
+	@FunctionalInterface
+	/* package */ interface ElementReader {
+
+		/** Reads the next element from the reader. */
+		void read(JsonReader reader) throws IOException;
+	}
+}
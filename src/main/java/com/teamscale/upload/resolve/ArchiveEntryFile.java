@@ -0,0 +1,123 @@
+package com.teamscale.upload.resolve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.teamscale.upload.utils.FileSystemUtils;
+import com.teamscale.upload.utils.LogUtils;
+
+/**
+ * A report file within a zip or tar archive, e.g.
+ * {@code reports.zip!/TEST-a.xml}. Its content is streamed from the archive when
+ * it is uploaded, so the archive never has to be extracted. The archive stays
+ * open until {@link #closeArchives(Collection)} is called.
+ */
+public class ArchiveEntryFile extends File {
+
+	/** Separates the path of the archive from the name of the entry. */
+	public static final String ARCHIVE_SEPARATOR = "!/";
+
+	private final transient ArchiveReader reader;
+
+	private final String entryName;
+
+	private final long size;
+
+	/* package */ ArchiveEntryFile(ArchiveReader reader, String entryName, long size) {
+		super(reader.archive.getPath() + ARCHIVE_SEPARATOR + entryName);
+		this.reader = reader;
+		this.entryName = entryName;
+		this.size = size;
+	}
+
+	/** Returns the name of the entry within the archive. */
+	public String getEntryName() {
+		return entryName;
+	}
+
+	@Override
+	public boolean exists() {
+		return reader.archive.isFile();
+	}
+
+	@Override
+	public boolean isFile() {
+		return exists();
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return false;
+	}
+
+	/** Returns the uncompressed size of the entry or -1 if it is unknown. */
+	@Override
+	public long length() {
+		return size;
+	}
+
+	/** Writes the content of the entry to the output. */
+	public void writeTo(OutputStream output) throws IOException {
+		reader.writeEntry(entryName, output);
+	}
+
+	/** Reads the content of the entry into memory. */
+	public byte[] readAllBytes() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		writeTo(output);
+		return output.toByteArray();
+	}
+
+	/**
+	 * Returns the files for the given absolute paths, which may point into
+	 * archives, e.g. when they were passed to the upload daemon. Entries of the
+	 * same archive share one reader.
+	 */
+	public static List<File> fromPaths(Collection<String> paths) {
+		Map<String, ArchiveReader> readers = new HashMap<>();
+		List<File> files = new ArrayList<>();
+		for (String path : paths) {
+			String normalizedPath = FileSystemUtils.normalizeSeparators(path);
+			int separatorIndex = normalizedPath.indexOf(ARCHIVE_SEPARATOR);
+			File archive = separatorIndex < 0 ? null : new File(normalizedPath.substring(0, separatorIndex));
+			if (archive == null || !archive.isFile() || !ArchiveReader.isSupportedArchive(archive)) {
+				files.add(new File(path));
+				continue;
+			}
+			ArchiveReader reader = readers.computeIfAbsent(archive.getPath(), key -> ArchiveReader.create(archive));
+			String entryName = normalizedPath.substring(separatorIndex + ARCHIVE_SEPARATOR.length());
+			files.add(new ArchiveEntryFile(reader, entryName, -1));
+		}
+		return files;
+	}
+
+	/** Closes the archives of all archive entries in the given partitions. */
+	public static void closeArchives(Collection<ReportPartition> partitions) {
+		Map<ArchiveReader, Boolean> readers = new IdentityHashMap<>();
+		for (ReportPartition partition : partitions) {
+			for (Set<File> files : partition.filesByFormat.values()) {
+				for (File file : files) {
+					if (file instanceof ArchiveEntryFile) {
+						readers.put(((ArchiveEntryFile) file).reader, true);
+					}
+				}
+			}
+		}
+		for (ArchiveReader reader : readers.keySet()) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				LogUtils.warn("Failed to close archive " + reader.archive + ": " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package com.teamscale.upload.resolve;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+
+import com.teamscale.upload.utils.FileSystemUtils;
+import com.teamscale.upload.utils.ZipFile;
+
+/**
+ * Reads the entries of a zip or tar archive for {@link ArchiveEntryFile}s. The
+ * archive is opened on first access and kept open until {@link #close()}, so
+ * that the entries of one upload don't open it again and again. Reading entries
+ * is synchronized, since tar archives can only be read sequentially.
+ */
+/* package */ abstract class ArchiveReader implements Closeable {
+
+	/** The archive file. */
+	/* package */ final File archive;
+
+	private ArchiveReader(File archive) {
+		this.archive = archive;
+	}
+
+	/** Returns whether entries of the given file can be read. */
+	/* package */ static boolean isSupportedArchive(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		return name.endsWith(".zip") || name.endsWith(".jar") || FileSystemUtils.isTarFile(file);
+	}
+
+	/** Creates the reader for the given zip or tar archive. */
+	/* package */ static ArchiveReader create(File archive) {
+		if (FileSystemUtils.isTarFile(archive)) {
+			return new TarReader(archive);
+		}
+		return new ZipReader(archive);
+	}
+
+	/** Returns the entries of the archive, without directories, in archive order. */
+	/* package */ abstract List<ArchiveEntryFile> listEntries() throws IOException;
+
+	/** Writes the content of the entry with the given name to the output. */
+	/* package */ abstract void writeEntry(String entryName, OutputStream output) throws IOException;
+
+	/** Reads zip archives via random access. */
+	private static class ZipReader extends ArchiveReader {
+
+		private ZipFile zipFile;
+
+		private ZipReader(File archive) {
+			super(archive);
+		}
+
+		private synchronized ZipFile open() throws IOException {
+			if (zipFile == null) {
+				zipFile = new ZipFile(archive);
+			}
+			return zipFile;
+		}
+
+		@Override
+		/* package */ List<ArchiveEntryFile> listEntries() throws IOException {
+			List<ArchiveEntryFile> entries = new ArrayList<>();
+			Enumeration<ZipArchiveEntry> zipEntries = open().getEntriesInPhysicalOrder();
+			while (zipEntries.hasMoreElements()) {
+				ZipArchiveEntry entry = zipEntries.nextElement();
+				if (!entry.isDirectory()) {
+					entries.add(new ArchiveEntryFile(this, entry.getName(), entry.getSize()));
+				}
+			}
+			return entries;
+		}
+
+		@Override
+		/* package */ void writeEntry(String entryName, OutputStream output) throws IOException {
+			ZipFile zip = open();
+			ZipArchiveEntry entry = zip.getEntry(entryName);
+			if (entry == null) {
+				throw new IOException("The archive " + archive + " does not contain " + entryName);
+			}
+			try (InputStream input = zip.getInputStream(entry)) {
+				input.transferTo(output);
+			}
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (zipFile != null) {
+				zipFile.close();
+				zipFile = null;
+			}
+		}
+	}
+
+	/**
+	 * Reads tar archives sequentially. The stream stays positioned after the last
+	 * read entry, so entries that are read in archive order are found without
+	 * reading the archive from the start again.
+	 */
+	private static class TarReader extends ArchiveReader {
+
+		private TarArchiveInputStream stream;
+
+		private TarReader(File archive) {
+			super(archive);
+		}
+
+		@Override
+		/* package */ List<ArchiveEntryFile> listEntries() throws IOException {
+			List<ArchiveEntryFile> entries = new ArrayList<>();
+			try (TarArchiveInputStream input = new TarArchiveInputStream(FileSystemUtils.openTarArchive(archive))) {
+				TarArchiveEntry entry;
+				while ((entry = input.getNextTarEntry()) != null) {
+					if (!entry.isDirectory()) {
+						entries.add(new ArchiveEntryFile(this, entry.getName(), entry.getSize()));
+					}
+				}
+			}
+			return entries;
+		}
+
+		@Override
+		/* package */ synchronized void writeEntry(String entryName, OutputStream output) throws IOException {
+			if (!skipTo(entryName)) {
+				// The entry may be before the current position
+				close();
+				if (!skipTo(entryName)) {
+					throw new IOException("The archive " + archive + " does not contain " + entryName);
+				}
+			}
+			stream.transferTo(output);
+		}
+
+		/** Advances the stream to the entry and returns whether it was found. */
+		private boolean skipTo(String entryName) throws IOException {
+			if (stream == null) {
+				stream = new TarArchiveInputStream(FileSystemUtils.openTarArchive(archive));
+			}
+			TarArchiveEntry entry;
+			while ((entry = stream.getNextTarEntry()) != null) {
+				if (entry.getName().equals(entryName)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (stream != null) {
+				stream.close();
+				stream = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package com.teamscale.upload.resolve;
+
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+/**
+ * Matches files against a file pattern, see
+ * {@link FilePatternResolver#createMatcher(String, String)}.
+ */
+public class FilePatternMatcher {
+
+	private final Path basePath;
+
+	private final Predicate<Path> filter;
+
+	/* package */ FilePatternMatcher(Path basePath, Predicate<Path> filter) {
+		this.basePath = basePath;
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns the absolute directory below which all matching files are located.
+	 * The directory may not exist yet.
+	 */
+	public Path getBasePath() {
+		return basePath;
+	}
+
+	/** Returns whether the given absolute path matches the pattern. */
+	public boolean matches(Path path) {
+		return path.startsWith(basePath) && filter.test(path);
+	}
+}
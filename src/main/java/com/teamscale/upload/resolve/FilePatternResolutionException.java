@@ -10,6 +10,13 @@ public class FilePatternResolutionException extends Exception {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Constructor.
+	 */
+	public FilePatternResolutionException(String message) {
+		super(message);
+	}
+
 	/**
 	 * Constructor.
 	 */
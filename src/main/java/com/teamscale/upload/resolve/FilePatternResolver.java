@@ -11,6 +11,7 @@ import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Predicate;
@@ -66,6 +67,12 @@ public class FilePatternResolver {
 	 */
 	/* package */ List<File> resolveToMultipleFiles(String optionName, String pattern, File workingDirectory)
 			throws FilePatternResolutionException {
+		int archiveSeparatorIndex = pattern.indexOf(ArchiveEntryFile.ARCHIVE_SEPARATOR);
+		if (archiveSeparatorIndex >= 0) {
+			return resolveArchiveEntries(optionName, pattern.substring(0, archiveSeparatorIndex),
+					pattern.substring(archiveSeparatorIndex + ArchiveEntryFile.ARCHIVE_SEPARATOR.length()),
+					workingDirectory);
+		}
 		if (isPathWithPattern(pattern)) {
 			return CollectionUtils.map(
 					parseFileFromPattern(optionName, pattern, workingDirectory).getAllMatchingPaths(), Path::toFile);
@@ -81,6 +88,64 @@ public class FilePatternResolver {
 		}
 	}
 
+	/**
+	 * Resolves the entries of the archives that match the archive pattern, e.g.
+	 * {@code build/*.zip}, whose names match the entry pattern, e.g.
+	 * {@code **}{@code /TEST-*.xml}.
+	 */
+	private List<File> resolveArchiveEntries(String optionName, String archivePattern, String entryPattern,
+			File workingDirectory) throws FilePatternResolutionException {
+		Pattern entryRegex = AntPatternUtils.convertPattern(entryPattern, false);
+		List<File> entries = new ArrayList<>();
+		for (File archive : resolveToMultipleFiles(optionName, archivePattern, workingDirectory)) {
+			if (!archive.isFile() || !ArchiveReader.isSupportedArchive(archive)) {
+				throw new FilePatternResolutionException("The path " + archive + " given for option " + optionName
+						+ " is not a zip or tar archive (*.zip, *.jar, *.tar, *.tar.gz, *.tgz)");
+			}
+			ArchiveReader reader = ArchiveReader.create(archive);
+			try {
+				int matchingEntries = 0;
+				for (ArchiveEntryFile entry : reader.listEntries()) {
+					if (entryRegex.matcher(entry.getEntryName()).matches()) {
+						entries.add(entry);
+						matchingEntries++;
+					}
+				}
+				if (matchingEntries == 0) {
+					reader.close();
+				}
+			} catch (IOException e) {
+				throw new FilePatternResolutionException(
+						"Could not read the archive " + archive + " given for option " + optionName, e);
+			}
+		}
+		LogUtils.info("Resolved " + archivePattern + ArchiveEntryFile.ARCHIVE_SEPARATOR + entryPattern + " to "
+				+ entries.size() + " archive entries");
+		return entries;
+	}
+
+	/**
+	 * Returns a matcher for the files that match the given Ant pattern, which also
+	 * works for files that are created only later. If the given path is relative,
+	 * it is resolved relative to the current working directory.
+	 */
+	public FilePatternMatcher createMatcher(String optionName, String pattern) throws FilePatternResolutionException {
+		if (pattern.contains(ArchiveEntryFile.ARCHIVE_SEPARATOR)) {
+			throw new FilePatternResolutionException("The pattern " + pattern + " given for option " + optionName
+					+ " points into an archive, which is not supported here");
+		}
+		if (isPathWithPattern(pattern)) {
+			FilePatternResolverRun run = new FilePatternResolverRun(optionName, pattern, new File("."));
+			return new FilePatternMatcher(run.basePath, run.createFilter());
+		}
+		try {
+			Path file = Paths.get("").toAbsolutePath().resolve(pattern).normalize();
+			return new FilePatternMatcher(file.getParent(), file::equals);
+		} catch (InvalidPathException e) {
+			throw new FilePatternResolutionException("Invalid path given for option " + optionName + ": " + pattern, e);
+		}
+	}
+
 	/**
 	 * Parses the pattern as a Ant pattern to one or multiple files or directories.
 	 */
@@ -109,12 +174,8 @@ public class FilePatternResolver {
 		 * {@link #getAllMatchingPaths()}.
 		 */
 		private FilePatternResolverRun resolve() throws FilePatternResolutionException {
-			Pattern pathRegex = AntPatternUtils.convertPattern(suffixPattern, false);
-			Predicate<Path> filter = path -> pathRegex
-					.matcher(FileSystemUtils.normalizeSeparators(basePath.relativize(path).toString())).matches();
-
 			try {
-				matchingPaths = Files.walk(basePath).filter(filter).sorted().collect(toList());
+				matchingPaths = Files.walk(basePath).filter(createFilter()).sorted().collect(toList());
 			} catch (IOException e) {
 				throw new FilePatternResolutionException("Could not recursively list files in directory " + basePath
 						+ " in order to resolve pattern " + suffixPattern + " given for option " + optionName, e);
@@ -122,6 +183,13 @@ public class FilePatternResolver {
 			return this;
 		}
 
+		/** Returns the filter for absolute paths that match the pattern. */
+		private Predicate<Path> createFilter() {
+			Pattern pathRegex = AntPatternUtils.convertPattern(suffixPattern, false);
+			return path -> pathRegex
+					.matcher(FileSystemUtils.normalizeSeparators(basePath.relativize(path).toString())).matches();
+		}
+
 		/**
 		 * Splits the path into a base dir, i.e. the directory-prefix of the path that
 		 * does not contain any ? or * placeholders, and a pattern suffix. We need to
@@ -0,0 +1,68 @@
+package com.teamscale.upload.resolve;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The report files that are uploaded into one Teamscale partition in a single
+ * upload session.
+ */
+public class ReportPartition {
+
+	/**
+	 * The partition as specified in the input file or null if the partition given
+	 * on the command line should be used.
+	 */
+	public final String partition;
+
+	/**
+	 * The message for the upload session or null if the message given on the
+	 * command line (or the default message) should be used.
+	 */
+	public final String message;
+
+	/**
+	 * The path prefix for the uploaded reports or null if the path prefix given on
+	 * the command line should be used.
+	 */
+	public final String pathPrefix;
+
+	/**
+	 * The report files by report format. Mutable, e.g. to replace reports by their
+	 * converted versions.
+	 */
+	public final Map<String, Set<File>> filesByFormat;
+
+	public ReportPartition(String partition, String message, String pathPrefix,
+			Map<String, Set<File>> filesByFormat) {
+		this.partition = partition;
+		this.message = message;
+		this.pathPrefix = pathPrefix;
+		this.filesByFormat = filesByFormat;
+	}
+
+	/** Returns the partition or the given default if none was specified. */
+	public String getPartition(String defaultPartition) {
+		if (partition == null) {
+			return defaultPartition;
+		}
+		return partition;
+	}
+
+	/** Returns the message or the given default if none was specified. */
+	public String getMessage(String defaultMessage) {
+		if (message == null) {
+			return defaultMessage;
+		}
+		return message;
+	}
+
+	/** Returns the path prefix or the given default if none was specified. */
+	public String getPathPrefix(String defaultPathPrefix) {
+		if (pathPrefix == null) {
+			return defaultPathPrefix;
+		}
+		return pathPrefix;
+	}
+}
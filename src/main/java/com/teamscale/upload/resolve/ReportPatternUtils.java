@@ -7,9 +7,12 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -19,8 +22,9 @@ import com.teamscale.upload.utils.LogUtils;
 
 /**
  * This class provides the functionality to resolve the report file patterns and
- * formats from the command line to a map from report formats to actual files
- * which can then be used for the upload to Teamscale.
+ * formats from the command line to the actual files per
+ * {@linkplain ReportPartition partition} which can then be used for the upload
+ * to Teamscale.
  */
 public class ReportPatternUtils {
 
@@ -30,17 +34,80 @@ public class ReportPatternUtils {
 	private static final Pattern FORMAT_PATTERN = Pattern.compile("\\[(\\w+)]");
 
 	/**
-	 * Returns a map from file formats to corresponding report files.
+	 * Expected pattern for partition sections and their settings in the input
+	 * file, matches e.g. "[partition: Unit Tests]" or "[message: Unit test
+	 * coverage]".
+	 */
+	private static final Pattern SETTING_PATTERN = Pattern.compile("\\[(partition|message|path-prefix):(.*)]");
+
+	/**
+	 * Returns the report files to upload grouped by partition. The partition given
+	 * on the command line comes first, followed by the partitions defined in the
+	 * input file. Partitions without report files are omitted.
 	 *
 	 * <ol>
-	 * <li>Reads file patterns and formats from the input file</li>
+	 * <li>Reads partitions, file patterns and formats from the input file</li>
 	 * <li>Reads file patterns for the format specified on the command line</li>
 	 * <li>Resolves all file patterns from the previous steps to actual files.</li>
 	 * </ol>
 	 */
-	public static Map<String, Set<File>> resolveInputFilePatterns(Path inputFile, List<String> commandLineFilePatterns,
+	public static List<ReportPartition> resolveInputFilePatterns(Path inputFile, List<String> commandLineFilePatterns,
 			String commandLineFormat) throws IOException, FilePatternResolutionException {
-		Map<String, Set<String>> formatToFilePatterns = new HashMap<>();
+		return resolveInputFilePatterns(inputFile, commandLineFilePatterns, commandLineFormat, formats -> {
+			// Nothing to prepare
+		});
+	}
+
+	/**
+	 * Like {@link #resolveInputFilePatterns(Path, List, String)}, but passes the
+	 * formats of all partitions to the given consumer before the patterns are
+	 * resolved, e.g. to prepare the conversion of the reports in the meantime.
+	 */
+	public static List<ReportPartition> resolveInputFilePatterns(Path inputFile, List<String> commandLineFilePatterns,
+			String commandLineFormat, Consumer<Set<String>> formatsConsumer)
+			throws IOException, FilePatternResolutionException {
+		Map<String, PartitionPatterns> partitionPatterns = parsePartitionPatterns(inputFile, commandLineFilePatterns,
+				commandLineFormat);
+		Set<String> formats = new HashSet<>();
+		partitionPatterns.values().forEach(patterns -> formats.addAll(patterns.formatToFilePatterns.keySet()));
+		formatsConsumer.accept(formats);
+
+		List<ReportPartition> partitions = new ArrayList<>();
+		for (Map.Entry<String, PartitionPatterns> entry : partitionPatterns.entrySet()) {
+			PartitionPatterns patterns = entry.getValue();
+			if (!patterns.formatToFilePatterns.isEmpty()) {
+				partitions.add(new ReportPartition(entry.getKey(), patterns.message, patterns.pathPrefix,
+						resolveFilePatternsToFiles(patterns.formatToFilePatterns)));
+			}
+		}
+		return partitions;
+	}
+
+	/**
+	 * Returns the normalized file patterns by format for the partition given on
+	 * the command line without resolving them, e.g. to match files that are
+	 * created only later. Fails if the input file defines further partitions.
+	 */
+	public static Map<String, Set<String>> parseCommandLinePartitionPatterns(Path inputFile,
+			List<String> commandLineFilePatterns, String commandLineFormat) throws IOException {
+		Map<String, PartitionPatterns> partitionPatterns = parsePartitionPatterns(inputFile, commandLineFilePatterns,
+				commandLineFormat);
+		if (partitionPatterns.size() > 1) {
+			LogUtils.fail("The input file must not contain [partition: ...] sections here."
+					+ " Only the partition given via --partition is supported.");
+		}
+		return partitionPatterns.get(null).formatToFilePatterns;
+	}
+
+	/**
+	 * Parses the patterns from the input file and the command line. The partition
+	 * given on the command line (key null) comes first.
+	 */
+	private static Map<String, PartitionPatterns> parsePartitionPatterns(Path inputFile,
+			List<String> commandLineFilePatterns, String commandLineFormat) throws IOException {
+		Map<String, PartitionPatterns> partitionPatterns = new LinkedHashMap<>();
+		// The partition given on the command line
+		partitionPatterns.put(null, new PartitionPatterns());
 
 		if (inputFile != null) {
 			// Check if the specified input file via --input exists.
@@ -48,11 +115,23 @@ public class ReportPatternUtils {
 				LogUtils.fail("Could not find the specified input file: '" + inputFile
 						+ "'. Please ensure that you have no typo in the file path.");
 			}
-			formatToFilePatterns = parsePatternsFromInputFile(inputFile);
+			parsePatternsFromInputFile(inputFile, partitionPatterns);
 		}
-		parseFilePatternsForFormatOnCommandLine(formatToFilePatterns, commandLineFilePatterns, commandLineFormat);
+		parseFilePatternsForFormatOnCommandLine(partitionPatterns.get(null).formatToFilePatterns,
+				commandLineFilePatterns, commandLineFormat);
+		return partitionPatterns;
+	}
 
-		return resolveFilePatternsToFiles(formatToFilePatterns);
+	/**
+	 * Resolves the given file patterns, which use the same format as on the
+	 * command line, to the actual files for each format.
+	 */
+	public static Map<String, Set<File>> resolveFilePatterns(Map<String, Set<String>> formatToFilePatterns)
+			throws FilePatternResolutionException {
+		Map<String, Set<String>> normalizedFormatToFilePatterns = new HashMap<>();
+		formatToFilePatterns.forEach((format, patterns) -> normalizedFormatToFilePatterns.put(format,
+				patterns.stream().map(ReportPatternUtils::normalizeFilePattern).collect(Collectors.toSet())));
+		return resolveFilePatternsToFiles(normalizedFormatToFilePatterns);
 	}
 
 	/** Resolve all file patterns to the actual files for all given formats. */
@@ -67,38 +146,81 @@ public class ReportPatternUtils {
 	}
 
 	/**
-	 * Returns a map from report format to file patterns which are parsed from the
-	 * given input file. In the end, it is verified that no format has an empty set
-	 * of patterns ({@link #validatePatternsForFormats(Map)})
+	 * Parses the partitions, report formats and file patterns from the given input
+	 * file. Patterns before the first partition section belong to the partition
+	 * given on the command line (key null). In the end, it is verified that no
+	 * format has an empty set of patterns
+	 * ({@link #validatePatternsForFormats(Map)}).
 	 */
-	private static Map<String, Set<String>> parsePatternsFromInputFile(Path inputFile) throws IOException {
-		Map<String, Set<String>> formatToFilePatterns = new HashMap<>();
-
+	private static void parsePatternsFromInputFile(Path inputFile, Map<String, PartitionPatterns> partitionPatterns)
+			throws IOException {
 		List<String> nonEmptyLines = Files.readAllLines(inputFile).stream().filter(line -> !line.trim().isEmpty())
 				.collect(Collectors.toList());
 
 		if (!nonEmptyLines.isEmpty()) {
 			String line = nonEmptyLines.get(0);
 			Matcher formatPatternMatcher = FORMAT_PATTERN.matcher(line);
-			if (!formatPatternMatcher.matches()) {
-				LogUtils.fail("The first line in the input file '" + line + "' must specify a report format,"
-						+ " but does not match the expected format. See help for more information.");
+			Matcher settingPatternMatcher = SETTING_PATTERN.matcher(line);
+			boolean isPartition = settingPatternMatcher.matches() && settingPatternMatcher.group(1).equals("partition");
+			if (!formatPatternMatcher.matches() && !isPartition) {
+				LogUtils.fail("The first line in the input file '" + line + "' must specify a report format"
+						+ " or a partition, but does not match the expected format. See help for more information.");
 			}
 		}
 
+		String currentPartition = null;
 		String currentFormat = null;
 		for (String line : nonEmptyLines) {
+			Matcher settingPatternMatcher = SETTING_PATTERN.matcher(line);
 			Matcher formatPatternMatcher = FORMAT_PATTERN.matcher(line);
-			if (formatPatternMatcher.matches()) {
+			if (settingPatternMatcher.matches()) {
+				String value = settingPatternMatcher.group(2).trim();
+				if (settingPatternMatcher.group(1).equals("partition")) {
+					currentPartition = value;
+					currentFormat = null;
+					partitionPatterns.computeIfAbsent(currentPartition, k -> new PartitionPatterns());
+				} else {
+					applySetting(partitionPatterns.get(currentPartition), currentPartition,
+							settingPatternMatcher.group(1), value);
+				}
+			} else if (formatPatternMatcher.matches()) {
 				currentFormat = formatPatternMatcher.group(1).toUpperCase();
-				formatToFilePatterns.computeIfAbsent(currentFormat, k -> new HashSet<>());
+				partitionPatterns.get(currentPartition).formatToFilePatterns.computeIfAbsent(currentFormat,
+						k -> new HashSet<>());
+			} else if (currentFormat == null) {
+				LogUtils.fail("The pattern '" + line + "' in the input file must be preceded by a report format"
+						+ " within partition '" + currentPartition + "'. See help for more information.");
 			} else {
-				formatToFilePatterns.get(currentFormat).add(normalizeFilePattern(line));
+				partitionPatterns.get(currentPartition).formatToFilePatterns.get(currentFormat)
+						.add(normalizeFilePattern(line));
 			}
 		}
 
-		validatePatternsForFormats(formatToFilePatterns);
-		return formatToFilePatterns;
+		for (Map.Entry<String, PartitionPatterns> entry : partitionPatterns.entrySet()) {
+			if (entry.getKey() != null && entry.getValue().formatToFilePatterns.isEmpty()) {
+				LogUtils.fail("The input file contains no report formats for [partition: " + entry.getKey() + "]."
+						+ " Did you forget to specify report formats and file patterns for that partition?");
+			}
+			validatePatternsForFormats(entry.getValue().formatToFilePatterns);
+		}
+	}
+
+	/**
+	 * Applies a message or path prefix setting to the current partition. Settings
+	 * for the partition given on the command line must be passed as command line
+	 * options instead.
+	 */
+	private static void applySetting(PartitionPatterns patterns, String partition, String setting, String value) {
+		if (partition == null) {
+			LogUtils.fail("The setting [" + setting + ": " + value + "] in the input file must follow a"
+					+ " [partition: ...] line. Use the --" + setting + " option for the partition given on"
+					+ " the command line.");
+		}
+		if (setting.equals("message")) {
+			patterns.message = value;
+		} else {
+			patterns.pathPrefix = value;
+		}
 	}
 
 	/**
@@ -136,7 +258,8 @@ public class ReportPatternUtils {
 	private static Set<File> resolveFilesForPatterns(Set<String> patterns) throws FilePatternResolutionException {
 		FilePatternResolver resolver = new FilePatternResolver();
 
-		Set<File> fileList = new HashSet<>();
+		// Retains the order of archive entries, which avoids rereading tar archives
+		Set<File> fileList = new LinkedHashSet<>();
 		for (String pattern : patterns) {
 			List<File> resolvedFiles = new ArrayList<>(resolver.resolveToMultipleFiles("files", pattern));
 			resolvedFiles.removeIf(Predicate.not(File::exists));
@@ -160,4 +283,14 @@ public class ReportPatternUtils {
 	private static String normalizeFilePattern(String pattern) {
 		return pattern.replaceAll("\\\\", "/");
 	}
+
+	/** The patterns and settings parsed for one partition. */
+	private static class PartitionPatterns {
+
+		private final Map<String, Set<String>> formatToFilePatterns = new HashMap<>();
+
+		private String message;
+
+		private String pathPrefix;
+	}
 }
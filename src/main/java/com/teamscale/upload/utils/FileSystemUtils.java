@@ -22,18 +22,28 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.io.IOUtils;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -74,6 +84,17 @@ public class FileSystemUtils {
 	 */
 	private static final int UNIX_EXEC_MASK_OWNER = 0b001_000_000;
 
+	/** Buffer size for copying streams that are not both files. */
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The number of threads that extract or delete files concurrently. Small
+	 * files are mostly bound by file system latency, so this may exceed the number
+	 * of processors.
+	 */
+	private static final int IO_THREAD_COUNT = Integer.getInteger("com.teamscale.upload.io-threads",
+			Math.max(4, Math.min(16, 2 * Runtime.getRuntime().availableProcessors())));
+
 	/**
 	 * Replace platform dependent separator char with forward slashes to create
 	 * system-independent paths.
@@ -112,6 +133,12 @@ public class FileSystemUtils {
 	 * externally. Note that this does not close the ZipFile, so the caller has to
 	 * take care of this.
 	 * <p>
+	 * The entries are extracted concurrently by {@link #IO_THREAD_COUNT} threads,
+	 * each of which reads its entries via random access into the ZipFile. The
+	 * returned paths are in the order of the entries in the ZipFile. If several
+	 * entries have the same target file, only the last one is extracted, as a
+	 * sequential extraction would leave it.
+	 * <p>
 	 * We use the apache commons ZipArchiveEntry instead of the java standard
 	 * library ZipEntry since the apache commons variant allows access to the flags
 	 * on files in the zip. In particular executable flags on shell scripts.
@@ -119,6 +146,7 @@ public class FileSystemUtils {
 	public static List<String> unzip(ZipFile zip, File targetDirectory) throws IOException {
 		Enumeration<? extends ZipArchiveEntry> entries = zip.getEntries();
 		List<String> extractedPaths = new ArrayList<>();
+		Map<Path, Callable<Void>> extractionsByTarget = new LinkedHashMap<>();
 
 		while (entries.hasMoreElements()) {
 			ZipArchiveEntry entry = entries.nextElement();
@@ -126,19 +154,82 @@ public class FileSystemUtils {
 				continue;
 			}
 			String fileName = entry.getName();
-			try (InputStream entryStream = zip.getInputStream(entry)) {
-				File file = new File(targetDirectory, fileName);
-				ensureDirectoryExists(file.getParentFile());
-				try (FileOutputStream outputStream = new FileOutputStream(file)) {
-					copy(entryStream, outputStream);
-				}
-				adoptUnixExecuteFilePermission(file, entry.getUnixMode());
-			}
+			File file = new File(targetDirectory, fileName);
+			ensureFileIsBelowDirectory(file, targetDirectory);
+			ensureDirectoryExists(file.getParentFile());
+			extractionsByTarget.put(file.toPath().normalize(), () -> {
+				extractZipEntry(zip, entry, file);
+				return null;
+			});
 			extractedPaths.add(fileName);
 		}
+
+		runConcurrently(new ArrayList<>(extractionsByTarget.values()), "unzip-");
 		return extractedPaths;
 	}
 
+	private static void extractZipEntry(ZipFile zip, ZipArchiveEntry entry, File file) throws IOException {
+		try (InputStream entryStream = zip.getInputStream(entry);
+				FileOutputStream outputStream = new FileOutputStream(file)) {
+			copy(entryStream, outputStream);
+		}
+		adoptUnixExecuteFilePermission(file, entry.getUnixMode());
+	}
+
+	/**
+	 * Runs the I/O tasks on {@link #IO_THREAD_COUNT} threads and rethrows the
+	 * first exception after all of them have finished.
+	 */
+	private static void runConcurrently(List<Callable<Void>> tasks, String threadNamePrefix) throws IOException {
+		if (tasks.size() <= 1) {
+			for (Callable<Void> task : tasks) {
+				runTask(task);
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(IO_THREAD_COUNT, tasks.size()),
+				ThreadUtils.createThreadFactory(threadNamePrefix));
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (Callable<Void> task : tasks) {
+				futures.add(executor.submit(() -> {
+					runTask(task);
+					return null;
+				}));
+			}
+			IOException firstException = null;
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (firstException == null) {
+						firstException = e.getCause() instanceof IOException ? (IOException) e.getCause()
+								: new IOException(e.getCause());
+					}
+				}
+			}
+			if (firstException != null) {
+				throw firstException;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for file operations", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void runTask(Callable<Void> task) throws IOException {
+		try {
+			task.call();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
 	/**
 	 * Applies the given posix execute-file permission setting on the given file. If
 	 * only the file owner has execute permission, then this limitation is
@@ -169,7 +260,8 @@ public class FileSystemUtils {
 
 	/**
 	 * Copy an input stream to an output stream. This does <em>not</em> close the
-	 * streams.
+	 * streams. Copies between files are performed by the operating system via
+	 * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
 	 *
 	 * @param input
 	 *            input stream
@@ -179,9 +271,13 @@ public class FileSystemUtils {
 	 * @throws IOException
 	 *             if an IO exception occurs.
 	 */
-	public static int copy(InputStream input, OutputStream output) throws IOException {
-		byte[] buffer = new byte[1024];
-		int size = 0;
+	public static long copy(InputStream input, OutputStream output) throws IOException {
+		if (input instanceof FileInputStream && output instanceof FileOutputStream) {
+			return transfer(((FileInputStream) input).getChannel(), ((FileOutputStream) output).getChannel());
+		}
+
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		long size = 0;
 		int len;
 		while ((len = input.read(buffer)) > 0) {
 			output.write(buffer, 0, len);
@@ -190,6 +286,26 @@ public class FileSystemUtils {
 		return size;
 	}
 
+	/**
+	 * Transfers the remaining bytes of the source to the target, starting at the
+	 * current positions of both channels, which are advanced accordingly.
+	 */
+	private static long transfer(FileChannel source, FileChannel target) throws IOException {
+		long start = source.position();
+		long position = start;
+		long end = source.size();
+		while (position < end) {
+			long transferred = source.transferTo(position, end - position, target);
+			if (transferred == 0) {
+				// The source was truncated concurrently
+				break;
+			}
+			position += transferred;
+		}
+		source.position(position);
+		return position - start;
+	}
+
 	/**
 	 * Checks if a directory exists and is writable. If not it creates the directory
 	 * and all necessary parent directories.
@@ -230,33 +346,36 @@ public class FileSystemUtils {
 	 * extension.
 	 */
 	public static void extractTarArchive(File tarArchive, File destination) throws IOException {
-		InputStream inputStream = new FileInputStream(tarArchive);
-
-		String tarArchiveName = tarArchive.getName();
-
-		if (GZIP_FILE_EXTENSIONS.stream().anyMatch(tarArchiveName::endsWith)) {
-			inputStream = new GzipCompressorInputStream(inputStream);
-		}
+		extractTarArchive(tarArchive, destination, entryName -> true);
+	}
 
+	/**
+	 * Decompresses the contents of a Tar file to the destination folder like
+	 * {@link #extractTarArchive(File, File)}, but only extracts the entries whose
+	 * names are accepted by the given filter.
+	 */
+	public static void extractTarArchive(File tarArchive, File destination, Predicate<String> entryFilter)
+			throws IOException {
 		ensureEmptyDirectory(destination);
+		TarArchiveExtractor.extract(tarArchive, destination, entryFilter);
+	}
 
-		try (TarArchiveInputStream tarArchiveInputStream = new TarArchiveInputStream(inputStream)) {
-			TarArchiveEntry entry;
-			while ((entry = tarArchiveInputStream.getNextTarEntry()) != null) {
-				if (entry.isDirectory()) {
-					continue;
-				}
-				File fileForEntry = new File(destination, entry.getName());
-				ensureFileIsBelowDirectory(fileForEntry, destination);
-
-				File parent = fileForEntry.getParentFile();
-				mkdirs(parent);
+	/**
+	 * Opens a Tar file for reading, e.g. with a
+	 * {@link org.apache.commons.compress.archivers.tar.TarArchiveInputStream}. The
+	 * Tar file may also use Gzip but must indicate this with the *.tar.gz or *.tgz
+	 * extension.
+	 */
+	public static InputStream openTarArchive(File tarArchive) throws IOException {
+		return TarArchiveExtractor.openArchive(tarArchive);
+	}
 
-				try (FileOutputStream output = new FileOutputStream(fileForEntry)) {
-					IOUtils.copy(tarArchiveInputStream, output);
-				}
-			}
-		}
+	/**
+	 * Returns true if the Tar file uses Gzip as indicated by its file extension.
+	 */
+	/* package */ static boolean isGzipCompressed(File tarArchive) {
+		String tarArchiveName = tarArchive.getName();
+		return GZIP_FILE_EXTENSIONS.stream().anyMatch(tarArchiveName::endsWith);
 	}
 
 	/**
@@ -320,8 +439,14 @@ public class FileSystemUtils {
 	}
 
 	/**
-	 * Recursively delete directories and files. This method ignores the return
-	 * value of delete(), i.e. if anything fails, some files might still exist.
+	 * Recursively delete directories and files. This method ignores failures to
+	 * delete single files, i.e. if anything fails, some files might still exist.
+	 * Symbolic links are deleted, but not followed.
+	 * <p>
+	 * The directory tree is walked once. Files are deleted in batches by
+	 * {@link #IO_THREAD_COUNT} threads while the walk continues, which matters for
+	 * trees with many small files such as extracted Xcode results. The
+	 * directories are deleted afterwards, innermost first.
 	 */
 	public static void deleteRecursively(File directory) {
 
@@ -329,25 +454,103 @@ public class FileSystemUtils {
 			throw new IllegalArgumentException("Directory may not be null.");
 		}
 
-		File[] filesInDirectory = directory.listFiles();
-		if (filesInDirectory == null) {
-			if (!directory.exists()) {
-				// If filesInDirectory is null, that could have two reasons: Either
-				// directory.isInvalid() is true, or there is a low-level IO error that is not
-				// wrapped in an exception. We can't precisely distinguish the cases. But
-				// directory.exists() checks directory.isInvalid(), and if the directory does
-				// not exist, our job is actually done.
+		Path root = directory.toPath();
+		if (!Files.isDirectory(root)) {
+			if (!Files.exists(root)) {
+				// Our job is actually done
 				return;
 			}
 			throw new IllegalArgumentException(directory.getAbsolutePath() + " is not a valid directory.");
 		}
 
-		for (File entry : filesInDirectory) {
-			if (entry.isDirectory()) {
-				deleteRecursively(entry);
+		ParallelDeletion deletion = new ParallelDeletion();
+		try {
+			Files.walkFileTree(root, deletion);
+			deletion.deleteDirectories();
+		} catch (IOException e) {
+			LogUtils.debug("Failed to delete all files in " + directory + ": " + e.getMessage());
+		} finally {
+			deletion.shutdown();
+		}
+	}
+
+	/**
+	 * Deletes the visited files in batches on a thread pool, which is only
+	 * created for trees with more than one batch, and collects the directories
+	 * in the order in which they can be deleted.
+	 */
+	private static class ParallelDeletion extends SimpleFileVisitor<Path> {
+
+		private static final int BATCH_SIZE = 256;
+
+		private final List<Path> directories = new ArrayList<>();
+
+		private final List<Future<?>> deletedBatches = new ArrayList<>();
+
+		private List<Path> batch = new ArrayList<>();
+
+		private ExecutorService executor;
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+			batch.add(file);
+			if (batch.size() >= BATCH_SIZE) {
+				submitBatch();
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFileFailed(Path file, IOException e) {
+			// Tries to delete it anyway, e.g. if it is a broken link
+			return visitFile(file, null);
+		}
+
+		@Override
+		public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+			directories.add(directory);
+			return FileVisitResult.CONTINUE;
+		}
+
+		private void submitBatch() {
+			if (executor == null) {
+				executor = Executors.newFixedThreadPool(IO_THREAD_COUNT, ThreadUtils.createThreadFactory("delete-"));
+			}
+			List<Path> files = batch;
+			deletedBatches.add(executor.submit(() -> deleteAll(files)));
+			batch = new ArrayList<>();
+		}
+
+		/** Deletes the directories once all files were deleted. */
+		private void deleteDirectories() throws IOException {
+			deleteAll(batch);
+			for (Future<?> deletedBatch : deletedBatches) {
+				try {
+					deletedBatch.get();
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while deleting files", e);
+				}
+			}
+			deleteAll(directories);
+		}
+
+		private static void deleteAll(List<Path> paths) {
+			for (Path path : paths) {
+				try {
+					Files.deleteIfExists(path);
+				} catch (IOException e) {
+					// Ignored like failures of File#delete()
+				}
+			}
+		}
+
+		private void shutdown() {
+			if (executor != null) {
+				executor.shutdownNow();
 			}
-			entry.delete();
 		}
-		directory.delete();
 	}
 }
@@ -0,0 +1,22 @@
+package com.teamscale.upload.utils;
+
+/**
+ * Thrown instead of terminating the process if {@link LogUtils#exit(int)} is
+ * called while an upload is performed as one of several jobs, e.g. by the
+ * upload daemon. See {@link LogUtils#throwOnExit()} and
+ * {@link LogUtils#runJob(java.io.PrintStream, java.io.PrintStream, java.util.function.IntSupplier)}.
+ */
+public class JobExitException extends RuntimeException {
+
+	private final int exitCode;
+
+	/* package */ JobExitException(int exitCode) {
+		super("Upload job terminated with exit code " + exitCode, null, false, false);
+		this.exitCode = exitCode;
+	}
+
+	/** Returns the exit code with which the job terminated. */
+	public int getExitCode() {
+		return exitCode;
+	}
+}
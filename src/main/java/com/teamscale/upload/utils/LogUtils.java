@@ -1,5 +1,9 @@
 package com.teamscale.upload.utils;
 
+import java.io.PrintStream;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
 import com.teamscale.upload.client.SafeResponse;
 
 /**
@@ -11,12 +15,45 @@ public class LogUtils {
 	private static boolean printStackTracesForKnownErrors = false;
 	private static boolean debugLogEnabled = false;
 
+	/** Terminates the program with the given exit code. */
+	private static IntConsumer exitHandler = System::exit;
+
+	/**
+	 * The job that the current thread works for or null outside of jobs, see
+	 * {@link #runJob(PrintStream, PrintStream, IntSupplier)}. Inherited by the
+	 * threads that the job starts, e.g. for concurrent uploads of partitions.
+	 */
+	private static final InheritableThreadLocal<Job> currentJob = new InheritableThreadLocal<>();
+
+	/**
+	 * Runs the given job with its own output streams and log settings, so that
+	 * several jobs can run concurrently, e.g. in the upload daemon. Within the job,
+	 * {@link #exit(int)} only aborts the job.
+	 *
+	 * @return the exit code of the job.
+	 */
+	public static int runJob(PrintStream out, PrintStream err, IntSupplier job) {
+		currentJob.set(new Job(out, err));
+		try {
+			return job.getAsInt();
+		} catch (JobExitException e) {
+			return e.getExitCode();
+		} finally {
+			currentJob.remove();
+		}
+	}
+
 	/**
 	 * Enables printing stack traces even when the error is known and explicitly
 	 * handled. Useful for debugging incorrect error handling.
 	 */
 	public static void enableStackTracePrintingForKnownErrors() {
-		printStackTracesForKnownErrors = true;
+		Job job = currentJob.get();
+		if (job != null) {
+			job.printStackTracesForKnownErrors = true;
+		} else {
+			printStackTracesForKnownErrors = true;
+		}
 	}
 
 	/**
@@ -37,7 +74,7 @@ public class LogUtils {
 	 * {@link #failWithoutStackTrace(String, Throwable)} instead.
 	 */
 	public static void failWithStackTrace(Throwable throwable, String message) {
-		throwable.printStackTrace();
+		throwable.printStackTrace(getErrorStream());
 		fail(message + "\nThis is a bug. Please report it to CQSE (support@teamscale.com).");
 	}
 
@@ -48,11 +85,12 @@ public class LogUtils {
 	 * the stack trace of the given throwable.
 	 */
 	public static void failWithoutStackTrace(String message, Throwable throwable) {
-		if (printStackTracesForKnownErrors) {
-			throwable.printStackTrace();
+		PrintStream err = getErrorStream();
+		if (isStackTracePrintingForKnownErrorsEnabled()) {
+			throwable.printStackTrace(err);
 		} else {
-			System.err.println("ERROR: " + throwable.getClass().getSimpleName() + ": " + throwable.getMessage());
-			System.err.println("Stack trace suppressed. Rerun this command with --stacktrace to see the stack trace.");
+			err.println("ERROR: " + throwable.getClass().getSimpleName() + ": " + throwable.getMessage());
+			err.println("Stack trace suppressed. Rerun this command with --stacktrace to see the stack trace.");
 		}
 		fail(message);
 	}
@@ -61,16 +99,44 @@ public class LogUtils {
 	 * Print error message and exit the program.
 	 */
 	public static void fail(String message) {
-		System.err.println();
-		System.err.println(message);
-		System.exit(1);
+		PrintStream err = getErrorStream();
+		err.println();
+		err.println(message);
+		exit(1);
+	}
+
+	/**
+	 * Terminates the program with the given exit code or only aborts the current
+	 * job after {@link #throwOnExit()} or within
+	 * {@link #runJob(PrintStream, PrintStream, IntSupplier)}.
+	 */
+	public static void exit(int exitCode) {
+		if (currentJob.get() != null) {
+			throw new JobExitException(exitCode);
+		}
+		exitHandler.accept(exitCode);
+	}
+
+	/**
+	 * Makes {@link #exit(int)} throw a {@link JobExitException} instead of
+	 * terminating the program, so that a failing upload only aborts its own job.
+	 */
+	public static void throwOnExit() {
+		exitHandler = exitCode -> {
+			throw new JobExitException(exitCode);
+		};
+	}
+
+	/** Makes {@link #exit(int)} terminate the program again. */
+	public static void terminateOnExit() {
+		exitHandler = System::exit;
 	}
 
 	/**
 	 * Print a warning message to stderr.
 	 */
 	public static void warn(String message) {
-		System.err.println("WARNING: " + message);
+		getErrorStream().println("WARNING: " + message);
 	}
 
 	/**
@@ -78,7 +144,7 @@ public class LogUtils {
 	 */
 	public static void warn(String message, Throwable throwable) {
 		warn(message);
-		throwable.printStackTrace();
+		throwable.printStackTrace(getErrorStream());
 	}
 
 	/**
@@ -93,7 +159,7 @@ public class LogUtils {
 	 * that is only helpful when debugging unforseen errors.
 	 */
 	public static void info(String message) {
-		System.out.println("INFO: " + message);
+		getOutputStream().println("INFO: " + message);
 	}
 
 	/**
@@ -103,15 +169,15 @@ public class LogUtils {
 	 * helpful when something goes wrong.
 	 */
 	public static void debug(String message) {
-		if (debugLogEnabled) {
-			System.out.println("DEBUG: " + message);
+		if (isDebugLogEnabled()) {
+			getOutputStream().println("DEBUG: " + message);
 		}
 	}
 
 	/** See {@link #debug(String)}. Formats the message lazily via {@link String#format}. */
 	public static void debug(String template, Object... args) {
-		if (debugLogEnabled) {
-			System.out.println("DEBUG: " + String.format(template, args));
+		if (isDebugLogEnabled()) {
+			getOutputStream().println("DEBUG: " + String.format(template, args));
 		}
 	}
 
@@ -122,18 +188,75 @@ public class LogUtils {
 	 * helpful when something goes wrong.
 	 */
 	public static void debug(String message, Throwable throwable) {
-		if (!debugLogEnabled) {
+		if (!isDebugLogEnabled()) {
 			return;
 		}
 		debug(message);
-		throwable.printStackTrace();
+		throwable.printStackTrace(getOutputStream());
 	}
 
 	/**
 	 * Enables debug logging and all stack traces.
 	 */
 	public static void enableDebugLogging() {
-		debugLogEnabled = true;
-		printStackTracesForKnownErrors = true;
+		Job job = currentJob.get();
+		if (job != null) {
+			job.debugLogEnabled = true;
+			job.printStackTracesForKnownErrors = true;
+		} else {
+			debugLogEnabled = true;
+			printStackTracesForKnownErrors = true;
+		}
+	}
+
+	/** Returns stdout or the output stream of the current job. */
+	public static PrintStream getOutputStream() {
+		Job job = currentJob.get();
+		if (job != null) {
+			return job.out;
+		}
+		return System.out;
+	}
+
+	/** Returns stderr or the error stream of the current job. */
+	public static PrintStream getErrorStream() {
+		Job job = currentJob.get();
+		if (job != null) {
+			return job.err;
+		}
+		return System.err;
+	}
+
+	private static boolean isDebugLogEnabled() {
+		Job job = currentJob.get();
+		if (job != null) {
+			return job.debugLogEnabled;
+		}
+		return debugLogEnabled;
+	}
+
+	private static boolean isStackTracePrintingForKnownErrorsEnabled() {
+		Job job = currentJob.get();
+		if (job != null) {
+			return job.printStackTracesForKnownErrors;
+		}
+		return printStackTracesForKnownErrors;
+	}
+
+	/** The output streams and log settings of a job. */
+	private static class Job {
+
+		private final PrintStream out;
+
+		private final PrintStream err;
+
+		private volatile boolean debugLogEnabled = false;
+
+		private volatile boolean printStackTracesForKnownErrors = false;
+
+		private Job(PrintStream out, PrintStream err) {
+			this.out = out;
+			this.err = err;
+		}
 	}
 }
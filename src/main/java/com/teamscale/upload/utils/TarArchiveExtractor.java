@@ -0,0 +1,226 @@
+package com.teamscale.upload.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Extracts Tar archives (see {@link FileSystemUtils#extractTarArchive(File, File, Predicate)}).
+ * <p>
+ * Decompressing and reading the archive is inherently sequential, so the
+ * calling thread only reads the entries. Small entries are buffered in memory
+ * and written to disk by a pool of writer threads, so decompression doesn't
+ * wait for the disk. The memory used for buffered entries is bounded by
+ * {@link #MAX_BUFFERED_BYTES}. Large entries are written directly by the
+ * calling thread into files that are pre-sized to their final length.
+ * <p>
+ * Decompression is not moved to a thread of its own: the calling thread does
+ * little besides inflating, so another thread would only add a hand-over of
+ * every decompressed chunk.
+ * <p>
+ * If an archive contains several entries with the same name, the last one
+ * wins, as with {@code tar -x}: a write to a file waits until the pending
+ * write of an earlier entry with the same name has finished.
+ */
+/* package */ class TarArchiveExtractor {
+
+	/**
+	 * Buffer size for reading the (compressed) archive file. Xcode archives are
+	 * several GB, so a large read-ahead avoids many small reads.
+	 */
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Entries up to this size are buffered in memory and written by the writer
+	 * pool. Larger entries are written directly.
+	 */
+	private static final int MAX_BUFFERED_ENTRY_SIZE = 8 * 1024 * 1024;
+
+	/** Upper bound for the size of all buffered entries waiting to be written. */
+	private static final int MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+
+	private static final int WRITER_THREAD_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	private final File destination;
+
+	private final Predicate<String> entryFilter;
+
+	/** Created with the first buffered entry, so that no threads are started if all entries are skipped. */
+	private ExecutorService writerPool;
+
+	/** Permits for the bytes that may be buffered for the writer pool. */
+	private final Semaphore bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+
+	/** The writes submitted to the writer pool by their target file. */
+	private final Map<File, Future<?>> pendingWrites = new HashMap<>();
+
+	/** The first exception that occurred in the writer pool, if any. */
+	private volatile IOException writeException;
+
+	private TarArchiveExtractor(File destination, Predicate<String> entryFilter) {
+		this.destination = destination;
+		this.entryFilter = entryFilter;
+	}
+
+	/**
+	 * Extracts all entries whose names are accepted by the filter to the
+	 * destination directory.
+	 */
+	/* package */ static void extract(File tarArchive, File destination, Predicate<String> entryFilter)
+			throws IOException {
+		TarArchiveExtractor extractor = new TarArchiveExtractor(destination, entryFilter);
+		try (TarArchiveInputStream tarArchiveInputStream = new TarArchiveInputStream(openArchive(tarArchive))) {
+			extractor.extractEntries(tarArchiveInputStream);
+		} finally {
+			if (extractor.writerPool != null) {
+				extractor.writerPool.shutdownNow();
+			}
+		}
+	}
+
+	/** Opens the (possibly Gzip-compressed) archive for reading. */
+	/* package */ static InputStream openArchive(File tarArchive) throws IOException {
+		InputStream inputStream = new BufferedInputStream(new FileInputStream(tarArchive), READ_BUFFER_SIZE);
+		if (FileSystemUtils.isGzipCompressed(tarArchive)) {
+			inputStream = new GzipCompressorInputStream(inputStream);
+		}
+		return inputStream;
+	}
+
+	private void extractEntries(TarArchiveInputStream tarArchiveInputStream) throws IOException {
+		TarArchiveEntry entry;
+		while ((entry = tarArchiveInputStream.getNextTarEntry()) != null) {
+			rethrowWriteException();
+			if (entry.isDirectory() || !entryFilter.test(entry.getName())) {
+				continue;
+			}
+
+			File fileForEntry = new File(destination, entry.getName());
+			FileSystemUtils.ensureFileIsBelowDirectory(fileForEntry, destination);
+			FileSystemUtils.mkdirs(fileForEntry.getParentFile());
+			awaitPendingWrite(fileForEntry);
+
+			long size = entry.getSize();
+			if (size > MAX_BUFFERED_ENTRY_SIZE) {
+				writePreSized(fileForEntry, tarArchiveInputStream, size);
+			} else {
+				acquireBufferedBytes((int) size);
+				byte[] content = IOUtils.toByteArray(tarArchiveInputStream, size);
+				pendingWrites.put(fileForEntry, getWriterPool().submit(() -> write(fileForEntry, content)));
+			}
+		}
+
+		if (writerPool != null) {
+			writerPool.shutdown();
+			awaitWriterPoolTermination();
+		}
+		rethrowWriteException();
+	}
+
+	private ExecutorService getWriterPool() {
+		if (writerPool == null) {
+			writerPool = Executors.newFixedThreadPool(WRITER_THREAD_COUNT,
+					ThreadUtils.createThreadFactory("tar-writer-"));
+		}
+		return writerPool;
+	}
+
+	private void acquireBufferedBytes(int size) throws IOException {
+		try {
+			bufferedBytes.acquire(size);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while extracting Tar archive to " + destination, e);
+		}
+	}
+
+	/**
+	 * Waits until an earlier entry with the same name has been written, so that
+	 * the entries are written in the order of the archive.
+	 */
+	private void awaitPendingWrite(File file) throws IOException {
+		Future<?> pendingWrite = pendingWrites.remove(file);
+		if (pendingWrite == null) {
+			return;
+		}
+		try {
+			pendingWrite.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while extracting Tar archive to " + destination, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to write " + file, e.getCause());
+		}
+	}
+
+	private void awaitWriterPoolTermination() throws IOException {
+		try {
+			while (!writerPool.awaitTermination(1, TimeUnit.MINUTES)) {
+				LogUtils.debug("Waiting for extracted files to be written to " + destination);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while extracting Tar archive to " + destination, e);
+		}
+	}
+
+	/** Runs in the writer pool. */
+	private void write(File file, byte[] content) {
+		try {
+			Files.write(file.toPath(), content);
+		} catch (IOException e) {
+			if (writeException == null) {
+				writeException = e;
+			}
+		} finally {
+			bufferedBytes.release(content.length);
+		}
+	}
+
+	/**
+	 * Writes the next size bytes of the stream into the file, which is grown to
+	 * its final size up front.
+	 */
+	private static void writePreSized(File file, InputStream inputStream, long size) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(size);
+			FileChannel channel = randomAccessFile.getChannel();
+			ReadableByteChannel source = Channels.newChannel(inputStream);
+			long position = 0;
+			while (position < size) {
+				long transferred = channel.transferFrom(source, position, size - position);
+				if (transferred <= 0) {
+					throw new IOException("Unexpected end of Tar archive while extracting " + file);
+				}
+				position += transferred;
+			}
+		}
+	}
+
+	private void rethrowWriteException() throws IOException {
+		if (writeException != null) {
+			throw writeException;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.teamscale.upload.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates threads for blocking tasks, e.g. draining the output of processes.
+ * <p>
+ * On Java 21 and newer, virtual threads are used, which are much cheaper to
+ * create and need far less memory than platform threads. Since the tool is
+ * compiled for (and partially still runs on) Java 17, the virtual thread API is
+ * accessed via reflection. On older Java versions, daemon platform threads are
+ * used instead.
+ */
+public class ThreadUtils {
+
+	/** The first Java version in which virtual threads are not a preview feature. */
+	private static final int FIRST_JAVA_VERSION_WITH_VIRTUAL_THREADS = 21;
+
+	private static final boolean VIRTUAL_THREADS_AVAILABLE = checkVirtualThreadsAvailable();
+
+	/**
+	 * Returns a {@link ThreadFactory} that creates virtual threads if available and
+	 * daemon platform threads otherwise. The threads are named with the given
+	 * prefix and a counter.
+	 */
+	public static ThreadFactory createThreadFactory(String namePrefix) {
+		if (VIRTUAL_THREADS_AVAILABLE) {
+			ThreadFactory virtualThreadFactory = createVirtualThreadFactory(namePrefix);
+			if (virtualThreadFactory != null) {
+				return virtualThreadFactory;
+			}
+		}
+
+		AtomicLong threadCounter = new AtomicLong();
+		return runnable -> {
+			Thread thread = new Thread(runnable, namePrefix + threadCounter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Returns an {@link ExecutorService} for short-lived blocking tasks. With
+	 * virtual threads, each task runs in its own new thread. Otherwise, platform
+	 * threads are cached and reused, which avoids creating new threads for each
+	 * task.
+	 */
+	public static ExecutorService createTaskExecutor(String namePrefix) {
+		ThreadFactory threadFactory = createThreadFactory(namePrefix);
+		if (VIRTUAL_THREADS_AVAILABLE) {
+			try {
+				Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+						ThreadFactory.class);
+				return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+			} catch (ReflectiveOperationException e) {
+				LogUtils.debug("Could not create executor for virtual threads: " + e.getMessage());
+			}
+		}
+		return Executors.newCachedThreadPool(threadFactory);
+	}
+
+	/** Returns true if virtual threads are used. */
+	public static boolean areVirtualThreadsAvailable() {
+		return VIRTUAL_THREADS_AVAILABLE;
+	}
+
+	private static boolean checkVirtualThreadsAvailable() {
+		if (Runtime.version().feature() < FIRST_JAVA_VERSION_WITH_VIRTUAL_THREADS) {
+			return false;
+		}
+		try {
+			Thread.class.getMethod("ofVirtual").invoke(null);
+			return true;
+		} catch (ReflectiveOperationException e) {
+			LogUtils.debug("Virtual threads are not available: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a factory for virtual threads via
+	 * {@code Thread.ofVirtual().name(namePrefix, 0).factory()}. Returns null if
+	 * this fails.
+	 */
+	private static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+		try {
+			// The methods must be looked up on the public interface since the builder
+			// implementation is not accessible
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderInterface = Class.forName("java.lang.Thread$Builder");
+			Object namedBuilder = builderInterface.getMethod("name", String.class, long.class).invoke(builder,
+					namePrefix, 0L);
+			return (ThreadFactory) builderInterface.getMethod("factory").invoke(namedBuilder);
+		} catch (ReflectiveOperationException e) {
+			LogUtils.debug("Could not create factory for virtual threads: " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,457 @@
+package com.teamscale.upload.watch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.client.TeamscaleClient;
+import com.teamscale.upload.client.UploadSession;
+import com.teamscale.upload.resolve.FilePatternMatcher;
+import com.teamscale.upload.resolve.FilePatternResolutionException;
+import com.teamscale.upload.resolve.FilePatternResolver;
+import com.teamscale.upload.resolve.ReportPatternUtils;
+import com.teamscale.upload.utils.JobExitException;
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.xcode.XcodeReportConverter;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Watches the directories of the report patterns via a {@link WatchService} and
+ * uploads matching files in batches as they are completed, see --watch. All
+ * batches are uploaded into one {@link UploadSession}, which is opened with the
+ * first batch and closed when the watch ends. If an upload fails, the session
+ * is cancelled, so that Teamscale doesn't keep the incomplete session open.
+ * <p>
+ * A file is considered complete once its size and modification time have not
+ * changed for the quiet period, since report writers usually don't signal when
+ * they are done.
+ */
+public class ReportWatcher {
+
+	/** The time for which a file must not change before it is uploaded. */
+	private static final long QUIET_PERIOD_MILLIS = Long.getLong("com.teamscale.upload.watch.quiet-period-millis",
+			2000);
+
+	/**
+	 * The minimum time between two batches, so that reports that are completed
+	 * shortly after each other are uploaded together.
+	 */
+	private static final long BATCH_INTERVAL_MILLIS = Long.getLong("com.teamscale.upload.watch.batch-interval-millis",
+			10_000);
+
+	/**
+	 * How long the process waits for the last batch and the closing of the session
+	 * when it is terminated, e.g. via Ctrl+C.
+	 */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+	private final CommandLine commandLine;
+
+	private final long quietPeriodMillis;
+
+	private final long batchIntervalMillis;
+
+	/** How often pending files and the stop file are checked. */
+	private final long pollIntervalMillis;
+
+	/** The matchers of the patterns by report format. */
+	private final Map<String, List<FilePatternMatcher>> matchersByFormat;
+
+	private final WatchService watchService;
+
+	private final Set<Path> watchedDirectories = new HashSet<>();
+
+	/** Matching files that are not complete yet. */
+	private final Map<Path, PendingFile> pendingFiles = new LinkedHashMap<>();
+
+	/** Complete files of the next batch by format. */
+	private final Map<String, Set<File>> completedFiles = new HashMap<>();
+
+	private final Set<Path> uploadedFiles = new HashSet<>();
+
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	private volatile boolean terminating = false;
+
+	private UploadSession session;
+
+	private long lastBatchNanos = System.nanoTime();
+
+	private ReportWatcher(CommandLine commandLine, long quietPeriodMillis, long batchIntervalMillis,
+			Map<String, List<FilePatternMatcher>> matchersByFormat, WatchService watchService) {
+		this.commandLine = commandLine;
+		this.quietPeriodMillis = quietPeriodMillis;
+		this.batchIntervalMillis = batchIntervalMillis;
+		this.pollIntervalMillis = Math.max(1, Math.min(500, quietPeriodMillis / 4));
+		this.matchersByFormat = matchersByFormat;
+		this.watchService = watchService;
+	}
+
+	/**
+	 * Watches for the report files given on the command line until the stop file
+	 * exists or the process is terminated.
+	 *
+	 * @return the exit code, i.e. 0 if all uploads succeeded.
+	 */
+	public static int run(CommandLine commandLine) throws IOException {
+		return run(commandLine, QUIET_PERIOD_MILLIS, BATCH_INTERVAL_MILLIS);
+	}
+
+	/** Like {@link #run(CommandLine)}, but with the given quiet period and batch interval. */
+	/* package */ static int run(CommandLine commandLine, long quietPeriodMillis, long batchIntervalMillis)
+			throws IOException {
+		Map<String, List<FilePatternMatcher>> matchersByFormat = createMatchers(commandLine);
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			return new ReportWatcher(commandLine, quietPeriodMillis, batchIntervalMillis, matchersByFormat,
+					watchService).run();
+		}
+	}
+
+	private static Map<String, List<FilePatternMatcher>> createMatchers(CommandLine commandLine) throws IOException {
+		Map<String, Set<String>> formatToFilePatterns = ReportPatternUtils
+				.parseCommandLinePartitionPatterns(commandLine.inputFile, commandLine.files, commandLine.format);
+		if (formatToFilePatterns.containsKey(XcodeReportConverter.XCODE_REPORT_FORMAT)) {
+			LogUtils.fail("Watching for " + XcodeReportConverter.XCODE_REPORT_FORMAT + " reports is not supported.");
+		}
+
+		FilePatternResolver resolver = new FilePatternResolver();
+		Map<String, List<FilePatternMatcher>> matchersByFormat = new LinkedHashMap<>();
+		for (Map.Entry<String, Set<String>> entry : formatToFilePatterns.entrySet()) {
+			List<FilePatternMatcher> matchers = new ArrayList<>();
+			for (String pattern : entry.getValue()) {
+				try {
+					matchers.add(resolver.createMatcher("files", pattern));
+				} catch (FilePatternResolutionException e) {
+					LogUtils.failWithoutStackTrace(e.getMessage(), e);
+				}
+			}
+			matchersByFormat.put(entry.getKey(), matchers);
+		}
+		return matchersByFormat;
+	}
+
+	private int run() throws IOException {
+		OkHttpClient client = TeamscaleClient.createClient(commandLine);
+		Thread shutdownHook = new Thread(this::awaitTermination);
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+		LogUtils.throwOnExit();
+		try {
+			watchBasePaths();
+			LogUtils.info("Watching for reports until " + commandLine.watchStopFile + " exists");
+			while (!isStopRequested()) {
+				WatchKey key = watchService.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					handleEvents(key);
+				}
+				checkPendingFiles(false);
+				if (!completedFiles.isEmpty()
+						&& System.nanoTime() - lastBatchNanos >= TimeUnit.MILLISECONDS.toNanos(batchIntervalMillis)) {
+					uploadBatch(client);
+				}
+			}
+			finish(client);
+			return 0;
+		} catch (JobExitException e) {
+			cancelSession();
+			return e.getExitCode();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LogUtils.warn("Interrupted while watching for reports");
+			cancelSession();
+			return 1;
+		} catch (IOException | RuntimeException e) {
+			cancelSession();
+			throw e;
+		} finally {
+			LogUtils.terminateOnExit();
+			finished.countDown();
+			removeShutdownHook(shutdownHook);
+			client.dispatcher().executorService().shutdownNow();
+			client.connectionPool().evictAll();
+		}
+	}
+
+	/**
+	 * Cancels the open session after a failure, since the reports of the
+	 * remaining batches are missing in it.
+	 */
+	private void cancelSession() {
+		if (session == null) {
+			return;
+		}
+		session.cancel();
+		LogUtils.warn("Cancelled the upload session due to the failure. The " + uploadedFiles.size()
+				+ " report file(s) of the earlier batches were discarded and must be uploaded again.");
+	}
+
+	private boolean isStopRequested() {
+		return terminating || Files.exists(commandLine.watchStopFile);
+	}
+
+	/**
+	 * Runs as shutdown hook and gives the watch the chance to upload the last
+	 * batch and close the session before the JVM terminates.
+	 */
+	private void awaitTermination() {
+		terminating = true;
+		try {
+			if (!finished.await(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				LogUtils.warn("The upload session could not be closed within " + SHUTDOWN_TIMEOUT_SECONDS
+						+ " seconds after the termination was requested.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void removeShutdownHook(Thread shutdownHook) {
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// The JVM is already shutting down, so the hook is running
+		}
+	}
+
+	/** Uploads the remaining files and closes the session. */
+	private void finish(OkHttpClient client) throws IOException {
+		WatchKey key;
+		while ((key = watchService.poll()) != null) {
+			handleEvents(key);
+		}
+		checkPendingFiles(true);
+		if (!completedFiles.isEmpty()) {
+			uploadBatch(client);
+		}
+		if (session == null) {
+			LogUtils.warn("No report files matching the patterns were completed while watching. Skipping upload.");
+			return;
+		}
+		session.close();
+		session = null;
+		LogUtils.info("Uploaded " + uploadedFiles.size() + " report file(s) while watching");
+	}
+
+	private void watchBasePaths() throws IOException {
+		for (List<FilePatternMatcher> matchers : matchersByFormat.values()) {
+			for (FilePatternMatcher matcher : matchers) {
+				watchBasePath(matcher.getBasePath());
+			}
+		}
+	}
+
+	/**
+	 * Watches the base path and all its subdirectories. If the base path does not
+	 * exist yet, its nearest existing ancestor is watched instead, so that the
+	 * base path is watched once it is created.
+	 */
+	private void watchBasePath(Path basePath) throws IOException {
+		if (Files.isDirectory(basePath)) {
+			watchTree(basePath);
+			return;
+		}
+		Path ancestor = basePath.getParent();
+		while (ancestor != null && !Files.isDirectory(ancestor)) {
+			ancestor = ancestor.getParent();
+		}
+		if (ancestor != null) {
+			watch(ancestor);
+		}
+	}
+
+	/**
+	 * Watches the directory and all its subdirectories and adds the files in them,
+	 * since they may have been created before the directory was watched.
+	 */
+	private void watchTree(Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				watch(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				addIfMatching(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				// The file or directory may have been deleted in the meantime
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void watch(Path directory) throws IOException {
+		if (watchedDirectories.add(directory)) {
+			LogUtils.debug("Watching " + directory);
+			directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+		}
+	}
+
+	private void handleEvents(WatchKey key) throws IOException {
+		Path directory = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				// Events were lost, so we look at all files again
+				watchedDirectories.clear();
+				watchBasePaths();
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if (Files.isDirectory(path)) {
+				handleNewDirectory(path);
+			} else {
+				addIfMatching(path);
+			}
+		}
+		if (!key.reset()) {
+			watchedDirectories.remove(directory);
+		}
+	}
+
+	/**
+	 * Watches a new directory if it is below a base path or on the way to a base
+	 * path that does not exist yet.
+	 */
+	private void handleNewDirectory(Path directory) throws IOException {
+		for (List<FilePatternMatcher> matchers : matchersByFormat.values()) {
+			for (FilePatternMatcher matcher : matchers) {
+				Path basePath = matcher.getBasePath();
+				if (directory.startsWith(basePath)) {
+					watchTree(directory);
+				} else if (basePath.startsWith(directory)) {
+					watchBasePath(basePath);
+				}
+			}
+		}
+	}
+
+	private void addIfMatching(Path file) {
+		if (file.equals(commandLine.watchStopFile) || uploadedFiles.contains(file) || pendingFiles.containsKey(file)
+				|| isCompleted(file)) {
+			return;
+		}
+		if (getFormat(file) != null) {
+			pendingFiles.put(file, new PendingFile());
+		}
+	}
+
+	private boolean isCompleted(Path file) {
+		return completedFiles.values().stream().anyMatch(files -> files.contains(file.toFile()));
+	}
+
+	/** Returns the format of the first pattern that matches the file or null. */
+	private String getFormat(Path file) {
+		for (Map.Entry<String, List<FilePatternMatcher>> entry : matchersByFormat.entrySet()) {
+			for (FilePatternMatcher matcher : entry.getValue()) {
+				if (matcher.matches(file)) {
+					return entry.getKey();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Moves the pending files that have not changed for the quiet period to the
+	 * next batch.
+	 *
+	 * @param completeAll
+	 *            Whether all pending files should be considered complete, since
+	 *            the watch ends.
+	 */
+	private void checkPendingFiles(boolean completeAll) throws IOException {
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Path, PendingFile> entry = iterator.next();
+			Path file = entry.getKey();
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			} catch (NoSuchFileException e) {
+				iterator.remove();
+				continue;
+			}
+			if (entry.getValue().update(attributes, now) && !completeAll) {
+				continue;
+			}
+			if (completeAll || now - entry.getValue().lastChangeNanos >= TimeUnit.MILLISECONDS
+					.toNanos(quietPeriodMillis)) {
+				iterator.remove();
+				completedFiles.computeIfAbsent(getFormat(file), format -> new HashSet<>()).add(file.toFile());
+			}
+		}
+	}
+
+	private void uploadBatch(OkHttpClient client) throws IOException {
+		if (session == null) {
+			session = UploadSession.open(client, commandLine, matchersByFormat.keySet());
+		}
+		int batchSize = 0;
+		for (Map.Entry<String, Set<File>> entry : completedFiles.entrySet()) {
+			session.upload(entry.getKey(), entry.getValue());
+			for (File file : entry.getValue()) {
+				uploadedFiles.add(file.toPath());
+			}
+			batchSize += entry.getValue().size();
+		}
+		completedFiles.clear();
+		lastBatchNanos = System.nanoTime();
+		LogUtils.info("Uploaded a batch of " + batchSize + " report file(s)");
+	}
+
+	/** The last observed state of a file that is not complete yet. */
+	private static class PendingFile {
+
+		private long size = -1;
+
+		private long modifiedMillis = -1;
+
+		private long lastChangeNanos;
+
+		/**
+		 * Updates the observed state.
+		 *
+		 * @return whether the file changed since the last observation.
+		 */
+		private boolean update(BasicFileAttributes attributes, long now) {
+			long modified = attributes.lastModifiedTime().toMillis();
+			if (attributes.size() == size && modified == modifiedMillis) {
+				return false;
+			}
+			size = attributes.size();
+			modifiedMillis = modified;
+			lastChangeNanos = now;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.teamscale.upload.xcode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.teamscale.upload.utils.LogUtils;
+
+/**
+ * Limits the number of concurrently running tasks and adapts the limit to the
+ * machine at runtime (additive increase, multiplicative decrease).
+ * <p>
+ * The tasks are measured in rounds of {@link #limit} completed tasks. If the
+ * average task latency of a round stays close to the lowest average latency
+ * seen so far, the machine is not saturated and the limit is increased by one.
+ * If the latency grew and the throughput didn't improve compared to the
+ * previous round, more concurrency only causes contention (CPU, disk or memory)
+ * and the limit is reduced by {@link #DECREASE_FACTOR}.
+ */
+/* package */ class AdaptiveConcurrencyLimit {
+
+	/**
+	 * Rounds whose average latency is at most this factor above the minimum are
+	 * considered not saturated.
+	 */
+	private static final double LATENCY_TOLERANCE = 1.5;
+
+	private static final double DECREASE_FACTOR = 0.75;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final LongSupplier nanoTime;
+
+	private int limit;
+
+	private int runningTasks;
+
+	private int roundCompletedTasks;
+
+	private long roundLatencyNanos;
+
+	private long roundStartNanos;
+
+	private double minAverageLatencyNanos = Double.MAX_VALUE;
+
+	private double previousThroughput;
+
+	/**
+	 * Creates a limit that starts with the initial limit and adapts between the
+	 * given minimum and maximum.
+	 */
+	/* package */ AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+		this(initialLimit, minLimit, maxLimit, System::nanoTime);
+	}
+
+	/* package */ AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, LongSupplier nanoTime) {
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.nanoTime = nanoTime;
+		this.roundStartNanos = nanoTime.getAsLong();
+	}
+
+	/** Creates a limit that never changes. */
+	/* package */ static AdaptiveConcurrencyLimit fixed(int limit) {
+		return new AdaptiveConcurrencyLimit(limit, limit, limit);
+	}
+
+	/** Blocks until another task may run. */
+	/* package */ synchronized void acquire() throws InterruptedException {
+		while (runningTasks >= limit) {
+			wait();
+		}
+		runningTasks++;
+	}
+
+	/**
+	 * Marks a task that was started after {@link #acquire()} as completed and
+	 * records its latency.
+	 */
+	/* package */ synchronized void release(long latencyNanos) {
+		runningTasks--;
+		roundCompletedTasks++;
+		roundLatencyNanos += latencyNanos;
+		if (roundCompletedTasks >= limit) {
+			adaptLimit();
+		}
+		notifyAll();
+	}
+
+	/** Returns the current limit. */
+	/* package */ synchronized int getLimit() {
+		return limit;
+	}
+
+	/** Returns the maximum the limit can grow to. */
+	/* package */ int getMaxLimit() {
+		return maxLimit;
+	}
+
+	private void adaptLimit() {
+		long now = nanoTime.getAsLong();
+		double averageLatencyNanos = (double) roundLatencyNanos / roundCompletedTasks;
+		double throughput = roundCompletedTasks / Math.max(1.0, now - roundStartNanos);
+		minAverageLatencyNanos = Math.min(minAverageLatencyNanos, averageLatencyNanos);
+
+		int previousLimit = limit;
+		if (averageLatencyNanos <= minAverageLatencyNanos * LATENCY_TOLERANCE) {
+			limit = Math.min(maxLimit, limit + 1);
+		} else if (throughput <= previousThroughput) {
+			limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+		}
+
+		if (limit != previousLimit) {
+			LogUtils.debug("Changed conversion concurrency from %d to %d (average latency %d ms, %.1f tasks/s).",
+					previousLimit, limit, TimeUnit.NANOSECONDS.toMillis((long) averageLatencyNanos),
+					throughput * TimeUnit.SECONDS.toNanos(1));
+		}
+
+		previousThroughput = throughput;
+		roundCompletedTasks = 0;
+		roundLatencyNanos = 0;
+		roundStartNanos = now;
+	}
+}
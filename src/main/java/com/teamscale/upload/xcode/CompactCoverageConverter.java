@@ -0,0 +1,237 @@
+package com.teamscale.upload.xcode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Converts the {@value ConversionUtils#XCCOV_REPORT_FILE_EXTENSION} text output
+ * of {@code xcrun xccov view} into the
+ * {@value XcodeReportConverter#COMPACT_COVERAGE_REPORT_FORMAT} format.
+ * <p>
+ * The xccov output contains one line per source line. The compact format only
+ * lists the coverable lines and merges consecutive lines with the same coverage
+ * into ranges, which makes it much smaller. The input is processed line by line
+ * and only the ranges of the current source file are kept in memory.
+ * <p>
+ * Example of the xccov output:
+ *
+ * <pre>
+ * /path/to/File.swift:
+ *  1: *
+ *  2: 1
+ *  3: 0 [
+ * (1, 8, 1)
+ * ]
+ * </pre>
+ *
+ * Every line that is not a line entry starts a new source file. Lines with
+ * {@code *} are not coverable, all other lines start with their
+ * execution count. The optional block after {@code [} contains the execution
+ * counts of sub-ranges of the line as {@code (column, length, count)}.
+ */
+/* package */ class CompactCoverageConverter {
+
+	/** The version of the compact coverage format that is written. */
+	private static final int COMPACT_COVERAGE_FORMAT_VERSION = 1;
+
+	/** Matches a line entry, e.g. {@code " 3: 0 ["}. */
+	private static final Pattern LINE_PATTERN = Pattern
+			.compile("^\\s*(?<line>\\d+): (?<count>\\S+)(?<subRanges> \\[)?\\s*$");
+
+	/** Matches a sub-range entry, e.g. {@code "(1, 8, 1)"}. */
+	private static final Pattern SUB_RANGE_PATTERN = Pattern.compile("^\\s*\\(\\d+, \\d+, (?<count>\\S+)\\)\\s*$");
+
+	private static final String NOT_COVERABLE_COUNT = "*";
+
+	private static final String NOT_EXECUTED_COUNT = "0";
+
+	private static final String SUB_RANGES_END = "]";
+
+	private static final String FILE_HEADER_SUFFIX = ":";
+
+	private final JsonWriter writer;
+
+	/** The path of the file whose lines are currently read. */
+	private String currentFile;
+
+	private final LineRanges fullyCoveredLines = new LineRanges();
+
+	private final LineRanges partiallyCoveredLines = new LineRanges();
+
+	private final LineRanges uncoveredLines = new LineRanges();
+
+	/** The line whose sub-ranges are currently read or -1 if none. */
+	private int lineWithSubRanges = -1;
+
+	/** Whether the {@link #lineWithSubRanges} was executed at all. */
+	private boolean lineWithSubRangesExecuted;
+
+	/**
+	 * Whether any sub-range of the {@link #lineWithSubRanges} was not executed.
+	 */
+	private boolean lineWithSubRangesMissed;
+
+	private CompactCoverageConverter(Writer writer) {
+		this.writer = new JsonWriter(writer);
+	}
+
+	/**
+	 * Reads the xccov report and writes the compact coverage report to the given
+	 * writer. Neither the reader nor the writer are closed.
+	 */
+	public static void convert(BufferedReader xccovReport, Writer compactCoverageReport) throws IOException {
+		CompactCoverageConverter converter = new CompactCoverageConverter(compactCoverageReport);
+		converter.writer.beginObject();
+		converter.writer.name("version").value(COMPACT_COVERAGE_FORMAT_VERSION);
+		converter.writer.name("coverage").beginArray();
+
+		String line;
+		while ((line = xccovReport.readLine()) != null) {
+			converter.processLine(line);
+		}
+		converter.finishFile();
+
+		converter.writer.endArray();
+		converter.writer.endObject();
+		converter.writer.flush();
+	}
+
+	private void processLine(String line) throws IOException {
+		if (lineWithSubRanges != -1) {
+			processSubRangeLine(line);
+			return;
+		}
+
+		if (line.isBlank()) {
+			return;
+		}
+
+		Matcher lineMatcher = LINE_PATTERN.matcher(line);
+		if (currentFile != null && lineMatcher.matches()) {
+			processLineEntry(Integer.parseInt(lineMatcher.group("line")), lineMatcher.group("count"),
+					lineMatcher.group("subRanges") != null);
+		} else {
+			// The legacy conversion writes the file path without the colon
+			finishFile();
+			currentFile = ConversionUtils.removeSuffix(line, FILE_HEADER_SUFFIX);
+		}
+	}
+
+	private void processLineEntry(int line, String count, boolean hasSubRanges) {
+		if (count.equals(NOT_COVERABLE_COUNT)) {
+			return;
+		}
+
+		boolean executed = !count.equals(NOT_EXECUTED_COUNT);
+		if (hasSubRanges) {
+			lineWithSubRanges = line;
+			lineWithSubRangesExecuted = executed;
+			lineWithSubRangesMissed = !executed;
+		} else if (executed) {
+			fullyCoveredLines.add(line);
+		} else {
+			uncoveredLines.add(line);
+		}
+	}
+
+	private void processSubRangeLine(String line) throws IOException {
+		if (line.trim().equals(SUB_RANGES_END)) {
+			if (lineWithSubRangesExecuted && lineWithSubRangesMissed) {
+				partiallyCoveredLines.add(lineWithSubRanges);
+			} else if (lineWithSubRangesExecuted) {
+				fullyCoveredLines.add(lineWithSubRanges);
+			} else {
+				uncoveredLines.add(lineWithSubRanges);
+			}
+			lineWithSubRanges = -1;
+			return;
+		}
+
+		Matcher subRangeMatcher = SUB_RANGE_PATTERN.matcher(line);
+		if (!subRangeMatcher.matches()) {
+			throw new IOException("Unexpected sub-range in xccov report: " + line);
+		}
+		if (subRangeMatcher.group("count").equals(NOT_EXECUTED_COUNT)) {
+			lineWithSubRangesMissed = true;
+		} else {
+			lineWithSubRangesExecuted = true;
+		}
+	}
+
+	/**
+	 * Writes the coverage of the {@link #currentFile}, if it contains any coverable
+	 * lines.
+	 */
+	private void finishFile() throws IOException {
+		if (currentFile == null || fullyCoveredLines.isEmpty() && partiallyCoveredLines.isEmpty()
+				&& uncoveredLines.isEmpty()) {
+			currentFile = null;
+			return;
+		}
+
+		writer.beginObject();
+		writer.name("filePath").value(currentFile);
+		writeLineRanges("fullyCoveredLines", fullyCoveredLines);
+		writeLineRanges("partiallyCoveredLines", partiallyCoveredLines);
+		writeLineRanges("uncoveredLines", uncoveredLines);
+		writer.endObject();
+
+		currentFile = null;
+	}
+
+	private void writeLineRanges(String name, LineRanges lineRanges) throws IOException {
+		if (lineRanges.isEmpty()) {
+			return;
+		}
+
+		writer.name(name).beginArray();
+		for (int i = 0; i < lineRanges.starts.size(); i++) {
+			int start = lineRanges.starts.get(i);
+			int end = lineRanges.ends.get(i);
+			if (start == end) {
+				writer.value(start);
+			} else {
+				writer.value(start + "-" + end);
+			}
+		}
+		writer.endArray();
+		lineRanges.clear();
+	}
+
+	/**
+	 * Ranges of lines in ascending order. Consecutive lines are merged into a
+	 * single range.
+	 */
+	private static class LineRanges {
+
+		private final List<Integer> starts = new ArrayList<>();
+
+		private final List<Integer> ends = new ArrayList<>();
+
+		private void add(int line) {
+			int lastIndex = ends.size() - 1;
+			if (lastIndex >= 0 && ends.get(lastIndex) == line - 1) {
+				ends.set(lastIndex, line);
+			} else {
+				starts.add(line);
+				ends.add(line);
+			}
+		}
+
+		private boolean isEmpty() {
+			return starts.isEmpty();
+		}
+
+		private void clear() {
+			starts.clear();
+			ends.clear();
+		}
+	}
+}
@@ -23,7 +23,7 @@ class ConversionTask implements Callable<ConversionResult> {
 
 	@Override
 	public ConversionResult call() {
-		ProcessResult result = ProcessUtils.run("xcrun", "xccov", "view", "--archive",
+		ProcessResult result = XcodeToolRunner.runXcrun("xccov", "view", "--archive",
 				reportDirectory.getAbsolutePath(), "--file", sourceFile);
 		if (result.wasSuccessful()) {
 			return new ConversionResult(sourceFile, result.output);
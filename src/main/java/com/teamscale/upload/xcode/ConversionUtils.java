@@ -1,7 +1,17 @@
 package com.teamscale.upload.xcode;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /** Utilities for converting Xcode coverage reports. */
 public class ConversionUtils {
@@ -10,6 +20,26 @@ public class ConversionUtils {
 	 */
 	public static final String XCCOV_REPORT_FILE_EXTENSION = ".xccov";
 
+	/**
+	 * File extension used for XCResult bundles converted into the
+	 * {@value XcodeReportConverter#COMPACT_COVERAGE_REPORT_FORMAT} format.
+	 */
+	public static final String COMPACT_COVERAGE_REPORT_FILE_EXTENSION = ".compact-coverage.json";
+
+	/**
+	 * File extension used for test results converted from XCResult bundles.
+	 */
+	public static final String TESTWISE_COVERAGE_REPORT_FILE_EXTENSION = ".testwise.json";
+
+	/**
+	 * File extension appended to intermediate files in the working directory that
+	 * are compressed (see {@link #newCompressedWriter(Path)}).
+	 */
+	public static final String COMPRESSED_FILE_EXTENSION = ".gz";
+
+	/** Buffer size for reading and writing compressed intermediate files. */
+	private static final int COMPRESSION_BUFFER_SIZE = 64 * 1024;
+
 	/**
 	 * File extension used for xccov archives
 	 *
@@ -59,6 +89,39 @@ public class ConversionUtils {
 		}
 	}
 
+	/**
+	 * Opens a writer for an intermediate file in the working directory that is
+	 * Gzip-compressed with the fastest compression level. Xccov reports are highly
+	 * repetitive text, so this shrinks them considerably at little CPU cost and
+	 * avoids that the working directory outgrows small CI disks. The file must be
+	 * read with {@link #newDecompressedInputStream(Path)}.
+	 */
+	public static BufferedWriter newCompressedWriter(Path file) throws IOException {
+		OutputStream outputStream = Files.newOutputStream(file);
+		try {
+			return new BufferedWriter(
+					new OutputStreamWriter(new FastGzipOutputStream(outputStream), StandardCharsets.UTF_8),
+					COMPRESSION_BUFFER_SIZE);
+		} catch (IOException e) {
+			outputStream.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a stream that reads a file written by
+	 * {@link #newCompressedWriter(Path)}.
+	 */
+	public static InputStream newDecompressedInputStream(Path file) throws IOException {
+		InputStream inputStream = Files.newInputStream(file);
+		try {
+			return new GZIPInputStream(inputStream, COMPRESSION_BUFFER_SIZE);
+		} catch (IOException e) {
+			inputStream.close();
+			throw e;
+		}
+	}
+
 	/** Removes the suffix from the given string, if present. */
 	public static String removeSuffix(String string, String suffix) {
 		if (string.endsWith(suffix)) {
@@ -66,4 +129,13 @@ public class ConversionUtils {
 		}
 		return string;
 	}
+
+	/** Gzip stream that favors speed over compression ratio. */
+	private static class FastGzipOutputStream extends GZIPOutputStream {
+
+		private FastGzipOutputStream(OutputStream outputStream) throws IOException {
+			super(outputStream, COMPRESSION_BUFFER_SIZE);
+			def.setLevel(Deflater.BEST_SPEED);
+		}
+	}
 }
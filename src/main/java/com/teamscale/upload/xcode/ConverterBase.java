@@ -12,7 +12,7 @@ import java.nio.file.Path;
 
 	/**
 	 * The installed and used XCode version. Can be determined by
-	 * {@link XcodeVersion#determine()}.
+	 * {@link XcodeToolchain#get()}.
 	 *
 	 * @implNote The version should be determined by the caller and passed to this
 	 *           class (i.e., instead of determining it in this class). This is
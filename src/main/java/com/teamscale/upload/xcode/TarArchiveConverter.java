@@ -12,14 +12,14 @@ import com.teamscale.upload.utils.FileSystemUtils;
  * Converts a {@link FileSystemUtils#isTarFile(File) tar file} into the
  * {@value ConversionUtils#XCCOV_REPORT_FILE_EXTENSION} format.
  */
-/* package */ class TarArchiveConverter extends ConverterBase<List<File>> {
+/* package */ class TarArchiveConverter extends ConverterBase<List<ConvertedReport>> {
 
 	public TarArchiveConverter(XcodeVersion xcodeVersion, Path workingDirectory) {
 		super(xcodeVersion, workingDirectory);
 	}
 
 	@Override
-	public List<File> convert(File tarFile) throws ConversionException, IOException {
+	public List<ConvertedReport> convert(File tarFile) throws ConversionException, IOException {
 		File xcodeReport = extractTar(tarFile);
 
 		if (ConversionUtils.isXccovArchive(xcodeReport)) {
@@ -38,7 +38,19 @@ import com.teamscale.upload.utils.FileSystemUtils;
 	private File extractTar(File tarFile) throws IOException {
 		String tarNameWithoutExtension = FileSystemUtils.stripTarExtension(tarFile.getName());
 		File destination = getWorkingDirectory().resolve(tarNameWithoutExtension).toFile();
-		FileSystemUtils.extractTarArchive(tarFile, destination);
+		FileSystemUtils.extractTarArchive(tarFile, destination, TarArchiveConverter::isNeededForConversion);
 		return destination;
 	}
+
+	/**
+	 * Returns false for Tar entries that only contain macOS file system metadata
+	 * (e.g. AppleDouble files created by archiving with {@code tar} on macOS).
+	 * <p>
+	 * Attachments and logs can't be skipped since XCResult bundles store them in
+	 * the same content-addressed data store as the coverage and test results.
+	 */
+	private static boolean isNeededForConversion(String entryName) {
+		String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+		return !fileName.startsWith("._") && !fileName.equals(".DS_Store") && !entryName.startsWith("__MACOSX/");
+	}
 }
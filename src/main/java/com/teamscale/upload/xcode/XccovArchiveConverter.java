@@ -2,12 +2,18 @@ package com.teamscale.upload.xcode;
 
 import static java.util.stream.Collectors.toList;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.util.LinkedList;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ExecutionException;
@@ -17,50 +23,106 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import com.teamscale.upload.autodetect_revision.ProcessUtils;
+import com.teamscale.upload.autodetect_revision.ProcessUtils.ParsedProcessResult;
 import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.utils.ThreadUtils;
 
 /**
  * Converts an {@value ConversionUtils#XCCOV_ARCHIVE_FILE_EXTENSION} file into
- * the {@value ConversionUtils#XCCOV_REPORT_FILE_EXTENSION} format.
+ * the {@value ConversionUtils#XCCOV_REPORT_FILE_EXTENSION} format or, if
+ * {@link #USE_COMPACT_COVERAGE} is enabled, into the
+ * {@value XcodeReportConverter#COMPACT_COVERAGE_REPORT_FORMAT} format.
  */
-/* package */ class XccovArchiveConverter extends ConverterBase<File> {
+/* package */ class XccovArchiveConverter extends ConverterBase<ConvertedReport> {
+
+	/**
+	 * Whether the coverage should be converted into the much smaller
+	 * {@value XcodeReportConverter#COMPACT_COVERAGE_REPORT_FORMAT} format instead
+	 * of uploading the verbose output of xccov. Disabled by default since older
+	 * Teamscale versions don't support this format.
+	 */
+	/* package */ static final boolean USE_COMPACT_COVERAGE = Boolean
+			.getBoolean("com.teamscale.upload.xcode.compact-coverage");
 
 	public XccovArchiveConverter(XcodeVersion xcodeVersion, Path workingDirectory) {
 		super(xcodeVersion, workingDirectory);
 	}
 
 	@Override
-	public File convert(File xccovArchive) throws ConversionException, IOException {
+	public ConvertedReport convert(File xccovArchive) throws ConversionException, IOException {
 		List<String> sourceFiles = getSourceFiles(xccovArchive);
 		long startTime = System.currentTimeMillis();
 
 		LogUtils.info(String.format("Converting XCResult bundle %s containing %d source files.",
 				xccovArchive.getAbsolutePath(), sourceFiles.size()));
-		ProcessUtils.ProcessResult result = ProcessUtils.run("xcrun", "xccov", "view", "--archive",
-				xccovArchive.getAbsolutePath());
+
+		String filename = ConversionUtils.removeSuffix(xccovArchive.getName(),
+				ConversionUtils.XCCOV_ARCHIVE_FILE_EXTENSION);
+		File outputFile = createOutputFile(filename + getReportFileExtension());
+		ParsedProcessResult<Void> result = XcodeToolRunner.runXcrunAndParseOutput(inputStream -> {
+			writeReport(inputStream, outputFile);
+			return null;
+		}, "xccov", "view", "--archive", xccovArchive.getAbsolutePath());
 
 		/*
 		 * With XCode 13.3 and newer the coverage of all source files can be exported
 		 * with the command above which offers the best performance. We try this first
 		 * and if it doesn't work we fall back to the slower legacy mechanism that
-		 * iterates over each source file.
+		 * iterates over each source file. A timeout, however, does not indicate an old
+		 * Xcode version, and the legacy mechanism would take even longer.
 		 */
-		File outputFile;
-		if (result.wasSuccessful()) {
-			String filename = ConversionUtils.removeSuffix(xccovArchive.getName(),
-					ConversionUtils.XCCOV_ARCHIVE_FILE_EXTENSION);
-			outputFile = createOutputFile(filename + ConversionUtils.XCCOV_REPORT_FILE_EXTENSION);
-			Files.writeString(outputFile.toPath(), result.output, StandardOpenOption.WRITE);
-		} else {
+		if (result.timedOut()) {
+			throw ConversionException.withProcessResult(
+					"Exporting the coverage of XCResult archive " + xccovArchive.getAbsolutePath() + " timed out",
+					result);
+		}
+		if (!result.wasSuccessful()) {
 			// Use the legacy mechanism
-			outputFile = new LegacyConverter(getXcodeVersion(), getWorkingDirectory(), sourceFiles)
+			File legacyOutputFile = new LegacyConverter(getXcodeVersion(), getWorkingDirectory(), sourceFiles)
 					.convert(xccovArchive);
+			try (InputStream inputStream = ConversionUtils.newDecompressedInputStream(legacyOutputFile.toPath())) {
+				writeReport(inputStream, outputFile);
+			}
+			// Free the disk space early, the working directory is only deleted at the end
+			Files.delete(legacyOutputFile.toPath());
 		}
 
 		LogUtils.info(String.format("Coverage extraction finished after %d seconds.",
 				(System.currentTimeMillis() - startTime) / 1000));
 
-		return outputFile;
+		return new ConvertedReport(getReportFormat(), outputFile);
+	}
+
+	private static String getReportFormat() {
+		if (USE_COMPACT_COVERAGE) {
+			return XcodeReportConverter.COMPACT_COVERAGE_REPORT_FORMAT;
+		}
+		return XcodeReportConverter.XCODE_REPORT_FORMAT;
+	}
+
+	private static String getReportFileExtension() {
+		if (USE_COMPACT_COVERAGE) {
+			return ConversionUtils.COMPACT_COVERAGE_REPORT_FILE_EXTENSION;
+		}
+		return ConversionUtils.XCCOV_REPORT_FILE_EXTENSION;
+	}
+
+	/**
+	 * Writes the xccov output read from the given stream to the output file,
+	 * converting it into the compact format if {@link #USE_COMPACT_COVERAGE} is
+	 * enabled. Overwrites any previous content of the output file. Does not close
+	 * the stream.
+	 */
+	private static void writeReport(InputStream xccovOutput, File outputFile) throws IOException {
+		if (!USE_COMPACT_COVERAGE) {
+			Files.copy(xccovOutput, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return;
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(xccovOutput, StandardCharsets.UTF_8));
+		try (BufferedWriter writer = Files.newBufferedWriter(outputFile.toPath())) {
+			CompactCoverageConverter.convert(reader, writer);
+		}
 	}
 
 	/**
@@ -68,7 +130,7 @@ import com.teamscale.upload.utils.LogUtils;
 	 * directory.
 	 */
 	private static List<String> getSourceFiles(File reportDirectory) throws ConversionException {
-		ProcessUtils.ProcessResult result = ProcessUtils.run("xcrun", "xccov", "view", "--archive", "--file-list",
+		ProcessUtils.ProcessResult result = XcodeToolRunner.runXcrun("xccov", "view", "--archive", "--file-list",
 				reportDirectory.getAbsolutePath());
 		if (!result.wasSuccessful()) {
 			throw ConversionException.withProcessResult(
@@ -81,15 +143,36 @@ import com.teamscale.upload.utils.LogUtils;
 	/**
 	 * Legacy way of converting
 	 * {@linkplain ConversionUtils#XCCOV_ARCHIVE_FILE_EXTENSION xccov archives}.
+	 * The result is an intermediate xccov report that is
+	 * {@linkplain ConversionUtils#newCompressedWriter(Path) compressed}.
 	 */
 	private static class LegacyConverter extends ConverterBase<File> {
 		/**
-		 * The number of conversion threads to run in parallel for faster conversion. By
-		 * default, we use the number of available processors to distribute work since
-		 * this setting was most performant when testing locally.
+		 * A fixed number of conversion threads to run in parallel or null if the
+		 * number of parallel conversions should be adapted at runtime (see
+		 * {@link AdaptiveConcurrencyLimit}).
+		 */
+		private static final Integer CONVERSION_THREAD_COUNT = Integer
+				.getInteger("com.teamscale.upload.xcode.conversion-thread-count");
+
+		/**
+		 * The maximum number of conversions that run in parallel if no fixed
+		 * {@link #CONVERSION_THREAD_COUNT} is given. The number of available
+		 * processors was most performant when testing locally, but since the
+		 * conversions mostly wait for xccov processes (and thereby the disk), some
+		 * machines benefit from more parallelism.
 		 */
-		private static final int CONVERSION_THREAD_COUNT = Integer.getInteger(
-				"com.teamscale.upload.xcode.conversion-thread-count", Runtime.getRuntime().availableProcessors());
+		private static final int MAX_ADAPTIVE_THREAD_COUNT = 2 * Runtime.getRuntime().availableProcessors();
+
+		private final AdaptiveConcurrencyLimit concurrencyLimit = createConcurrencyLimit();
+
+		/**
+		 * The maximum number of conversion tasks that are submitted but whose results
+		 * have not been written yet. Twice the maximum number of threads keeps all
+		 * threads busy while the results are written in order, but bounds the memory
+		 * needed for buffering results.
+		 */
+		private final int maxInFlightTasks = 2 * concurrencyLimit.getMaxLimit();
 		private ExecutorService executorService;
 
 		/**
@@ -110,56 +193,100 @@ import com.teamscale.upload.utils.LogUtils;
 
 		@Override
 		public File convert(File file) throws ConversionException, IOException {
-			executorService = Executors.newFixedThreadPool(CONVERSION_THREAD_COUNT);
+			// The workers mostly wait for xccov processes, so they can be virtual threads
+			executorService = Executors.newFixedThreadPool(concurrencyLimit.getMaxLimit(),
+					ThreadUtils.createThreadFactory("xccov-conversion-"));
 			return ConversionUtils.runWithTeardown(() -> doConvert(file), this::teardown);
 		}
 
+		private static AdaptiveConcurrencyLimit createConcurrencyLimit() {
+			if (CONVERSION_THREAD_COUNT != null) {
+				return AdaptiveConcurrencyLimit.fixed(Math.max(1, CONVERSION_THREAD_COUNT));
+			}
+			return new AdaptiveConcurrencyLimit(Runtime.getRuntime().availableProcessors(), 1,
+					MAX_ADAPTIVE_THREAD_COUNT);
+		}
+
 		private File doConvert(File xccovArchive) throws ConversionException, IOException {
-			LogUtils.info(String.format("Using legacy conversion with %d threads.", CONVERSION_THREAD_COUNT));
-			Queue<Future<ConversionResult>> conversionResults = submitConversionTasks(xccovArchive, sourceFiles);
+			if (CONVERSION_THREAD_COUNT != null) {
+				LogUtils.info(String.format("Using legacy conversion with %d threads.", concurrencyLimit.getLimit()));
+			} else {
+				LogUtils.info(String.format("Using legacy conversion with %d threads (adapted at runtime up to %d).",
+						concurrencyLimit.getLimit(), concurrencyLimit.getMaxLimit()));
+			}
 
 			String filename = ConversionUtils.removeSuffix(xccovArchive.getName(),
 					ConversionUtils.XCCOV_ARCHIVE_FILE_EXTENSION);
-			File outputFile = createOutputFile(filename + ConversionUtils.XCCOV_REPORT_FILE_EXTENSION);
-			writeResultsToFile(conversionResults, outputFile);
-			waitForExecutorServiceTermination();
-			return outputFile;
-		}
-
-		private Queue<Future<ConversionResult>> submitConversionTasks(File reportDirectory, List<String> sourceFiles) {
-			Queue<Future<ConversionResult>> conversionResults = new LinkedList<>();
-			for (String sourceFile : sourceFiles) {
-				conversionResults.add(this.executorService.submit(new ConversionTask(reportDirectory, sourceFile)));
+			File outputFile = createOutputFile(filename + ConversionUtils.XCCOV_REPORT_FILE_EXTENSION
+					+ ConversionUtils.COMPRESSED_FILE_EXTENSION);
+			try (BufferedWriter writer = ConversionUtils.newCompressedWriter(outputFile.toPath())) {
+				convertAndWriteResults(xccovArchive, writer);
 			}
 			// No further tasks to be queued
 			executorService.shutdown();
-
-			return conversionResults;
+			waitForExecutorServiceTermination();
+			if (CONVERSION_THREAD_COUNT == null) {
+				LogUtils.info(String.format("Legacy conversion finished with %d parallel conversions.",
+						concurrencyLimit.getLimit()));
+			}
+			return outputFile;
 		}
 
 		/**
-		 * Empties the queue to free memory and writes the {@link ConversionResult} to
-		 * the converted report file.
+		 * Submits a {@link ConversionTask} for each source file and writes the
+		 * {@link ConversionResult}s in the order of the {@link #sourceFiles}.
+		 * <p>
+		 * At most {@link #maxInFlightTasks} tasks are submitted at once. A new task
+		 * is only submitted once the oldest result has been taken from the window, so
+		 * the number of results waiting in memory to be written is bounded
+		 * independent of the number of source files.
 		 */
-		private void writeResultsToFile(Queue<Future<ConversionResult>> conversionResults, File outputFile)
+		private void convertAndWriteResults(File reportDirectory, BufferedWriter writer)
 				throws ConversionException, IOException {
-			while (!conversionResults.isEmpty()) {
-				try {
-					ConversionResult conversionResult = conversionResults.remove().get();
+			Iterator<String> remainingSourceFiles = sourceFiles.iterator();
+			Queue<Future<ConversionResult>> inFlightTasks = new ArrayDeque<>(maxInFlightTasks);
+			while (remainingSourceFiles.hasNext() && inFlightTasks.size() < maxInFlightTasks) {
+				inFlightTasks.add(submitConversionTask(reportDirectory, remainingSourceFiles.next()));
+			}
 
-					if (conversionResult == null) {
-						// Can happen when the application is forcefully quit or a timeout occurs
-						continue;
-					}
+			while (!inFlightTasks.isEmpty()) {
+				XcodeToolRunner.checkConversionDeadline();
+				ConversionResult conversionResult = awaitResult(inFlightTasks.remove());
+				if (remainingSourceFiles.hasNext()) {
+					inFlightTasks.add(submitConversionTask(reportDirectory, remainingSourceFiles.next()));
+				}
 
-					String sourceFileHeader = conversionResult.sourceFile + System.lineSeparator();
+				if (conversionResult == null) {
+					// Can happen when the application is forcefully quit or a timeout occurs
+					continue;
+				}
 
-					Files.writeString(outputFile.toPath(), sourceFileHeader, StandardOpenOption.APPEND);
-					Files.writeString(outputFile.toPath(), conversionResult.result, StandardOpenOption.APPEND);
-				} catch (InterruptedException | ExecutionException e) {
-					throw new ConversionException("Exception occurred whilst waiting for conversions tasks to finish",
-							e);
+				writer.write(conversionResult.sourceFile);
+				writer.write(System.lineSeparator());
+				writer.write(conversionResult.result);
+			}
+		}
+
+		private Future<ConversionResult> submitConversionTask(File reportDirectory, String sourceFile) {
+			ConversionTask conversionTask = new ConversionTask(reportDirectory, sourceFile);
+			return executorService.submit(() -> {
+				// The pool has enough threads for the maximum limit, the current limit is
+				// enforced here
+				concurrencyLimit.acquire();
+				long startTime = System.nanoTime();
+				try {
+					return conversionTask.call();
+				} finally {
+					concurrencyLimit.release(System.nanoTime() - startTime);
 				}
+			});
+		}
+
+		private static ConversionResult awaitResult(Future<ConversionResult> future) throws ConversionException {
+			try {
+				return future.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new ConversionException("Exception occurred whilst waiting for conversions tasks to finish", e);
 			}
 		}
 
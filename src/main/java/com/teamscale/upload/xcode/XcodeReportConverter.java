@@ -2,17 +2,17 @@ package com.teamscale.upload.xcode;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.io.FileUtils;
-
-import com.teamscale.upload.autodetect_revision.ProcessUtils;
 import com.teamscale.upload.utils.FileSystemUtils;
 import com.teamscale.upload.utils.LogUtils;
 
@@ -29,30 +29,57 @@ import com.teamscale.upload.utils.LogUtils;
  * {@link XccovArchiveConverter}). The intermediate results will be stored in a
  * temporary working directory that will be deleted after the conversion is done
  * (see {@link #convert(Collection)}). In the end the final results will be
- * copied to the same folder as the report (see
- * {@link #copyResultsFromWorkingDirectory(File, List)}).
+ * moved to the same folder as the report (see
+ * {@link #moveResultsFromWorkingDirectory(File, List, Path)}).
+ * <p>
+ * Besides the coverage, the test results contained in XCResult bundles are
+ * converted into the {@value #TESTWISE_COVERAGE_REPORT_FORMAT} format.
  */
-public class XcodeReportConverter extends ConverterBase<List<File>> {
+public class XcodeReportConverter extends ConverterBase<List<ConvertedReport>> {
 
 	/**
 	 * The enum name of the XCode report format.
 	 */
 	public static final String XCODE_REPORT_FORMAT = "XCODE";
 
+	/**
+	 * The enum name of the compact coverage report format, which is used instead
+	 * of the {@value #XCODE_REPORT_FORMAT} format if
+	 * {@link XccovArchiveConverter#USE_COMPACT_COVERAGE} is enabled.
+	 */
+	public static final String COMPACT_COVERAGE_REPORT_FORMAT = "TEAMSCALE_COMPACT_COVERAGE";
+
+	/**
+	 * The enum name of the testwise coverage report format, which is used to upload
+	 * the test results contained in XCResult bundles.
+	 */
+	public static final String TESTWISE_COVERAGE_REPORT_FORMAT = "TESTWISE_COVERAGE";
+
 	private XcodeReportConverter(XcodeVersion xcodeVersion, Path workingDirectory) {
 		super(xcodeVersion, workingDirectory);
 	}
 
 	/**
-	 * Converts XCResult bundles to a human-readable report format that can be
+	 * Starts determining the installed Xcode toolchain in the background, so that
+	 * it is already known once the conversion starts.
+	 */
+	public static void startToolchainProbing() {
+		XcodeToolchain.startProbing();
+	}
+
+	/**
+	 * Converts XCResult bundles to human-readable report formats that can be
 	 * uploaded to Teamscale.
 	 */
-	public static List<File> convert(Collection<File> xcodeReports) throws ConversionException {
+	public static List<ConvertedReport> convert(Collection<File> xcodeReports) throws ConversionException {
 		try {
 			// Create a temporary directory that may be used by any other converter
 			Path workingDirectory = Files.createTempDirectory("teamscale-upload");
-			return ConversionUtils.runWithTeardown(() -> convert(xcodeReports, workingDirectory),
-					() -> deleteWorkingDirectory(workingDirectory));
+			XcodeToolRunner.startConversionDeadline();
+			return ConversionUtils.runWithTeardown(() -> convert(xcodeReports, workingDirectory), () -> {
+				XcodeToolRunner.clearConversionDeadline();
+				deleteWorkingDirectory(workingDirectory);
+			});
 		} catch (FileAlreadyExistsException e) {
 			throw new ConversionException("Could not write to file because it already exists: " + e.getFile(), e);
 		} catch (IOException e) {
@@ -61,56 +88,94 @@ public class XcodeReportConverter extends ConverterBase<List<File>> {
 	}
 
 	/** @see #convert(Collection) */
-	private static List<File> convert(Collection<File> xcodeReports, Path workingDirectory)
+	private static List<ConvertedReport> convert(Collection<File> xcodeReports, Path workingDirectory)
 			throws ConversionException, IOException {
-		XcodeVersion xcodeVersion = XcodeVersion.determine();
-		List<File> convertedReports = new ArrayList<>();
+		List<ConvertedReport> convertedReports = new ArrayList<>();
+		if (xcodeReports.isEmpty()) {
+			return convertedReports;
+		}
+
+		XcodeToolchain toolchain = XcodeToolchain.get();
+		toolchain.validateCommandLineTools();
+		XcodeVersion xcodeVersion = toolchain.version;
 		for (File xcodeReport : xcodeReports) {
-			List<File> filesContainingConvertedReports = new XcodeReportConverter(xcodeVersion, workingDirectory)
-					.convert(xcodeReport);
-			filesContainingConvertedReports = copyResultsFromWorkingDirectory(xcodeReport,
-					filesContainingConvertedReports);
-			convertedReports.addAll(filesContainingConvertedReports);
+			XcodeToolRunner.checkConversionDeadline();
+			List<ConvertedReport> reportsInWorkingDirectory = new XcodeReportConverter(xcodeVersion,
+					workingDirectory).convert(xcodeReport);
+			convertedReports.addAll(
+					moveResultsFromWorkingDirectory(xcodeReport, reportsInWorkingDirectory, workingDirectory));
 		}
 		return convertedReports;
 	}
 
-	private static List<File> copyResultsFromWorkingDirectory(File xcodeReport, List<File> results) throws IOException {
+	/**
+	 * Moves the results next to the original report. The working directory is
+	 * deleted afterwards anyway, so the results need not be copied. Results
+	 * outside the working directory (i.e., reports that needed no conversion) are
+	 * copied since they belong to the user.
+	 */
+	private static List<ConvertedReport> moveResultsFromWorkingDirectory(File xcodeReport,
+			List<ConvertedReport> results, Path workingDirectory) throws IOException {
 		Path destinationDirectory = xcodeReport.toPath().getParent();
-		if (results.size() == 1) {
-			// Optimize file naming when only one result is present because during the
-			// xcresult conversion,numbers are appended to the original report file name
-			File result = results.get(0);
-			Path resultDestination = destinationDirectory
-					.resolve(xcodeReport.getName() + ConversionUtils.XCCOV_REPORT_FILE_EXTENSION);
-			Files.copy(result.toPath(), resultDestination);
-			return Collections.singletonList(resultDestination.toFile());
+		// Optimize file naming when only one coverage result is present because during
+		// the xcresult conversion, numbers are appended to the original report file name
+		boolean hasSingleCoverageResult = results.stream().filter(XcodeReportConverter::isCoverageResult)
+				.count() == 1;
+
+		List<ConvertedReport> movedResults = new ArrayList<>();
+		for (ConvertedReport result : results) {
+			String destinationFileName = result.report.getName();
+			if (hasSingleCoverageResult && result.reportFormat.equals(XCODE_REPORT_FORMAT)) {
+				destinationFileName = xcodeReport.getName() + ConversionUtils.XCCOV_REPORT_FILE_EXTENSION;
+			} else if (hasSingleCoverageResult && result.reportFormat.equals(COMPACT_COVERAGE_REPORT_FORMAT)) {
+				destinationFileName = xcodeReport.getName() + ConversionUtils.COMPACT_COVERAGE_REPORT_FILE_EXTENSION;
+			}
+			Path resultDestination = destinationDirectory.resolve(destinationFileName);
+			if (result.report.toPath().startsWith(workingDirectory)) {
+				moveFile(result.report.toPath(), resultDestination);
+			} else {
+				Files.copy(result.report.toPath(), resultDestination);
+			}
+			movedResults.add(new ConvertedReport(result.reportFormat, resultDestination.toFile()));
 		}
+		return movedResults;
+	}
 
-		List<File> copiedResults = new ArrayList<>();
-		for (File result : results) {
-			Path resultDestination = destinationDirectory.resolve(result.getName());
-			Files.copy(result.toPath(), resultDestination);
-			copiedResults.add(resultDestination.toFile());
+	/**
+	 * Moves the file atomically if possible. If the working directory is located
+	 * on a different file system than the destination, the file is copied
+	 * instead. An existing destination is never replaced, although an atomic move
+	 * would silently replace it on POSIX systems.
+	 */
+	private static void moveFile(Path source, Path destination) throws IOException {
+		if (Files.exists(destination, LinkOption.NOFOLLOW_LINKS)) {
+			throw new FileAlreadyExistsException(destination.toString());
+		}
+		try {
+			Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			LogUtils.debug("Cannot move " + source + " atomically, copying it instead: " + e.getMessage());
+			Files.move(source, destination);
 		}
-		return copiedResults;
 	}
 
-	@Override
-	public List<File> convert(File xcodeReport) throws ConversionException, IOException {
-		validateCommandLineTools();
+	private static boolean isCoverageResult(ConvertedReport result) {
+		return result.reportFormat.equals(XCODE_REPORT_FORMAT)
+				|| result.reportFormat.equals(COMPACT_COVERAGE_REPORT_FORMAT);
+	}
 
+	@Override
+	public List<ConvertedReport> convert(File xcodeReport) throws ConversionException, IOException {
 		if (ConversionUtils.isXccovArchive(xcodeReport)) {
-			File convertedReport = new XccovArchiveConverter(getXcodeVersion(), getWorkingDirectory())
-					.convert(xcodeReport);
-			return Collections.singletonList(convertedReport);
+			return Collections.singletonList(
+					new XccovArchiveConverter(getXcodeVersion(), getWorkingDirectory()).convert(xcodeReport));
 		} else if (ConversionUtils.isXcresultBundle(xcodeReport)) {
 			return new XcresultConverter(getXcodeVersion(), getWorkingDirectory()).convert(xcodeReport);
 		} else if (FileSystemUtils.isTarFile(xcodeReport)) {
 			return new TarArchiveConverter(getXcodeVersion(), getWorkingDirectory()).convert(xcodeReport);
 		}
 
-		return Collections.singletonList(xcodeReport);
+		return Collections.singletonList(new ConvertedReport(XCODE_REPORT_FORMAT, xcodeReport));
 	}
 
 	/**
@@ -118,18 +183,9 @@ public class XcodeReportConverter extends ConverterBase<List<File>> {
 	 * converter finished the conversion.
 	 */
 	private static void deleteWorkingDirectory(Path workingDirectory) {
-		try {
-			FileUtils.deleteDirectory(workingDirectory.toFile());
-		} catch (IOException e) {
-			LogUtils.warn("Unable to delete temporary working directory " + workingDirectory.toAbsolutePath(), e);
-		}
-	}
-
-	private static void validateCommandLineTools() throws ConversionException {
-		if (!ProcessUtils.run("xcrun", "--version").wasSuccessful()) {
-			throw new ConversionException(
-					"XCode command line tools not installed. Install command line tools on MacOS by installing XCode "
-							+ "from the store and running 'xcode-select --install'.");
+		FileSystemUtils.deleteRecursively(workingDirectory.toFile());
+		if (Files.exists(workingDirectory)) {
+			LogUtils.warn("Unable to delete temporary working directory " + workingDirectory.toAbsolutePath());
 		}
 	}
 }
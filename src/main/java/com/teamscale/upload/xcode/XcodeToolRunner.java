@@ -0,0 +1,143 @@
+package com.teamscale.upload.xcode;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+
+import com.teamscale.upload.autodetect_revision.ProcessUtils;
+import com.teamscale.upload.autodetect_revision.ProcessUtils.OutputParser;
+import com.teamscale.upload.autodetect_revision.ProcessUtils.ParsedProcessResult;
+import com.teamscale.upload.autodetect_revision.ProcessUtils.ProcessResult;
+
+/**
+ * Runs the Xcode command line tools {@code xcrun}, {@code xcodebuild} and
+ * {@code xcode-select}.
+ * <p>
+ * By default, the tools are looked up on the {@code PATH}. The executables can
+ * be replaced via the system properties {@value #XCRUN_PROPERTY},
+ * {@value #XCODEBUILD_PROPERTY} and {@value #XCODE_SELECT_PROPERTY}. This
+ * allows to run the whole conversion pipeline against a scripted stand-in on
+ * machines without Xcode, e.g. to benchmark the conversion on Linux (see
+ * {@code src/test/resources/fake_xcode}).
+ * <p>
+ * Each tool invocation is destroyed after {@link ProcessUtils#DEFAULT_TIMEOUT}
+ * or when the {@linkplain #startConversionDeadline() conversion deadline} has
+ * passed, whichever comes first.
+ */
+/* package */ class XcodeToolRunner {
+
+	/** System property for the path of the {@code xcrun} executable. */
+	/* package */ static final String XCRUN_PROPERTY = "com.teamscale.upload.xcode.xcrun";
+
+	/** System property for the path of the {@code xcodebuild} executable. */
+	/* package */ static final String XCODEBUILD_PROPERTY = "com.teamscale.upload.xcode.xcodebuild";
+
+	/** System property for the path of the {@code xcode-select} executable. */
+	/* package */ static final String XCODE_SELECT_PROPERTY = "com.teamscale.upload.xcode.xcode-select";
+
+	/**
+	 * The maximum duration of the whole conversion of all Xcode reports. Zero
+	 * disables the deadline.
+	 */
+	private static final Duration CONVERSION_TIMEOUT = Duration
+			.ofMinutes(Long.getLong("com.teamscale.upload.xcode.conversion-timeout-minutes", 0));
+
+	/**
+	 * The point in time after which all running tools are destroyed or null if
+	 * there is no deadline.
+	 */
+	private static volatile Instant conversionDeadline;
+
+	/**
+	 * Starts the deadline for the conversion if a
+	 * {@linkplain #CONVERSION_TIMEOUT conversion timeout} is configured.
+	 */
+	/* package */ static void startConversionDeadline() {
+		if (!CONVERSION_TIMEOUT.isZero()) {
+			conversionDeadline = Instant.now().plus(CONVERSION_TIMEOUT);
+		}
+	}
+
+	/** Removes the deadline set by {@link #startConversionDeadline()}. */
+	/* package */ static void clearConversionDeadline() {
+		conversionDeadline = null;
+	}
+
+	/**
+	 * Throws a {@link ConversionException} if the conversion deadline has passed.
+	 */
+	/* package */ static void checkConversionDeadline() throws ConversionException {
+		Instant deadline = conversionDeadline;
+		if (deadline != null && Instant.now().isAfter(deadline)) {
+			throw new ConversionException("Conversion of the Xcode reports did not finish within "
+					+ CONVERSION_TIMEOUT.toMinutes()
+					+ " minutes. The timeout can be changed with the JVM property "
+					+ "com.teamscale.upload.xcode.conversion-timeout-minutes.");
+		}
+	}
+
+	/** Runs {@code xcrun} with the given arguments. */
+	public static ProcessResult runXcrun(String... arguments) {
+		return ProcessUtils.run(getTimeout(), createCommand(XCRUN_PROPERTY, "xcrun", arguments));
+	}
+
+	/**
+	 * Runs {@code xcrun} with the given arguments and passes its stdout to the
+	 * given parser.
+	 *
+	 * @see ProcessUtils#runAndParseOutput(OutputParser, String...)
+	 */
+	public static <T> ParsedProcessResult<T> runXcrunAndParseOutput(OutputParser<T> outputParser,
+			String... arguments) {
+		return ProcessUtils.runAndParseOutput(getTimeout(), outputParser,
+				createCommand(XCRUN_PROPERTY, "xcrun", arguments));
+	}
+
+	/** Runs {@code xcodebuild} with the given arguments. */
+	public static ProcessResult runXcodebuild(String... arguments) {
+		return ProcessUtils.run(getTimeout(), createCommand(XCODEBUILD_PROPERTY, "xcodebuild", arguments));
+	}
+
+	/** Runs {@code xcode-select} with the given arguments. */
+	public static ProcessResult runXcodeSelect(String... arguments) {
+		return ProcessUtils.run(getTimeout(), createCommand(XCODE_SELECT_PROPERTY, "xcode-select", arguments));
+	}
+
+	/**
+	 * Returns the executables that are currently used for {@code xcrun},
+	 * {@code xcodebuild} and {@code xcode-select}.
+	 */
+	/* package */ static String getExecutables() {
+		return String.join(File.pathSeparator, System.getProperty(XCRUN_PROPERTY, "xcrun"),
+				System.getProperty(XCODEBUILD_PROPERTY, "xcodebuild"),
+				System.getProperty(XCODE_SELECT_PROPERTY, "xcode-select"));
+	}
+
+	/**
+	 * Returns the timeout for the next tool invocation, which ends at the latest
+	 * at the conversion deadline.
+	 */
+	private static Duration getTimeout() {
+		Instant deadline = conversionDeadline;
+		if (deadline == null) {
+			return ProcessUtils.DEFAULT_TIMEOUT;
+		}
+
+		Duration remaining = Duration.between(Instant.now(), deadline);
+		if (remaining.isNegative()) {
+			return Duration.ZERO;
+		}
+		if (remaining.compareTo(ProcessUtils.DEFAULT_TIMEOUT) > 0) {
+			return ProcessUtils.DEFAULT_TIMEOUT;
+		}
+		return remaining;
+	}
+
+	private static String[] createCommand(String executableProperty, String defaultExecutable,
+			String... arguments) {
+		String[] command = new String[arguments.length + 1];
+		command[0] = System.getProperty(executableProperty, defaultExecutable);
+		System.arraycopy(arguments, 0, command, 1, arguments.length);
+		return command;
+	}
+}
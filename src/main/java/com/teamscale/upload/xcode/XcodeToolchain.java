@@ -0,0 +1,197 @@
+package com.teamscale.upload.xcode;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import com.teamscale.upload.autodetect_revision.ProcessUtils.ProcessResult;
+import com.teamscale.upload.utils.LogUtils;
+import com.teamscale.upload.utils.ThreadUtils;
+
+/**
+ * The installed Xcode toolchain, i.e. whether the command line tools are
+ * installed and which {@link XcodeVersion} is used.
+ * <p>
+ * Probing the toolchain requires running {@code xcrun} and {@code xcodebuild},
+ * which takes a while. Hence, the toolchain is probed only once per run (see
+ * {@link #get()}), and the probing can be started early (see
+ * {@link #startProbing()}) to run concurrently with other work. If the system
+ * property {@value #CACHE_FILE_PROPERTY} is set, the probed toolchain is
+ * additionally stored in the given file and reused by later runs as long as the
+ * selected Xcode installation ({@code xcode-select -p}) is not modified.
+ */
+/* package */ final class XcodeToolchain {
+
+	/** System property for the file in which the probed toolchain is cached. */
+	/* package */ static final String CACHE_FILE_PROPERTY = "com.teamscale.upload.xcode.toolchain-cache-file";
+
+	private static final String CACHE_KEY = "key";
+
+	private static final String CACHE_MAJOR_VERSION = "major";
+
+	private static final String CACHE_MINOR_VERSION = "minor";
+
+	private static final ExecutorService PROBING_EXECUTOR = ThreadUtils.createTaskExecutor("xcode-toolchain-probe-");
+
+	/**
+	 * The running or completed probing. Since the executables can be replaced at
+	 * runtime (see {@link XcodeToolRunner}), the probing is repeated if they
+	 * changed.
+	 */
+	private static CompletableFuture<XcodeToolchain> probing;
+
+	private static String probedExecutables;
+
+	/** The used Xcode version. */
+	public final XcodeVersion version;
+
+	private final boolean commandLineToolsInstalled;
+
+	private XcodeToolchain(XcodeVersion version, boolean commandLineToolsInstalled) {
+		this.version = version;
+		this.commandLineToolsInstalled = commandLineToolsInstalled;
+	}
+
+	/**
+	 * Starts probing the toolchain in the background if it has not been probed yet.
+	 */
+	/* package */ static synchronized CompletableFuture<XcodeToolchain> startProbing() {
+		String executables = XcodeToolRunner.getExecutables();
+		if (probing == null || !executables.equals(probedExecutables)) {
+			probedExecutables = executables;
+			probing = CompletableFuture.supplyAsync(XcodeToolchain::probe, PROBING_EXECUTOR);
+		}
+		return probing;
+	}
+
+	/** Returns the toolchain, waiting for the probing to finish if necessary. */
+	/* package */ static XcodeToolchain get() {
+		return startProbing().join();
+	}
+
+	/** Forgets the toolchain probed in this run. */
+	/* package */ static synchronized void clearProbedToolchain() {
+		probing = null;
+		probedExecutables = null;
+	}
+
+	/**
+	 * Throws a {@link ConversionException} if the Xcode command line tools are not
+	 * installed.
+	 */
+	/* package */ void validateCommandLineTools() throws ConversionException {
+		if (!commandLineToolsInstalled) {
+			throw new ConversionException(
+					"XCode command line tools not installed. Install command line tools on MacOS by installing XCode "
+							+ "from the store and running 'xcode-select --install'.");
+		}
+	}
+
+	private static XcodeToolchain probe() {
+		String cacheFile = System.getProperty(CACHE_FILE_PROPERTY);
+		if (cacheFile == null) {
+			return probeTools();
+		}
+
+		Path cachePath = Paths.get(cacheFile);
+		String cacheKey = determineCacheKey();
+		if (cacheKey == null) {
+			return probeTools();
+		}
+
+		XcodeToolchain cachedToolchain = readCache(cachePath, cacheKey);
+		if (cachedToolchain != null) {
+			LogUtils.debug("Using cached Xcode toolchain from " + cachePath + ": " + cachedToolchain.version);
+			return cachedToolchain;
+		}
+
+		XcodeToolchain toolchain = probeTools();
+		if (toolchain.commandLineToolsInstalled && !toolchain.version.equals(XcodeVersion.latestVersion())) {
+			// Don't cache failed probings, the installation might be fixed until the next run
+			writeCache(cachePath, cacheKey, toolchain);
+		}
+		return toolchain;
+	}
+
+	/** Runs {@code xcrun} and {@code xcodebuild} concurrently. */
+	private static XcodeToolchain probeTools() {
+		CompletableFuture<Boolean> commandLineToolsInstalled = CompletableFuture
+				.supplyAsync(() -> XcodeToolRunner.runXcrun("--version").wasSuccessful(), PROBING_EXECUTOR);
+		XcodeVersion version = XcodeVersion.determine();
+		return new XcodeToolchain(version, commandLineToolsInstalled.join());
+	}
+
+	/**
+	 * Returns a key that identifies the selected Xcode installation by its path and
+	 * modification time or null if it cannot be determined. Installing another
+	 * Xcode version or updating it changes the key.
+	 */
+	private static String determineCacheKey() {
+		ProcessResult result = XcodeToolRunner.runXcodeSelect("-p");
+		if (!result.wasSuccessful()) {
+			LogUtils.debug("Could not determine the selected Xcode installation: " + result.errorOutput,
+					result.exception);
+			return null;
+		}
+
+		try {
+			Path developerDirectory = Paths.get(result.output.trim());
+			return String.join("|", developerDirectory.toString(),
+					Files.getLastModifiedTime(developerDirectory).toString(), XcodeToolRunner.getExecutables());
+		} catch (IOException | RuntimeException e) {
+			LogUtils.debug("Could not determine the modification time of the selected Xcode installation: "
+					+ e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private static XcodeToolchain readCache(Path cachePath, String cacheKey) {
+		if (!Files.isRegularFile(cachePath)) {
+			return null;
+		}
+
+		Properties cache = new Properties();
+		try (Reader reader = Files.newBufferedReader(cachePath)) {
+			cache.load(reader);
+			if (!cacheKey.equals(cache.getProperty(CACHE_KEY))) {
+				return null;
+			}
+			XcodeVersion version = new XcodeVersion(Integer.parseInt(cache.getProperty(CACHE_MAJOR_VERSION)),
+					Integer.parseInt(cache.getProperty(CACHE_MINOR_VERSION)));
+			return new XcodeToolchain(version, true);
+		} catch (IOException | RuntimeException e) {
+			LogUtils.debug("Ignoring unreadable Xcode toolchain cache " + cachePath + ": " + e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the cache to a temporary file first, so that concurrent runs never
+	 * read a partially written cache.
+	 */
+	private static void writeCache(Path cachePath, String cacheKey, XcodeToolchain toolchain) {
+		Properties cache = new Properties();
+		cache.setProperty(CACHE_KEY, cacheKey);
+		cache.setProperty(CACHE_MAJOR_VERSION, String.valueOf(toolchain.version.major));
+		cache.setProperty(CACHE_MINOR_VERSION, String.valueOf(toolchain.version.minor));
+		try {
+			Path parent = cachePath.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			Path temporaryFile = Files.createTempFile(parent, cachePath.getFileName().toString(), ".tmp");
+			try (Writer writer = Files.newBufferedWriter(temporaryFile)) {
+				cache.store(writer, "Xcode toolchain cache of teamscale-upload");
+			}
+			Files.move(temporaryFile, cachePath, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LogUtils.warn("Could not write Xcode toolchain cache " + cachePath + ": " + e.getMessage());
+		}
+	}
+}
@@ -37,7 +37,7 @@ public final class XcodeVersion {
 
 	/** Determines the version installed on this machine. */
 	public static XcodeVersion determine() {
-		ProcessUtils.ProcessResult result = ProcessUtils.run("xcodebuild", "-version");
+		ProcessUtils.ProcessResult result = XcodeToolRunner.runXcodebuild("-version");
 		if (!result.wasSuccessful()) {
 			LogUtils.warn("Could not determine installed Xcode version. Assuming latest Xcode version is installed.");
 			LogUtils.debug("Error whilst running 'xcodebuild -version' command: " + result.errorOutput,
@@ -64,7 +64,7 @@ public final class XcodeVersion {
 	 * Instead of determining the version via the web, {@link #major} and
 	 * {@link #minor} will be simply set to {@link Integer#MAX_VALUE}.
 	 */
-	private static XcodeVersion latestVersion() {
+	/* package */ static XcodeVersion latestVersion() {
 		return new XcodeVersion(Integer.MAX_VALUE, Integer.MAX_VALUE);
 	}
 
@@ -2,42 +2,48 @@ package com.teamscale.upload.xcode;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import com.google.gson.Gson;
-import com.teamscale.upload.autodetect_revision.ProcessUtils;
+import com.teamscale.upload.autodetect_revision.ProcessUtils.ParsedProcessResult;
 import com.teamscale.upload.autodetect_revision.ProcessUtils.ProcessResult;
+import com.teamscale.upload.report.testwise_coverage.TestwiseCoverageReportWriter;
 import com.teamscale.upload.report.xcode.ActionRecord;
+import com.teamscale.upload.report.xcode.ActionTestSummariesReader;
 import com.teamscale.upload.report.xcode.ActionsInvocationRecord;
+import com.teamscale.upload.report.xcode.ActionsInvocationRecordReader;
 import com.teamscale.upload.utils.LogUtils;
 
 /**
  * Converts an {@value ConversionUtils#XCRESULT_FILE_EXTENSION} file into the
- * {@value ConversionUtils#XCCOV_REPORT_FILE_EXTENSION} format.
+ * {@value ConversionUtils#XCCOV_REPORT_FILE_EXTENSION} format. The test results
+ * contained in the bundle are converted into the
+ * {@value XcodeReportConverter#TESTWISE_COVERAGE_REPORT_FORMAT} format.
  */
-/* package */ class XcresultConverter extends ConverterBase<List<File>> {
+/* package */ class XcresultConverter extends ConverterBase<List<ConvertedReport>> {
 
 	public XcresultConverter(XcodeVersion xcodeVersion, Path workingDirectory) {
 		super(xcodeVersion, workingDirectory);
 	}
 
 	@Override
-	public List<File> convert(File xcresult) throws ConversionException, IOException {
+	public List<ConvertedReport> convert(File xcresult) throws ConversionException, IOException {
 		ActionsInvocationRecord actionsInvocationRecord = readActionsInvocationRecord(xcresult);
+		List<ConvertedReport> convertedReports = new ArrayList<>(
+				convertTestResults(xcresult, actionsInvocationRecord));
+
 		if (!actionsInvocationRecord.hasCoverageData()) {
 			LogUtils.warn("XCResult bundle doesn't contain any coverage data: " + xcresult);
-			return Collections.emptyList();
+			return convertedReports;
 		}
 
 		List<File> xccovArchives = convertToXccovArchives(xcresult, actionsInvocationRecord);
-		List<File> convertedReports = new ArrayList<>();
 		for (File xccovArchive : xccovArchives) {
-			File convertedReport = new XccovArchiveConverter(getXcodeVersion(), getWorkingDirectory())
-					.convert(xccovArchive);
-			convertedReports.add(convertedReport);
+			convertedReports
+					.add(new XccovArchiveConverter(getXcodeVersion(), getWorkingDirectory()).convert(xccovArchive));
 		}
 		return convertedReports;
 	}
@@ -53,16 +59,8 @@ import com.teamscale.upload.utils.LogUtils;
 					|| action.actionResult.coverage.archiveRef.id == null) {
 				continue;
 			}
-			StringBuilder fileName = new StringBuilder();
-			fileName.append(xcresult.getName()).append(".").append(i);
-			String testPlanName = action.testPlanName;
-			if (testPlanName != null) {
-				// Test plan name seems to not always be part of the data, hence, only add
-				// append it to the name if present
-				fileName.append(".").append(testPlanName);
-			}
-			fileName.append(ConversionUtils.XCCOV_ARCHIVE_FILE_EXTENSION);
-			Path xccovArchive = getOutputFilePath(fileName.toString());
+			Path xccovArchive = getOutputFilePath(
+					getOutputFileName(xcresult, i, action, ConversionUtils.XCCOV_ARCHIVE_FILE_EXTENSION));
 
 			String archiveRef = action.actionResult.coverage.archiveRef.id;
 			runConversionCommand(xcresult.toPath(), archiveRef, xccovArchive);
@@ -72,24 +70,87 @@ import com.teamscale.upload.utils.LogUtils;
 		return xccovArchives;
 	}
 
+	/**
+	 * Converts the test results of all actions into
+	 * {@value XcodeReportConverter#TESTWISE_COVERAGE_REPORT_FORMAT} reports.
+	 * Actions without tests don't produce a report.
+	 */
+	private List<ConvertedReport> convertTestResults(File xcresult, ActionsInvocationRecord actionsInvocationRecord)
+			throws IOException {
+		List<ConvertedReport> testwiseCoverageReports = new ArrayList<>();
+
+		for (int i = 0; i < actionsInvocationRecord.actions.length; i++) {
+			ActionRecord action = actionsInvocationRecord.actions[i];
+			if (action == null || action.actionResult == null || action.actionResult.testsRef == null
+					|| action.actionResult.testsRef.id == null) {
+				continue;
+			}
+			File report = createOutputFile(
+					getOutputFileName(xcresult, i, action, ConversionUtils.TESTWISE_COVERAGE_REPORT_FILE_EXTENSION));
+
+			if (exportTestResults(xcresult, action.actionResult.testsRef.id, report)) {
+				testwiseCoverageReports.add(
+						new ConvertedReport(XcodeReportConverter.TESTWISE_COVERAGE_REPORT_FORMAT, report));
+			} else {
+				Files.delete(report.toPath());
+			}
+		}
+
+		return testwiseCoverageReports;
+	}
+
+	/**
+	 * Returns the name of an output file for the action with the given index in
+	 * the given XCResult bundle.
+	 */
+	private static String getOutputFileName(File xcresult, int actionIndex, ActionRecord action, String extension) {
+		StringBuilder fileName = new StringBuilder();
+		fileName.append(xcresult.getName()).append(".").append(actionIndex);
+		String testPlanName = action.testPlanName;
+		if (testPlanName != null) {
+			// Test plan name seems to not always be part of the data, hence, only add
+			// append it to the name if present
+			fileName.append(".").append(testPlanName);
+		}
+		fileName.append(extension);
+		return fileName.toString();
+	}
+
+	/**
+	 * Exports the tests referenced by the given testsRef and writes them to the
+	 * report file. Returns true if at least one test was written.
+	 * <p>
+	 * Test results are an addition to the coverage, hence errors are only logged
+	 * and do not abort the conversion.
+	 */
+	private boolean exportTestResults(File xcresult, String testsRef, File report) throws IOException {
+		String[] arguments = createXcresulttoolArguments("get", "--path", xcresult.getAbsolutePath(), "--format",
+				"json", "--id", testsRef);
+
+		ParsedProcessResult<Integer> result;
+		try (TestwiseCoverageReportWriter writer = new TestwiseCoverageReportWriter(report)) {
+			result = XcodeToolRunner.runXcrunAndParseOutput(
+					inputStream -> ActionTestSummariesReader.read(inputStream, writer), arguments);
+		}
+		if (!result.wasSuccessful()) {
+			LogUtils.warn("Error while exporting test results from XCResult bundle " + xcresult.getAbsolutePath()
+					+ ": " + result.errorOutput);
+			return false;
+		}
+		return result.parsedOutput > 0;
+	}
+
 	/**
 	 * Runs the command that converts the xcresult and stores the output in the file
 	 * at the given path.
 	 */
 	private void runConversionCommand(Path xcresultPath, String archiveRef, Path destinationPath)
 			throws ConversionException {
-		List<String> command = new ArrayList<>();
-		Collections.addAll(command, "xcrun", "xcresulttool", "export", "--type", "directory", "--path",
+		String[] arguments = createXcresulttoolArguments("export", "--type", "directory", "--path",
 				xcresultPath.toAbsolutePath().toString(), "--id", archiveRef, "--output-path",
 				destinationPath.toAbsolutePath().toString());
-		if (getXcodeVersion().major >= 16) {
-			// Starting with Xcode 16 this command is marked as deprecated and will fail if
-			// ran without the legacy flag
-			// see TS-40724 for more information
-			command.add("--legacy");
-		}
 
-		ProcessResult result = ProcessUtils.run(command.toArray(new String[0]));
+		ProcessResult result = XcodeToolRunner.runXcrun(arguments);
 		if (!result.wasSuccessful()) {
 			throw ConversionException.withProcessResult(
 					"Could not convert report to " + ConversionUtils.XCCOV_ARCHIVE_FILE_EXTENSION, result);
@@ -97,23 +158,33 @@ import com.teamscale.upload.utils.LogUtils;
 	}
 
 	private ActionsInvocationRecord readActionsInvocationRecord(File reportDirectory) throws ConversionException {
-		List<String> command = new ArrayList<>();
-		Collections.addAll(command, "xcrun", "xcresulttool", "get", "--path", reportDirectory.getAbsolutePath(),
+		String[] arguments = createXcresulttoolArguments("get", "--path", reportDirectory.getAbsolutePath(),
 				"--format", "json");
-		if (getXcodeVersion().major >= 16) {
-			// Starting with Xcode 16 this command is marked as deprecated and will fail if
-			// ran without the legacy flag
-			// see TS-40724 for more information
-			command.add("--legacy");
-		}
 
-		ProcessResult result = ProcessUtils.run(command.toArray(new String[0]));
+		ParsedProcessResult<ActionsInvocationRecord> result = XcodeToolRunner
+				.runXcrunAndParseOutput(ActionsInvocationRecordReader::read, arguments);
 		if (!result.wasSuccessful()) {
 			throw ConversionException
 					.withProcessResult("Error while obtaining ActionInvocationsRecord from XCResult archive "
 							+ reportDirectory.getAbsolutePath(), result);
 		}
-		String actionsInvocationRecordJson = result.output;
-		return new Gson().fromJson(actionsInvocationRecordJson, ActionsInvocationRecord.class);
+		return result.parsedOutput;
+	}
+
+	/**
+	 * Returns the xcrun arguments for running the xcresulttool with the given
+	 * arguments.
+	 */
+	private String[] createXcresulttoolArguments(String... arguments) {
+		List<String> command = new ArrayList<>();
+		command.add("xcresulttool");
+		Collections.addAll(command, arguments);
+		if (getXcodeVersion().major >= 16) {
+			// Starting with Xcode 16 this command is marked as deprecated and will fail if
+			// ran without the legacy flag
+			// see TS-40724 for more information
+			command.add("--legacy");
+		}
+		return command.toArray(new String[0]);
 	}
 }
@@ -0,0 +1,95 @@
+package com.teamscale.upload;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+import com.teamscale.upload.utils.JobExitException;
+import com.teamscale.upload.utils.LogUtils;
+
+/** Tests for {@link CommandLine} */
+class CommandLineTest {
+
+	@Test
+	void makesPathsAbsoluteForOtherWorkingDirectories() {
+		CommandLine commandLine = CommandLine.parseArguments(new String[] { "-s", "http://localhost:8080", "-p",
+				"project", "-u", "user", "-t", "partition", "--trusted-keystore", "keystore.jks;secret", "--input",
+				"input.txt", "--spool-dir", "spool" }, accessKeyViaOption -> "access-key");
+
+		CommandLine reparsed = CommandLine.parseArguments(commandLine.getArgumentsWithAbsolutePaths(),
+				accessKeyViaOption -> "access-key");
+
+		assertThat(reparsed.getKeyStorePath()).isEqualTo(Paths.get("keystore.jks").toAbsolutePath().toString());
+		assertThat(reparsed.getKeyStorePassword()).isEqualTo("secret");
+		assertThat(reparsed.inputFile).isEqualTo(Paths.get("input.txt").toAbsolutePath());
+		assertThat(reparsed.spoolDirectory).isEqualTo(Paths.get("spool").toAbsolutePath());
+	}
+
+	@Test
+	void parsesDaemonAfterOtherOptions() {
+		CommandLine commandLine = CommandLine.parseArguments(
+				new String[] { "--debug", "--insecure", "--daemon", "daemon.sock" },
+				accessKeyViaOption -> null);
+
+		assertThat(commandLine.daemonListenSocket).isEqualTo(Paths.get("daemon.sock"));
+		assertThat(commandLine.debugLogEnabled).isTrue();
+		assertThat(commandLine.validateSsl).isFalse();
+		assertThat(commandLine.url).isNull();
+	}
+
+	@Test
+	void parsesFlushSpoolWithAccessKey() {
+		CommandLine commandLine = CommandLine.parseArguments(
+				new String[] { "--stacktrace", "--flush-spool", "spool", "--accesskey", "key" },
+				accessKeyViaOption -> accessKeyViaOption);
+
+		assertThat(commandLine.flushSpoolDirectory).isEqualTo(Paths.get("spool"));
+		assertThat(commandLine.printStackTrace).isTrue();
+		assertThat(commandLine.accessKey).isEqualTo("key");
+	}
+
+	@Test
+	void rejectsUploadOptionsForDaemon() {
+		LogUtils.throwOnExit();
+		try {
+			assertThatThrownBy(() -> CommandLine.parseArguments(
+					new String[] { "--daemon", "daemon.sock", "-s", "http://localhost:8080" },
+					accessKeyViaOption -> null)).isInstanceOf(JobExitException.class);
+			assertThatThrownBy(() -> CommandLine.parseArguments(
+					new String[] { "-p", "project", "-t", "partition", "--format", "simple", "report.simple" },
+					accessKeyViaOption -> "access-key")).isInstanceOf(JobExitException.class);
+		} finally {
+			LogUtils.terminateOnExit();
+		}
+	}
+
+	@Test
+	void appliesTlsDefaultsToCommandLinesWithoutTlsOptions() {
+		CommandLine daemon = CommandLine.parseArguments(
+				new String[] { "--daemon", "daemon.sock", "--trusted-keystore", "keystore.jks;secret" },
+				accessKeyViaOption -> null);
+		String[] job = { "-s", "http://localhost:8080", "-p", "project", "-u", "user", "-t", "partition",
+				"--format", "simple", "report.simple" };
+
+		CommandLine withDefaults = CommandLine.parseArguments(job, accessKeyViaOption -> "access-key")
+				.withTlsDefaults(daemon);
+		assertThat(withDefaults.getKeyStorePath()).isEqualTo("keystore.jks");
+		assertThat(withDefaults.getKeyStorePassword()).isEqualTo("secret");
+		assertThat(withDefaults.accessKey).isEqualTo("access-key");
+
+		CommandLine insecureJob = CommandLine.parseArguments(withInsecure(job), accessKeyViaOption -> "access-key")
+				.withTlsDefaults(daemon);
+		assertThat(insecureJob.validateSsl).isFalse();
+		assertThat(insecureJob.getKeyStorePath()).isNull();
+	}
+
+	private static String[] withInsecure(String[] arguments) {
+		String[] result = new String[arguments.length + 1];
+		result[0] = "--insecure";
+		System.arraycopy(arguments, 0, result, 1, arguments.length);
+		return result;
+	}
+}
@@ -23,6 +23,7 @@ import com.teamscale.upload.autodetect_revision.ProcessUtils;
 import com.teamscale.upload.test_utils.ProxyMockServer;
 import com.teamscale.upload.test_utils.TeamscaleMockServer;
 import com.teamscale.upload.utils.SecretUtils;
+import com.teamscale.upload.xcode.ConversionUtils;
 
 /**
  * Integration Tests. Subclasses execute the distribution in different
@@ -412,7 +413,13 @@ public abstract class IntegrationTestBase {
 
 			assertThat(result.exitCode).describedAs("Stderr and stdout: " + result.getOutputAndErrorOutput()).isZero();
 			assertThat(server.sessions).hasSize(1);
-			assertThat(server.uploadedReportsByName).hasSize(1);
+			// Besides the coverage, the test results contained in the bundle are uploaded
+			assertThat(server.uploadedReportsByName.keySet())
+					.filteredOn(name -> name.endsWith(ConversionUtils.XCCOV_REPORT_FILE_EXTENSION)).hasSize(1);
+			assertThat(server.uploadedReportsByName.keySet())
+					.filteredOn(name -> name.endsWith(ConversionUtils.TESTWISE_COVERAGE_REPORT_FILE_EXTENSION))
+					.isNotEmpty().allSatisfy(name -> assertThat(server.uploadedReportsByName.get(name))
+							.asString(StandardCharsets.UTF_8).contains("\"tests\""));
 			assertThat(actualConvertedContent).isEqualTo(expectedConvertedContent);
 			assertThatOSCertificatesWereImported(result);
 		}
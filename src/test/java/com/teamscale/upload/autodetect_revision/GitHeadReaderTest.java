@@ -0,0 +1,96 @@
+package com.teamscale.upload.autodetect_revision;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for {@link GitHeadReader} */
+class GitHeadReaderTest {
+
+	private static final String COMMIT = "0123456789abcdef0123456789abcdef01234567";
+
+	private static final String OTHER_COMMIT = "89abcdef0123456789abcdef0123456789abcdef";
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void readsLooseRefFromParentDirectory() throws IOException {
+		Path gitDirectory = createGitDirectory(tempDir.resolve("repo"), "ref: refs/heads/main");
+		write(gitDirectory.resolve("refs/heads/main"), COMMIT);
+		Path subDirectory = Files.createDirectories(tempDir.resolve("repo/src/main"));
+
+		assertThat(GitHeadReader.findGitDirectory(subDirectory)).isEqualTo(gitDirectory);
+		assertThat(GitHeadReader.readHead(gitDirectory)).isEqualTo(COMMIT);
+	}
+
+	@Test
+	void readsPackedRef() throws IOException {
+		Path gitDirectory = createGitDirectory(tempDir.resolve("repo"), "ref: refs/heads/main");
+		write(gitDirectory.resolve("packed-refs"), String.join("\n", //
+				"# pack-refs with: peeled fully-peeled sorted", //
+				OTHER_COMMIT + " refs/heads/feature", //
+				COMMIT + " refs/heads/main", //
+				"^" + OTHER_COMMIT));
+
+		assertThat(GitHeadReader.readHead(gitDirectory)).isEqualTo(COMMIT);
+	}
+
+	@Test
+	void readsDetachedHead() throws IOException {
+		Path gitDirectory = createGitDirectory(tempDir.resolve("repo"), COMMIT);
+
+		assertThat(GitHeadReader.readHead(gitDirectory)).isEqualTo(COMMIT);
+	}
+
+	@Test
+	void followsGitFileOfWorktree() throws IOException {
+		Path mainGitDirectory = createGitDirectory(tempDir.resolve("repo"), "ref: refs/heads/main");
+		write(mainGitDirectory.resolve("refs/heads/main"), OTHER_COMMIT);
+		write(mainGitDirectory.resolve("refs/heads/feature"), COMMIT);
+		Path worktreeGitDirectory = mainGitDirectory.resolve("worktrees/feature");
+		write(worktreeGitDirectory.resolve("HEAD"), "ref: refs/heads/feature");
+		write(worktreeGitDirectory.resolve("commondir"), "../..");
+		write(tempDir.resolve("feature/.git"), "gitdir: ../repo/.git/worktrees/feature");
+
+		Path gitDirectory = GitHeadReader.findGitDirectory(tempDir.resolve("feature"));
+
+		assertThat(gitDirectory).isEqualTo(worktreeGitDirectory);
+		assertThat(GitHeadReader.readHead(gitDirectory)).isEqualTo(COMMIT);
+	}
+
+	@Test
+	void cannotDecideForBrokenGitFile() throws IOException {
+		write(tempDir.resolve("submodule/.git"), "gitdir: ../repo/.git/modules/submodule");
+
+		assertThatThrownBy(() -> GitHeadReader.findGitDirectory(tempDir.resolve("submodule")))
+				.isInstanceOf(IOException.class);
+	}
+
+	@Test
+	void returnsNullForUnsupportedLayouts() throws IOException {
+		Path unbornBranch = createGitDirectory(tempDir.resolve("unborn"), "ref: refs/heads/main");
+		assertThat(GitHeadReader.readHead(unbornBranch)).isNull();
+
+		Path reftable = createGitDirectory(tempDir.resolve("reftable"), "ref: refs/heads/.invalid");
+		Files.createDirectories(reftable.resolve("reftable"));
+		assertThat(GitHeadReader.readHead(reftable)).isNull();
+	}
+
+	private static Path createGitDirectory(Path repository, String head) throws IOException {
+		Path gitDirectory = repository.resolve(".git");
+		write(gitDirectory.resolve("HEAD"), head);
+		return gitDirectory;
+	}
+
+	private static void write(Path file, String content) throws IOException {
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content + "\n");
+	}
+}
@@ -0,0 +1,44 @@
+package com.teamscale.upload.autodetect_revision;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/** Tests for {@link ProcessUtils} */
+@DisabledOnOs(OS.WINDOWS)
+class ProcessUtilsTest {
+
+	@Test
+	void destroysProcessTreeAfterTimeout() {
+		long startTime = System.nanoTime();
+		// The child process keeps the output pipe open and must be destroyed as well
+		ProcessUtils.ProcessResult result = ProcessUtils.run(Duration.ofMillis(500), "sh", "-c", "sleep 60 & wait");
+
+		assertThat(Duration.ofNanos(System.nanoTime() - startTime)).isLessThan(Duration.ofSeconds(10));
+		assertThat(result.wasSuccessful()).isFalse();
+		assertThat(result.exception).isInstanceOf(TimeoutException.class);
+		assertThat(result.timedOut()).isTrue();
+	}
+
+	@Test
+	void distinguishesFailureFromTimeout() {
+		ProcessUtils.ProcessResult result = ProcessUtils.run(Duration.ofMinutes(1), "sh", "-c", "exit 3");
+
+		assertThat(result.wasSuccessful()).isFalse();
+		assertThat(result.timedOut()).isFalse();
+		assertThat(result.exitCode).isEqualTo(3);
+	}
+
+	@Test
+	void returnsOutputWithinTimeout() {
+		ProcessUtils.ProcessResult result = ProcessUtils.run(Duration.ofMinutes(1), "sh", "-c", "echo foo");
+
+		assertThat(result.wasSuccessful()).isTrue();
+		assertThat(result.output).isEqualTo("foo\n");
+	}
+}
@@ -0,0 +1,43 @@
+package com.teamscale.upload.backfill;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for {@link BackfillManifest} */
+class BackfillManifestTest {
+
+	@Test
+	void groupsLinesBySession() {
+		BackfillManifest manifest = BackfillManifest.parse(List.of("# revision;partition;format;patterns", "",
+				"abc123;Unit Tests;jacoco;unit/abc123/*.xml", "master:1597845930000;;simple;a.simple;b.simple",
+				"abc123;Unit Tests;junit;junit/abc123/*.xml", "abc123;UI Tests;jacoco;ui/abc123/*.xml"));
+
+		assertThat(manifest.sessions).hasSize(3);
+
+		BackfillManifest.Session unitTests = manifest.sessions.get(0);
+		assertThat(unitTests.revision).isEqualTo("abc123");
+		assertThat(unitTests.partition).isEqualTo("Unit Tests");
+		assertThat(unitTests.formatToFilePatterns).containsOnlyKeys("JACOCO", "JUNIT");
+		assertThat(unitTests.formatToFilePatterns.get("JUNIT")).containsExactly("junit/abc123/*.xml");
+
+		BackfillManifest.Session branchAndTimestamp = manifest.sessions.get(1);
+		assertThat(branchAndTimestamp.revision).isEqualTo("master:1597845930000");
+		assertThat(branchAndTimestamp.partition).isNull();
+		assertThat(branchAndTimestamp.formatToFilePatterns.get("SIMPLE")).isEqualTo(Set.of("a.simple", "b.simple"));
+
+		assertThat(manifest.sessions.get(2).partition).isEqualTo("UI Tests");
+	}
+
+	@Test
+	void sessionKeysDistinguishPartitions() {
+		BackfillManifest manifest = BackfillManifest
+				.parse(List.of("abc123;;simple;a.simple", "abc123;Unit Tests;simple;b.simple"));
+
+		assertThat(manifest.sessions.get(0).getKey()).isEqualTo("abc123;");
+		assertThat(manifest.sessions.get(1).getKey()).isEqualTo("abc123;Unit Tests");
+	}
+}
@@ -0,0 +1,73 @@
+package com.teamscale.upload.backfill;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.test_utils.TeamscaleMockServer;
+
+/** Tests for {@link Backfill} against a {@link TeamscaleMockServer}. */
+class BackfillTest {
+
+	private static final int MOCK_TEAMSCALE_PORT = 24401;
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void continuesAfterFailedSessionAndRerunsOnlyFailedSessions() throws IOException {
+		Path manifest = writeManifest("abc123", "def456", "ghi789");
+
+		// The session of abc123 fails, since it is uploaded first
+		try (TeamscaleMockServer server = new TeamscaleMockServer(MOCK_TEAMSCALE_PORT, false, 0, 1)) {
+			assertThat(Backfill.run(parseArguments(manifest), 1, 0)).isEqualTo(1);
+			assertThat(server.sessions).extracting(session -> session.revisionOrTimestamp)
+					.containsExactly("def456", "ghi789");
+			assertThat(manifest.resolveSibling("manifest.txt.progress")).hasContent("def456;\nghi789;");
+
+			assertThat(Backfill.run(parseArguments(manifest), 1, 0)).isZero();
+			assertThat(server.sessions).extracting(session -> session.revisionOrTimestamp)
+					.containsExactly("def456", "ghi789", "abc123");
+
+			assertThat(Backfill.run(parseArguments(manifest), 1, 0)).isZero();
+			assertThat(server.sessions).hasSize(3);
+		}
+	}
+
+	@Test
+	void limitsSessionsPerMinute() throws IOException {
+		Path manifest = writeManifest("abc123", "def456", "ghi789");
+
+		try (TeamscaleMockServer server = new TeamscaleMockServer(MOCK_TEAMSCALE_PORT)) {
+			long startNanos = System.nanoTime();
+			// One session per second, so the third session starts two seconds after the first
+			assertThat(Backfill.run(parseArguments(manifest), 3, 60)).isZero();
+			assertThat(System.nanoTime() - startNanos).isGreaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(2));
+			assertThat(server.sessions).hasSize(3);
+		}
+	}
+
+	/** Writes a manifest with one session with its own report per revision. */
+	private Path writeManifest(String... revisions) throws IOException {
+		StringBuilder manifest = new StringBuilder();
+		for (String revision : revisions) {
+			Path report = Files.writeString(tempDir.resolve(revision + ".simple"), revision);
+			manifest.append(revision).append(";;simple;").append(report.toAbsolutePath()).append('\n');
+		}
+		return Files.writeString(tempDir.resolve("manifest.txt"), manifest);
+	}
+
+	private static CommandLine parseArguments(Path manifest) {
+		return CommandLine.parseArguments(new String[] { "-s", "http://localhost:" + MOCK_TEAMSCALE_PORT, "-u",
+				"user", "-p", "project", "-t", "partition", "--max-attempts", "1", "--backfill",
+				manifest.toString() }, accessKeyViaOption -> "access-key");
+	}
+}
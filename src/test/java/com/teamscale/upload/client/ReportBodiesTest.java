@@ -0,0 +1,79 @@
+package com.teamscale.upload.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+/** Tests for {@link ReportBodies} */
+class ReportBodiesTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void readsSharedReportsOnce() throws IOException {
+		File report = Files.writeString(tempDir.resolve("coverage.simple"), "first").toFile();
+		ReportBodies reportBodies = new ReportBodies(true);
+
+		RequestBody firstBody = reportBodies.create(report);
+		Files.writeString(report.toPath(), "second");
+		RequestBody secondBody = reportBodies.create(report);
+
+		assertThat(read(firstBody)).isEqualTo("first");
+		assertThat(read(secondBody)).isEqualTo("first");
+	}
+
+	@Test
+	void readsReportsForEachRequestIfNotShared() throws IOException {
+		File report = Files.writeString(tempDir.resolve("coverage.simple"), "first").toFile();
+		ReportBodies reportBodies = new ReportBodies(false);
+
+		reportBodies.create(report);
+		Files.writeString(report.toPath(), "second");
+
+		assertThat(read(reportBodies.create(report))).isEqualTo("second");
+	}
+
+	@Test
+	void packsReportsIntoZipWithUniqueNames() throws IOException {
+		Set<File> reports = new LinkedHashSet<>();
+		for (String directory : new String[] { "unit", "ui" }) {
+			Files.createDirectories(tempDir.resolve(directory));
+			reports.add(Files.writeString(tempDir.resolve(directory).resolve("TEST-a.xml"), directory).toFile());
+		}
+
+		Buffer buffer = new Buffer();
+		new ReportBodies(false).createPacked(reports).writeTo(buffer);
+
+		Map<String, String> entries = new LinkedHashMap<>();
+		try (ZipInputStream zip = new ZipInputStream(buffer.inputStream())) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		}
+		assertThat(entries).containsExactly(Map.entry("TEST-a.xml", "unit"), Map.entry("0/TEST-a.xml", "ui"));
+	}
+
+	private static String read(RequestBody body) throws IOException {
+		Buffer buffer = new Buffer();
+		body.writeTo(buffer);
+		return buffer.readUtf8();
+	}
+}
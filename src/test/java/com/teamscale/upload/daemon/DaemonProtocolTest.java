@@ -0,0 +1,80 @@
+package com.teamscale.upload.daemon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.teamscale.upload.resolve.ReportPartition;
+
+/** Tests for {@link DaemonProtocol} */
+class DaemonProtocolTest {
+
+	@Test
+	void transfersJob() throws IOException {
+		File report = new File("coverage.simple");
+		List<ReportPartition> partitions = List.of(new ReportPartition("UI Tests", "message", null,
+				Map.of("SIMPLE", Set.of(report))));
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+		DaemonProtocol.writeJob(request,
+				UploadJob.create(new String[] { "--format", "simple" }, "access-key", "abc123", partitions));
+		UploadJob job = DaemonProtocol.readJob(new ByteArrayInputStream(request.toByteArray()));
+
+		assertThat(job.arguments).containsExactly("--format", "simple");
+		assertThat(job.accessKey).isEqualTo("access-key");
+		assertThat(job.detectedCommit).isEqualTo("abc123");
+		List<ReportPartition> transferredPartitions = job.toReportPartitions();
+		assertThat(transferredPartitions).hasSize(1);
+		assertThat(transferredPartitions.get(0).partition).isEqualTo("UI Tests");
+		assertThat(transferredPartitions.get(0).message).isEqualTo("message");
+		assertThat(transferredPartitions.get(0).pathPrefix).isNull();
+		assertThat(transferredPartitions.get(0).filesByFormat.get("SIMPLE"))
+				.containsExactly(report.getAbsoluteFile());
+	}
+
+	@Test
+	void forwardsOutputAndExitCode() throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		DaemonProtocol.FrameWriter frameWriter = new DaemonProtocol.FrameWriter(response);
+		PrintStream out = new PrintStream(frameWriter.createOutputStream(DaemonProtocol.STDOUT_FRAME), true,
+				StandardCharsets.UTF_8);
+		PrintStream err = new PrintStream(frameWriter.createOutputStream(DaemonProtocol.STDERR_FRAME), true,
+				StandardCharsets.UTF_8);
+		out.println("INFO: uploading");
+		err.println("ERROR: failed");
+		out.println("INFO: done");
+		frameWriter.writeExitCode(3);
+
+		ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		int exitCode = DaemonProtocol.readResponse(new ByteArrayInputStream(response.toByteArray()), stdout,
+				stderr);
+
+		assertThat(exitCode).isEqualTo(3);
+		assertThat(stdout.toString(StandardCharsets.UTF_8))
+				.isEqualToNormalizingNewlines("INFO: uploading\nINFO: done\n");
+		assertThat(stderr.toString(StandardCharsets.UTF_8)).isEqualToNormalizingNewlines("ERROR: failed\n");
+	}
+
+	@Test
+	void failsIfResponseEndsWithoutExitCode() throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		new DaemonProtocol.FrameWriter(response).createOutputStream(DaemonProtocol.STDOUT_FRAME)
+				.write("partial".getBytes(StandardCharsets.UTF_8));
+
+		assertThatThrownBy(() -> DaemonProtocol.readResponse(new ByteArrayInputStream(response.toByteArray()),
+				new ByteArrayOutputStream(), new ByteArrayOutputStream())).isInstanceOf(EOFException.class);
+	}
+}
@@ -0,0 +1,137 @@
+package com.teamscale.upload.daemon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.resolve.ReportPartition;
+import com.teamscale.upload.test_utils.TeamscaleMockServer;
+
+/**
+ * Tests for {@link UploadDaemon} and {@link UploadDaemonClient} over a Unix
+ * domain socket against a {@link TeamscaleMockServer}.
+ */
+class UploadDaemonTest {
+
+	private static final int MOCK_TEAMSCALE_PORT = 24400;
+
+	/** How long the tests wait for uploads and the daemon. */
+	private static final long TIMEOUT_SECONDS = 30;
+
+	@TempDir
+	private Path tempDir;
+
+	private Path socket;
+
+	private TeamscaleMockServer server;
+
+	private UploadDaemon daemon;
+
+	private CompletableFuture<Void> daemonRun;
+
+	@BeforeEach
+	void startServer() {
+		socket = tempDir.resolve("daemon.sock");
+		server = new TeamscaleMockServer(MOCK_TEAMSCALE_PORT);
+	}
+
+	@AfterEach
+	void stopDaemonAndServer() throws Exception {
+		if (daemon != null) {
+			daemon.stop();
+			daemonRun.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		server.close();
+	}
+
+	@Test
+	void performsConcurrentJobsWithTheirOwnCommits() throws Exception {
+		startDaemon(2);
+		Path firstReport = Files.writeString(tempDir.resolve("first.simple"), "first");
+		Path secondReport = Files.writeString(tempDir.resolve("second.simple"), "second");
+
+		CompletableFuture<Integer> firstUpload = CompletableFuture
+				.supplyAsync(() -> submit(firstReport, "abc123", TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS)));
+		CompletableFuture<Integer> secondUpload = CompletableFuture
+				.supplyAsync(() -> submit(secondReport, "def456", TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS)));
+
+		assertThat(firstUpload.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isZero();
+		assertThat(secondUpload.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isZero();
+		assertThat(server.sessions).extracting(session -> session.revisionOrTimestamp)
+				.containsExactlyInAnyOrder("abc123", "def456");
+		assertThat(server.uploadedReportsByName.keySet()).containsExactlyInAnyOrder("first.simple",
+				"second.simple");
+		assertThat(server.closedSessionCount).hasValue(2);
+	}
+
+	@Test
+	void returnsExitCodeOfFailedJob() throws Exception {
+		startDaemon(1);
+		server.rejectReports(400);
+		Path report = Files.writeString(tempDir.resolve("report.simple"), "report");
+
+		assertThat(submit(report, "abc123", TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS))).isEqualTo(1);
+		assertThat(server.sessions).hasSize(1);
+		assertThat(server.closedSessionCount).hasValue(0);
+	}
+
+	@Test
+	void fallsBackIfDaemonDoesNotStartJobInTime() throws Exception {
+		// The daemon accepts the job but never starts it
+		startDaemon(0);
+		Path report = Files.writeString(tempDir.resolve("report.simple"), "report");
+
+		assertThat(submit(report, "abc123", 500)).isNull();
+		assertThat(server.sessions).isEmpty();
+	}
+
+	@Test
+	void fallsBackIfDaemonIsNotRunning() throws IOException {
+		Path report = Files.writeString(tempDir.resolve("report.simple"), "report");
+
+		assertThat(submit(report, "abc123", 500)).isNull();
+	}
+
+	private void startDaemon(int maxConcurrentJobs) throws InterruptedException {
+		CommandLine commandLine = CommandLine.parseArguments(new String[] { "--daemon", socket.toString() },
+				accessKeyViaOption -> null);
+		daemon = new UploadDaemon(commandLine, maxConcurrentJobs);
+		daemonRun = CompletableFuture.runAsync(() -> {
+			try {
+				daemon.run();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (!Files.exists(socket) && System.nanoTime() < deadline) {
+			Thread.sleep(50);
+		}
+		assertThat(socket).exists();
+	}
+
+	private Integer submit(Path report, String commit, long startTimeoutMillis) {
+		CommandLine commandLine = CommandLine.parseArguments(new String[] { "-s",
+				"http://localhost:" + MOCK_TEAMSCALE_PORT, "-u", "user", "-p", "project", "-t", "partition",
+				"--commit", commit, "--daemon-socket", socket.toString(), "--format", "SIMPLE", report.toString() },
+				accessKeyViaOption -> "access-key");
+		List<ReportPartition> partitions = List
+				.of(new ReportPartition(null, null, null, Map.of("SIMPLE", Set.of(report.toFile()))));
+		return UploadDaemonClient.submit(commandLine, partitions, startTimeoutMillis);
+	}
+}
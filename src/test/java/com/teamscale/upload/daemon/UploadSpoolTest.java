@@ -0,0 +1,72 @@
+package com.teamscale.upload.daemon;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.Gson;
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.resolve.ReportPartition;
+
+/** Tests for {@link UploadSpool} */
+class UploadSpoolTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void storesCopyOfReportsWithSessionCoordinates() throws IOException {
+		File report = Files.writeString(tempDir.resolve("coverage.simple"), "report").toFile();
+		UploadSpool spool = new UploadSpool(tempDir.resolve("spool"));
+
+		Path entry = spool.store(parseArguments(report), new ReportPartition("UI Tests", "message", null,
+				Map.of("SIMPLE", Set.of(report))), "def456");
+
+		UploadJob job = new Gson().fromJson(Files.readString(entry.resolve("upload.json")), UploadJob.class);
+		assertThat(job.accessKey).isNull();
+		assertThat(job.detectedCommit).isEqualTo("def456");
+		assertThat(job.getArgumentsWithDetectedCommit()).endsWith("--commit", "def456");
+		List<ReportPartition> partitions = job.toReportPartitions();
+		assertThat(partitions).hasSize(1);
+		assertThat(partitions.get(0).partition).isEqualTo("UI Tests");
+		assertThat(partitions.get(0).message).isEqualTo("message");
+		File spooledReport = partitions.get(0).filesByFormat.get("SIMPLE").iterator().next();
+		assertThat(spooledReport.toPath()).startsWith(entry).hasFileName("coverage.simple").hasContent("report");
+	}
+
+	@Test
+	void keepsFailedUploadsWhenFlushing() throws IOException {
+		File report = Files.writeString(tempDir.resolve("coverage.simple"), "report").toFile();
+		UploadSpool spool = new UploadSpool(tempDir.resolve("spool"));
+		Path entry = spool.store(parseArguments(report), new ReportPartition(null, "message", null,
+				Map.of("SIMPLE", Set.of(report))), null);
+
+		assertThat(spool.flush()).isEqualTo(1);
+		assertThat(entry.resolve("upload.json")).exists();
+	}
+
+	@Test
+	void flushesEmptySpool() throws IOException {
+		assertThat(new UploadSpool(tempDir.resolve("missing")).flush()).isZero();
+		try (Stream<Path> files = Files.list(tempDir)) {
+			assertThat(files).isEmpty();
+		}
+	}
+
+	/** Port 1 is reserved, so nothing listens there and uploads fail. */
+	private static CommandLine parseArguments(File report) {
+		return CommandLine.parseArguments(new String[] { "--server", "http://localhost:1", "--project", "project",
+				"--user", "user", "--accesskey", "key", "--partition", "Unit Tests", "--commit", "abc123",
+				"--max-attempts", "1", "--format", "simple", report.getAbsolutePath() });
+	}
+}
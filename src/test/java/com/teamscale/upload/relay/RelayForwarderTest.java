@@ -0,0 +1,144 @@
+package com.teamscale.upload.relay;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.client.TeamscaleClient;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+
+/** Tests for {@link RelayForwarder} against a stubbed Teamscale. */
+class RelayForwarderTest {
+
+	@TempDir
+	private Path tempDir;
+
+	private HttpServer teamscale;
+
+	/** The method and path of the requests received by the stubbed Teamscale. */
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+
+	private final AtomicInteger sessionCounter = new AtomicInteger();
+
+	/** The status with which the stubbed Teamscale answers reports with the content "bad". */
+	private volatile int badReportStatus = 400;
+
+	@BeforeEach
+	void startTeamscale() throws IOException {
+		teamscale = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		teamscale.createContext("/", this::handleUpstreamRequest);
+		teamscale.start();
+	}
+
+	@AfterEach
+	void stopTeamscale() {
+		teamscale.stop(0);
+	}
+
+	private void handleUpstreamRequest(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		requests.add(exchange.getRequestMethod() + " " + path);
+		String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+		if (path.endsWith("/external-analysis/session") && exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 200, "session" + sessionCounter.incrementAndGet());
+		} else if (path.endsWith("/report") && body.equals("bad")) {
+			respond(exchange, badReportStatus, "Unknown report format");
+		} else {
+			respond(exchange, 200, "");
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(statusCode, bytes.length == 0 ? -1 : bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	@Test
+	void forwardsRejectedBatchOneByOne() throws IOException {
+		RelayedSession good = createSession("good", "good");
+		RelayedSession bad = createSession("bad", "bad");
+
+		createForwarder(teamscale.getAddress().getPort()).forward(List.of(good, bad));
+
+		assertThat(good.forwarded).isCompleted().isNotCompletedExceptionally();
+		ExecutionException exception = catchThrowableOfType(bad.forwarded::get, ExecutionException.class);
+		assertThat(exception).hasCauseInstanceOf(RelayForwarder.UpstreamErrorException.class);
+		assertThat(((RelayForwarder.UpstreamErrorException) exception.getCause()).statusCode).isEqualTo(400);
+		// The failed batch session and the failed single session are cancelled
+		assertThat(requests).contains("DELETE /api/v8.2/projects/project/external-analysis/session/session1",
+				"DELETE /api/v8.2/projects/project/external-analysis/session/session3");
+		assertThat(requests).filteredOn(request -> request.startsWith("DELETE")).hasSize(2);
+	}
+
+	@Test
+	void failsAllSessionsOfBatchOnServerError() throws IOException {
+		badReportStatus = 503;
+		RelayedSession good = createSession("good", "good");
+		RelayedSession bad = createSession("bad", "bad");
+
+		createForwarder(teamscale.getAddress().getPort()).forward(List.of(good, bad));
+
+		for (RelayedSession session : List.of(good, bad)) {
+			assertThatThrownBy(session.forwarded::get).hasCauseInstanceOf(RelayForwarder.UpstreamErrorException.class);
+		}
+		assertThat(sessionCounter).hasValue(1);
+		assertThat(requests).contains("DELETE /api/v8.2/projects/project/external-analysis/session/session1");
+	}
+
+	@Test
+	void failsSessionsIfTeamscaleIsUnreachable() throws IOException {
+		int unusedPort;
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			unusedPort = socket.getLocalPort();
+		}
+		RelayedSession session = createSession("good", "good");
+
+		createForwarder(unusedPort).forward(List.of(session));
+
+		assertThatThrownBy(session.forwarded::get).hasCauseInstanceOf(IOException.class);
+		assertThat(requests).isEmpty();
+	}
+
+	private RelayForwarder createForwarder(int port) {
+		CommandLine commandLine = CommandLine.parseArguments(
+				new String[] { "-s", "http://localhost:" + port, "-u", "user", "--relay", "1234" },
+				accessKeyViaOption -> "access-key");
+		return new RelayForwarder(TeamscaleClient.createClient(commandLine), commandLine);
+	}
+
+	private RelayedSession createSession(String name, String reportContent) throws IOException {
+		HttpUrl url = HttpUrl.get("http://relay/api/v8.2/projects/project/external-analysis/session")
+				.newBuilder().addQueryParameter("partition", "Tests").addQueryParameter("message", name).build();
+		RelayedSession session = new RelayedSession("v8.2", "project", url, tempDir.resolve(name));
+		Path body = session.createReportFile();
+		Files.writeString(body, reportContent);
+		session.addReport(new RelayedSession.Report("format=JUNIT", MediaType.get("text/plain"), body));
+		return session;
+	}
+}
@@ -0,0 +1,43 @@
+package com.teamscale.upload.relay;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import okhttp3.HttpUrl;
+
+/** Tests for {@link RelayedSession} */
+class RelayedSessionTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void batchesSessionsRegardlessOfMessage() {
+		RelayedSession first = createSession("project", "partition=Unit+Tests&revision=abc123&message=first");
+		RelayedSession second = createSession("project", "message=second&revision=abc123&partition=Unit+Tests");
+
+		assertThat(first.batchKey).isEqualTo(second.batchKey);
+		assertThat(first.openSessionQuery).isEqualTo("partition=Unit+Tests&revision=abc123&message=first");
+	}
+
+	@Test
+	void separatesPartitionsRevisionsAndProjects() {
+		RelayedSession session = createSession("project", "partition=Unit+Tests&revision=abc123");
+
+		assertThat(createSession("project", "partition=UI+Tests&revision=abc123").batchKey)
+				.isNotEqualTo(session.batchKey);
+		assertThat(createSession("project", "partition=Unit+Tests&revision=def456").batchKey)
+				.isNotEqualTo(session.batchKey);
+		assertThat(createSession("other", "partition=Unit+Tests&revision=abc123").batchKey)
+				.isNotEqualTo(session.batchKey);
+	}
+
+	private RelayedSession createSession(String project, String query) {
+		HttpUrl url = HttpUrl.get("http://relay/api/v8.2/projects/" + project + "/external-analysis/session?" + query);
+		return new RelayedSession("v8.2", project, url, tempDir.resolve("session"));
+	}
+}
@@ -0,0 +1,53 @@
+package com.teamscale.upload.report.xcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.teamscale.upload.report.testwise_coverage.TestwiseCoverageReportWriter;
+
+/** Tests for {@link ActionTestSummariesReader} */
+class ActionTestSummariesReaderTest {
+
+	private static final String SUMMARIES_JSON = "{\"_type\": {\"_name\": \"ActionTestPlanRunSummaries\"}," //
+			+ "\"summaries\": {\"_values\": [{\"testableSummaries\": {\"_values\": [{\"tests\": {\"_values\": [" //
+			+ "{\"identifier\": {\"_value\": \"All tests\"}, \"duration\": {\"_value\": \"1.5\"}," //
+			+ "\"subtests\": {\"_values\": [" //
+			+ "{\"identifier\": {\"_value\": \"Tests/testA()\"}, \"duration\": {\"_value\": \"0.25\"}," //
+			+ "\"testStatus\": {\"_value\": \"Success\"}, \"activitySummaries\": {\"_values\": []}}," //
+			+ "{\"identifier\": {\"_value\": \"Tests/testB()\"}, \"duration\": {\"_value\": \"0.5\"}," //
+			+ "\"testStatus\": {\"_value\": \"Failure\"}}" //
+			+ "]}}]}}]}}]}}";
+
+	@Test
+	void writesLeafTestsToReport(@TempDir Path tempDir) throws IOException {
+		File reportFile = tempDir.resolve("report.testwise.json").toFile();
+
+		int testCount;
+		try (TestwiseCoverageReportWriter writer = new TestwiseCoverageReportWriter(reportFile)) {
+			testCount = ActionTestSummariesReader
+					.read(new ByteArrayInputStream(SUMMARIES_JSON.getBytes(StandardCharsets.UTF_8)), writer);
+		}
+
+		assertThat(testCount).isEqualTo(2);
+		JsonObject report = JsonParser.parseString(Files.readString(reportFile.toPath())).getAsJsonObject();
+		assertThat(report.get("version").getAsInt()).isEqualTo(2);
+		JsonArray tests = report.getAsJsonArray("tests");
+		assertThat(tests).hasSize(2);
+		assertThat(tests.get(0).getAsJsonObject().get("uniformPath").getAsString()).isEqualTo("Tests/testA()");
+		assertThat(tests.get(0).getAsJsonObject().get("result").getAsString()).isEqualTo("PASSED");
+		assertThat(tests.get(1).getAsJsonObject().get("duration").getAsDouble()).isEqualTo(0.5);
+		assertThat(tests.get(1).getAsJsonObject().get("result").getAsString()).isEqualTo("FAILURE");
+	}
+}
@@ -0,0 +1,66 @@
+package com.teamscale.upload.report.xcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for {@link ActionsInvocationRecordReader} */
+class ActionsInvocationRecordReaderTest {
+
+	private static final String RECORD_JSON = "{" //
+			+ "\"_type\": {\"_name\": \"ActionsInvocationRecord\"}," //
+			+ "\"issues\": {\"_type\": {\"_name\": \"ResultIssueSummaries\"}, \"testFailureSummaries\": {"
+			+ "\"_values\": [{\"message\": {\"_value\": \"huge log\"}}]}}," //
+			+ "\"actions\": {\"_type\": {\"_name\": \"Array\"}, \"_values\": [" //
+			+ "{\"_type\": {\"_name\": \"ActionRecord\"}," //
+			+ "\"actionResult\": {\"coverage\": {" //
+			+ "\"archiveRef\": {\"id\": {\"_type\": {\"_name\": \"String\"}, \"_value\": \"0~abc\"}}," //
+			+ "\"hasCoverageData\": {\"_type\": {\"_name\": \"Bool\"}, \"_value\": \"true\"}}," //
+			+ "\"logRef\": {\"id\": {\"_value\": \"0~log\"}}," //
+			+ "\"testsRef\": {\"id\": {\"_value\": \"0~tests\"}}}," //
+			+ "\"testPlanName\": {\"_value\": \"UnitTests\"}}," //
+			+ "{\"actionResult\": {}}" //
+			+ "]}}";
+
+	@Test
+	void readsOnlyRelevantFields() throws IOException {
+		ActionsInvocationRecord record = ActionsInvocationRecordReader.read(fromString(RECORD_JSON));
+
+		assertThat(record.actions).hasSize(2);
+		assertThat(record.hasCoverageData()).isTrue();
+
+		ActionRecord action = record.actions[0];
+		assertThat(action.testPlanName).isEqualTo("UnitTests");
+		assertThat(action.actionResult.coverage.hasCoverageData).isTrue();
+		assertThat(action.actionResult.coverage.archiveRef.id).isEqualTo("0~abc");
+		assertThat(action.actionResult.testsRef.id).isEqualTo("0~tests");
+
+		assertThat(record.actions[1].testPlanName).isNull();
+		assertThat(record.actions[1].actionResult.coverage).isNull();
+		assertThat(record.actions[1].actionResult.testsRef).isNull();
+	}
+
+	@Test
+	void recordWithoutActions() throws IOException {
+		ActionsInvocationRecord record = ActionsInvocationRecordReader.read(fromString("{\"metrics\": {}}"));
+
+		assertThat(record.actions).isEmpty();
+		assertThat(record.hasCoverageData()).isFalse();
+	}
+
+	@Test
+	void unexpectedStructureIsReportedAsIOException() {
+		assertThatThrownBy(() -> ActionsInvocationRecordReader.read(fromString("{\"actions\": [1, 2]}")))
+				.isInstanceOf(IOException.class);
+	}
+
+	private static InputStream fromString(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
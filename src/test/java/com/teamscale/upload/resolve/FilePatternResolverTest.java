@@ -0,0 +1,104 @@
+package com.teamscale.upload.resolve;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for {@link FilePatternResolver} */
+class FilePatternResolverTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void matchesFilesThatDoNotExistYet() throws Exception {
+		Path reports = tempDir.resolve("reports");
+		FilePatternMatcher matcher = new FilePatternResolver().createMatcher("files",
+				reports.toString().replace('\\', '/') + "/**/*.xml");
+
+		assertThat(matcher.getBasePath()).isEqualTo(reports);
+		assertThat(matcher.matches(reports.resolve("unit/junit.xml"))).isTrue();
+		assertThat(matcher.matches(reports.resolve("unit/junit.txt"))).isFalse();
+		assertThat(matcher.matches(tempDir.resolve("other/junit.xml"))).isFalse();
+	}
+
+	@Test
+	void matchesSingleFile() throws Exception {
+		Path report = tempDir.resolve("coverage.simple");
+		FilePatternMatcher matcher = new FilePatternResolver().createMatcher("files", report.toString());
+
+		assertThat(matcher.getBasePath()).isEqualTo(tempDir);
+		assertThat(matcher.matches(report)).isTrue();
+		assertThat(matcher.matches(tempDir.resolve("other.simple"))).isFalse();
+	}
+
+	@Test
+	void resolvesEntriesOfZipArchives() throws Exception {
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(tempDir.resolve("reports.zip")))) {
+			for (String name : new String[] { "unit/TEST-a.xml", "unit/other.txt", "ui/TEST-b.xml" }) {
+				zip.putNextEntry(new ZipEntry(name));
+				zip.write(name.getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+
+		List<File> entries = new FilePatternResolver().resolveToMultipleFiles("files",
+				"reports.zip!/**/TEST-*.xml", tempDir.toFile());
+
+		assertThat(entries).extracting(File::getName).containsExactly("TEST-a.xml", "TEST-b.xml");
+		assertThat(readEntries(entries)).containsExactly("unit/TEST-a.xml", "ui/TEST-b.xml");
+	}
+
+	@Test
+	void resolvesEntriesOfTarArchives() throws Exception {
+		for (String archive : new String[] { "first.tar.gz", "second.tar.gz" }) {
+			try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+					new GzipCompressorOutputStream(Files.newOutputStream(tempDir.resolve(archive))))) {
+				for (String name : new String[] { "TEST-a.xml", "TEST-b.xml" }) {
+					byte[] content = (archive + "/" + name).getBytes(StandardCharsets.UTF_8);
+					TarArchiveEntry entry = new TarArchiveEntry(name);
+					entry.setSize(content.length);
+					tar.putArchiveEntry(entry);
+					tar.write(content);
+					tar.closeArchiveEntry();
+				}
+			}
+		}
+
+		List<File> entries = new FilePatternResolver().resolveToMultipleFiles("files", "*.tar.gz!/TEST-*.xml",
+				tempDir.toFile());
+
+		assertThat(readEntries(entries)).containsExactly("first.tar.gz/TEST-a.xml", "first.tar.gz/TEST-b.xml",
+				"second.tar.gz/TEST-a.xml", "second.tar.gz/TEST-b.xml");
+		// Entries can also be read out of order
+		assertThat(readEntries(List.of(entries.get(1), entries.get(0)))).containsExactly("first.tar.gz/TEST-b.xml",
+				"first.tar.gz/TEST-a.xml");
+	}
+
+	private static List<String> readEntries(List<File> entries) throws IOException {
+		List<String> contents = new ArrayList<>();
+		for (File entry : entries) {
+			assertThat(entry).isInstanceOf(ArchiveEntryFile.class);
+			contents.add(new String(((ArchiveEntryFile) entry).readAllBytes(), StandardCharsets.UTF_8));
+		}
+		ArchiveEntryFile.closeArchives(
+				List.of(new ReportPartition(null, null, null, Map.of("JUNIT", Set.copyOf(entries)))));
+		return contents;
+	}
+}
@@ -0,0 +1,100 @@
+package com.teamscale.upload.resolve;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for {@link ReportPatternUtils} */
+class ReportPatternUtilsTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void resolvesPartitionSections() throws Exception {
+		File unitReport = createReport("unit.simple");
+		File uiReport = createReport("ui.simple");
+		File findingsReport = createReport("findings.xml");
+		File commandLineReport = createReport("command-line.simple");
+		Path inputFile = tempDir.resolve("input");
+		Files.writeString(inputFile, String.join("\n", //
+				"[simple]", //
+				pattern(unitReport), //
+				"", //
+				"[partition: UI Tests]", //
+				"[message: UI test coverage]", //
+				"[path-prefix: ui/]", //
+				"[simple]", //
+				pattern(uiReport), //
+				"[findbugs]", //
+				pattern(findingsReport)));
+
+		List<ReportPartition> partitions = ReportPatternUtils.resolveInputFilePatterns(inputFile,
+				Collections.singletonList(pattern(commandLineReport)), "SIMPLE");
+
+		assertThat(partitions).hasSize(2);
+		ReportPartition commandLinePartition = partitions.get(0);
+		assertThat(commandLinePartition.getPartition("Unit Tests")).isEqualTo("Unit Tests");
+		assertThat(commandLinePartition.getMessage(null)).isNull();
+		assertThat(commandLinePartition.filesByFormat.keySet()).containsExactly("SIMPLE");
+		assertThat(commandLinePartition.filesByFormat.get("SIMPLE")).containsExactlyInAnyOrder(unitReport,
+				commandLineReport);
+
+		ReportPartition uiPartition = partitions.get(1);
+		assertThat(uiPartition.getPartition("Unit Tests")).isEqualTo("UI Tests");
+		assertThat(uiPartition.getMessage("message from command line")).isEqualTo("UI test coverage");
+		assertThat(uiPartition.getPathPrefix(null)).isEqualTo("ui/");
+		assertThat(uiPartition.filesByFormat.get("SIMPLE")).containsExactly(uiReport);
+		assertThat(uiPartition.filesByFormat.get("FINDBUGS")).containsExactly(findingsReport);
+	}
+
+	@Test
+	void omitsCommandLinePartitionWithoutFiles() throws Exception {
+		File report = createReport("ui.simple");
+		Path inputFile = tempDir.resolve("input");
+		Files.writeString(inputFile, String.join("\n", //
+				"[partition: UI Tests]", //
+				"[simple]", //
+				pattern(report)));
+
+		List<ReportPartition> partitions = ReportPatternUtils.resolveInputFilePatterns(inputFile,
+				Collections.emptyList(), null);
+
+		assertThat(partitions).extracting(partition -> partition.partition).containsExactly("UI Tests");
+	}
+
+	@Test
+	void passesFormatsOfAllPartitionsBeforeResolving() throws Exception {
+		File report = createReport("unit.simple");
+		File xcodeReport = createReport("ui.xcresult");
+		Path inputFile = tempDir.resolve("input");
+		Files.writeString(inputFile, String.join("\n", //
+				"[partition: UI Tests]", //
+				"[xcode]", //
+				pattern(xcodeReport)));
+		Set<String> formats = new HashSet<>();
+
+		ReportPatternUtils.resolveInputFilePatterns(inputFile, Collections.singletonList(pattern(report)), "SIMPLE",
+				formats::addAll);
+
+		assertThat(formats).containsExactlyInAnyOrder("SIMPLE", "XCODE");
+	}
+
+	private File createReport(String name) throws IOException {
+		return Files.writeString(tempDir.resolve(name), "report").toFile();
+	}
+
+	private static String pattern(File report) {
+		return report.getAbsolutePath().replace('\\', '/');
+	}
+}
@@ -13,10 +13,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
@@ -59,11 +59,23 @@ public class TeamscaleMockServer implements AutoCloseable {
 	/**
 	 * All {@link Session}s opened on this Teamscale instance.
 	 */
-	public final List<Session> sessions = new ArrayList<>();
+	public final List<Session> sessions = new CopyOnWriteArrayList<>();
 	/**
 	 * The raw report by the filename of the uploaded report.
 	 */
-	public final Map<String, byte[]> uploadedReportsByName = new HashMap<>();
+	public final Map<String, byte[]> uploadedReportsByName = new ConcurrentHashMap<>();
+	/**
+	 * The number of report requests, i.e. of batches uploaded into sessions.
+	 */
+	public final AtomicInteger reportRequestCount = new AtomicInteger(0);
+	/**
+	 * The number of sessions that were closed.
+	 */
+	public final AtomicInteger closedSessionCount = new AtomicInteger(0);
+	/**
+	 * The number of sessions that were cancelled, i.e. deleted.
+	 */
+	public final AtomicInteger cancelledSessionCount = new AtomicInteger(0);
 
 	private final Service spark;
 
@@ -81,6 +93,12 @@ public class TeamscaleMockServer implements AutoCloseable {
 
 	private final AtomicInteger sessionRequestCounter = new AtomicInteger(0);
 
+	/**
+	 * The HTTP status with which report requests are rejected or 0 if they are
+	 * accepted.
+	 */
+	private volatile int reportRejectionStatus = 0;
+
 	public TeamscaleMockServer(int port) {
 		this(port, false);
 	}
@@ -108,7 +126,8 @@ public class TeamscaleMockServer implements AutoCloseable {
 		}
 		spark.port(port);
 		spark.post("/api/v8.2/projects/:projectName/external-analysis/session", this::openSession);
-		spark.post("/api/v8.2/projects/:projectName/external-analysis/session/:session", this::noOpHandler);
+		spark.post("/api/v8.2/projects/:projectName/external-analysis/session/:session", this::closeSession);
+		spark.delete("/api/v8.2/projects/:projectName/external-analysis/session/:session", this::cancelSession);
 		spark.post("/api/v8.2/projects/:projectName/external-analysis/session/:session/report",
 				this::receiveReportHandler);
 		spark.exception(Exception.class, (Exception exception, Request request, Response response) -> {
@@ -144,19 +163,41 @@ public class TeamscaleMockServer implements AutoCloseable {
 		return "fake-session-id";
 	}
 
+	/**
+	 * Rejects all further report requests with the given HTTP status, e.g. to
+	 * simulate a failing upload.
+	 */
+	public void rejectReports(int statusCode) {
+		reportRejectionStatus = statusCode;
+	}
+
 	private String receiveReportHandler(Request request, Response response) throws ServletException, IOException {
+		if (reportRejectionStatus != 0) {
+			response.status(reportRejectionStatus);
+			return "Simulated rejection of the report";
+		}
 		request.attribute("org.eclipse.jetty.multipartConfig", new MultipartConfigElement(""));
 
-		Part report = request.raw().getPart("report");
-
-		try (InputStream is = report.getInputStream()) {
-			uploadedReportsByName.put(report.getSubmittedFileName(), is.readAllBytes());
+		for (Part report : request.raw().getParts()) {
+			if (!report.getName().equals("report")) {
+				continue;
+			}
+			try (InputStream is = report.getInputStream()) {
+				uploadedReportsByName.put(report.getSubmittedFileName(), is.readAllBytes());
+			}
 		}
+		reportRequestCount.incrementAndGet();
 
 		return "Report uploaded";
 	}
 
-	private String noOpHandler(Request request, Response response) {
+	private String closeSession(Request request, Response response) {
+		closedSessionCount.incrementAndGet();
+		return "";
+	}
+
+	private String cancelSession(Request request, Response response) {
+		cancelledSessionCount.incrementAndGet();
 		return "";
 	}
 
@@ -1,11 +1,25 @@
 package com.teamscale.upload.utils;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
@@ -30,4 +44,122 @@ class FileSystemUtilsTest {
 		assertThrowsExactly(IOException.class,
 				() -> FileSystemUtils.ensureFileIsBelowDirectory(filePath.toFile(), directoryPath.toFile()));
 	}
-}
\ No newline at end of file
+
+	@Test
+	void testExtractTarArchive(@TempDir Path tempDir) throws IOException {
+		byte[] largeContent = new byte[10 * 1024 * 1024];
+		Arrays.fill(largeContent, (byte) 'x');
+		Path tarArchive = tempDir.resolve("archive.tar.gz");
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+				new GzipCompressorOutputStream(Files.newOutputStream(tarArchive)))) {
+			addTarEntry(tar, "bundle/small.txt", "small".getBytes(StandardCharsets.UTF_8));
+			addTarEntry(tar, "bundle/nested/large.bin", largeContent);
+			addTarEntry(tar, "bundle/._small.txt", new byte[] { 1 });
+		}
+
+		Path destination = tempDir.resolve("extracted");
+		FileSystemUtils.extractTarArchive(tarArchive.toFile(), destination.toFile(),
+				entryName -> !entryName.contains("/._"));
+
+		assertThat(destination.resolve("bundle/small.txt")).hasContent("small");
+		assertThat(Files.readAllBytes(destination.resolve("bundle/nested/large.bin"))).isEqualTo(largeContent);
+		assertThat(destination.resolve("bundle/._small.txt")).doesNotExist();
+	}
+
+	@Test
+	void testExtractTarArchiveWithDuplicateEntries(@TempDir Path tempDir) throws IOException {
+		byte[] largeContent = new byte[10 * 1024 * 1024];
+		Arrays.fill(largeContent, (byte) 'x');
+		Path tarArchive = tempDir.resolve("archive.tar");
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(Files.newOutputStream(tarArchive))) {
+			for (int i = 0; i < 100; i++) {
+				addTarEntry(tar, "small.txt", ("content" + i).getBytes(StandardCharsets.UTF_8));
+			}
+			addTarEntry(tar, "replaced.bin", "small".getBytes(StandardCharsets.UTF_8));
+			addTarEntry(tar, "replaced.bin", largeContent);
+			addTarEntry(tar, "replaced.bin", "last".getBytes(StandardCharsets.UTF_8));
+		}
+
+		Path destination = tempDir.resolve("extracted");
+		FileSystemUtils.extractTarArchive(tarArchive.toFile(), destination.toFile());
+
+		assertThat(destination.resolve("small.txt")).hasContent("content99");
+		assertThat(destination.resolve("replaced.bin")).hasContent("last");
+	}
+
+	@Test
+	void testUnzip(@TempDir Path tempDir) throws IOException {
+		Path zipArchive = tempDir.resolve("archive.zip");
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(zipArchive))) {
+			for (int i = 0; i < 100; i++) {
+				zip.putNextEntry(new ZipEntry("dir" + i % 10 + "/file" + i + ".txt"));
+				zip.write(("content" + i).getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+
+		Path destination = tempDir.resolve("extracted");
+		List<String> extractedPaths;
+		try (ZipFile zipFile = new ZipFile(zipArchive.toFile())) {
+			extractedPaths = FileSystemUtils.unzip(zipFile, destination.toFile());
+		}
+
+		assertThat(extractedPaths).hasSize(100).startsWith("dir0/file0.txt", "dir1/file1.txt");
+		for (int i = 0; i < 100; i++) {
+			assertThat(destination.resolve("dir" + i % 10 + "/file" + i + ".txt")).hasContent("content" + i);
+		}
+	}
+
+	@Test
+	void testUnzipWithDuplicateEntries(@TempDir Path tempDir) throws IOException {
+		byte[] largeContent = new byte[10 * 1024 * 1024];
+		Arrays.fill(largeContent, (byte) 'x');
+		Path zipArchive = tempDir.resolve("archive.zip");
+		try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipArchive.toFile())) {
+			for (int i = 0; i < 100; i++) {
+				addZipEntry(zip, "small.txt", ("content" + i).getBytes(StandardCharsets.UTF_8));
+			}
+			addZipEntry(zip, "replaced.bin", largeContent);
+			addZipEntry(zip, "replaced.bin", "last".getBytes(StandardCharsets.UTF_8));
+		}
+
+		Path destination = tempDir.resolve("extracted");
+		try (ZipFile zipFile = new ZipFile(zipArchive.toFile())) {
+			FileSystemUtils.unzip(zipFile, destination.toFile());
+		}
+
+		assertThat(destination.resolve("small.txt")).hasContent("content99");
+		assertThat(destination.resolve("replaced.bin")).hasContent("last");
+	}
+
+	@Test
+	void testDeleteRecursively(@TempDir Path tempDir) throws IOException {
+		Path outside = Files.writeString(tempDir.resolve("outside.txt"), "keep");
+		Path directory = tempDir.resolve("directory");
+		for (int i = 0; i < 1000; i++) {
+			Path file = directory.resolve("nested" + i % 7).resolve("deeper" + i % 3).resolve("file" + i);
+			Files.createDirectories(file.getParent());
+			Files.writeString(file, "content");
+		}
+		Files.createSymbolicLink(directory.resolve("link"), outside);
+
+		FileSystemUtils.deleteRecursively(directory.toFile());
+
+		assertThat(directory).doesNotExist();
+		assertThat(outside).hasContent("keep");
+	}
+
+	private static void addZipEntry(ZipArchiveOutputStream zip, String name, byte[] content) throws IOException {
+		zip.putArchiveEntry(new ZipArchiveEntry(name));
+		zip.write(content);
+		zip.closeArchiveEntry();
+	}
+
+	private static void addTarEntry(TarArchiveOutputStream tar, String name, byte[] content) throws IOException {
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(content.length);
+		tar.putArchiveEntry(entry);
+		tar.write(content);
+		tar.closeArchiveEntry();
+	}
+}
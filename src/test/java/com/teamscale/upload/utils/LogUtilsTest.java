@@ -0,0 +1,54 @@
+package com.teamscale.upload.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for {@link LogUtils} */
+class LogUtilsTest {
+
+	@Test
+	void sendsOutputOfJobAndItsThreadsToJobStreams() throws Exception {
+		ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+		ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+		ByteArrayOutputStream secondErr = new ByteArrayOutputStream();
+
+		int firstExitCode = LogUtils.runJob(createPrintStream(firstOut), createPrintStream(new ByteArrayOutputStream()),
+				() -> {
+					LogUtils.enableDebugLogging();
+					LogUtils.debug("first job");
+					return 0;
+				});
+		int secondExitCode = LogUtils.runJob(createPrintStream(secondOut), createPrintStream(secondErr), () -> {
+			ExecutorService executor = ThreadUtils.createTaskExecutor("test-");
+			try {
+				Future<?> upload = executor.submit(() -> LogUtils.info("second job"));
+				upload.get();
+			} catch (Exception e) {
+				throw new AssertionError(e);
+			} finally {
+				executor.shutdownNow();
+			}
+			LogUtils.debug("not logged, since debug logging is enabled only for the first job");
+			LogUtils.fail("failed");
+			return 0;
+		});
+
+		assertThat(firstExitCode).isZero();
+		assertThat(secondExitCode).isEqualTo(1);
+		assertThat(firstOut.toString(StandardCharsets.UTF_8)).isEqualToNormalizingNewlines("DEBUG: first job\n");
+		assertThat(secondOut.toString(StandardCharsets.UTF_8)).isEqualToNormalizingNewlines("INFO: second job\n");
+		assertThat(secondErr.toString(StandardCharsets.UTF_8)).isEqualToNormalizingNewlines("\nfailed\n");
+		assertThat(LogUtils.getOutputStream()).isSameAs(System.out);
+	}
+
+	private static PrintStream createPrintStream(ByteArrayOutputStream output) {
+		return new PrintStream(output, true, StandardCharsets.UTF_8);
+	}
+}
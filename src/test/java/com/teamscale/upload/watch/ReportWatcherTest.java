@@ -0,0 +1,152 @@
+package com.teamscale.upload.watch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.teamscale.upload.CommandLine;
+import com.teamscale.upload.test_utils.TeamscaleMockServer;
+
+/** Tests for {@link ReportWatcher} against a {@link TeamscaleMockServer}. */
+class ReportWatcherTest {
+
+	private static final int MOCK_TEAMSCALE_PORT = 24399;
+
+	private static final long QUIET_PERIOD_MILLIS = 300;
+
+	private static final long BATCH_INTERVAL_MILLIS = 500;
+
+	/** How long the tests wait for the watch to react. */
+	private static final long TIMEOUT_SECONDS = 30;
+
+	@TempDir
+	private Path tempDir;
+
+	private Path reportDirectory;
+
+	private Path stopFile;
+
+	private TeamscaleMockServer server;
+
+	@BeforeEach
+	void startServer() throws IOException {
+		// The watch compares the paths of events with the real paths of the patterns
+		reportDirectory = tempDir.toRealPath().resolve("reports");
+		stopFile = tempDir.toRealPath().resolve("stop");
+		server = new TeamscaleMockServer(MOCK_TEAMSCALE_PORT);
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.close();
+	}
+
+	@Test
+	void uploadsExistingReportsInOneBatch() throws Exception {
+		Files.createDirectories(reportDirectory);
+		for (int i = 0; i < 5; i++) {
+			Files.writeString(reportDirectory.resolve("report" + i + ".simple"), "report" + i);
+		}
+
+		CompletableFuture<Integer> exitCode = startWatching(QUIET_PERIOD_MILLIS);
+		awaitReportRequests(1);
+		Files.createFile(stopFile);
+
+		assertThat(exitCode.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isZero();
+		assertThat(server.reportRequestCount).hasValue(1);
+		assertThat(server.uploadedReportsByName).hasSize(5);
+		assertThat(server.closedSessionCount).hasValue(1);
+	}
+
+	@Test
+	void uploadsReportsOfDirectoriesCreatedLaterUntilStopFileExists() throws Exception {
+		CompletableFuture<Integer> exitCode = startWatching(QUIET_PERIOD_MILLIS);
+
+		Files.createDirectories(reportDirectory.resolve("nested"));
+		Files.writeString(reportDirectory.resolve("nested/first.simple"), "first");
+		awaitReportRequests(1);
+		Files.createDirectories(reportDirectory.resolve("nested/later"));
+		Files.writeString(reportDirectory.resolve("nested/later/second.simple"), "second");
+		Files.writeString(reportDirectory.resolve("nested/ignored.txt"), "ignored");
+		awaitReportRequests(2);
+		Files.createFile(stopFile);
+
+		assertThat(exitCode.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isZero();
+		assertThat(server.sessions).hasSize(1);
+		assertThat(server.uploadedReportsByName.keySet()).containsExactlyInAnyOrder("first.simple",
+				"second.simple");
+		assertThat(server.closedSessionCount).hasValue(1);
+		assertThat(server.cancelledSessionCount).hasValue(0);
+	}
+
+	@Test
+	void waitsUntilReportIsNoLongerWritten() throws Exception {
+		Files.createDirectories(reportDirectory);
+		CompletableFuture<Integer> exitCode = startWatching(1000);
+
+		Path report = reportDirectory.resolve("growing.simple");
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			String line = "line" + i + "\n";
+			Files.writeString(report, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			content.append(line);
+			Thread.sleep(100);
+		}
+		assertThat(server.reportRequestCount).hasValue(0);
+		awaitReportRequests(1);
+		Files.createFile(stopFile);
+
+		assertThat(exitCode.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isZero();
+		assertThat(server.uploadedReportsByName.get("growing.simple")).asString(StandardCharsets.UTF_8)
+				.isEqualTo(content.toString());
+	}
+
+	@Test
+	void cancelsSessionIfUploadFails() throws Exception {
+		Files.createDirectories(reportDirectory);
+		CompletableFuture<Integer> exitCode = startWatching(QUIET_PERIOD_MILLIS);
+
+		Files.writeString(reportDirectory.resolve("first.simple"), "first");
+		awaitReportRequests(1);
+		server.rejectReports(400);
+		Files.writeString(reportDirectory.resolve("second.simple"), "second");
+
+		assertThat(exitCode.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isNotZero();
+		assertThat(server.cancelledSessionCount).hasValue(1);
+		assertThat(server.closedSessionCount).hasValue(0);
+	}
+
+	private CompletableFuture<Integer> startWatching(long quietPeriodMillis) {
+		CommandLine commandLine = CommandLine.parseArguments(new String[] { "-s",
+				"http://localhost:" + MOCK_TEAMSCALE_PORT, "-u", "user", "-p", "project", "-t", "partition",
+				"--commit", "abc123", "--format", "SIMPLE", "--watch", stopFile.toString(),
+				reportDirectory.resolve("**/*.simple").toString() }, accessKeyViaOption -> "access-key");
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return ReportWatcher.run(commandLine, quietPeriodMillis, BATCH_INTERVAL_MILLIS);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	private void awaitReportRequests(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (server.reportRequestCount.get() < count && System.nanoTime() < deadline) {
+			Thread.sleep(50);
+		}
+		assertThat(server.reportRequestCount).hasValue(count);
+	}
+}
@@ -0,0 +1,71 @@
+package com.teamscale.upload.xcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for {@link AdaptiveConcurrencyLimit} */
+class AdaptiveConcurrencyLimitTest {
+
+	private final AtomicLong clock = new AtomicLong();
+
+	@Test
+	void increasesLimitWhileLatencyIsStable() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 4, clock::get);
+
+		runRound(limit, 100, 100);
+		assertThat(limit.getLimit()).isEqualTo(3);
+		runRound(limit, 100, 100);
+		assertThat(limit.getLimit()).isEqualTo(4);
+		runRound(limit, 100, 100);
+		assertThat(limit.getLimit()).isEqualTo(4);
+	}
+
+	@Test
+	void decreasesLimitIfLatencyGrowsWithoutThroughputGain() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 1, 8, clock::get);
+
+		runRound(limit, 100, 100);
+		assertThat(limit.getLimit()).isEqualTo(8);
+		runRound(limit, 400, 400);
+		assertThat(limit.getLimit()).isEqualTo(6);
+	}
+
+	@Test
+	void keepsLimitIfThroughputImproves() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 4, clock::get);
+
+		runRound(limit, 100, 100);
+		runRound(limit, 200, 50);
+		assertThat(limit.getLimit()).isEqualTo(4);
+	}
+
+	@Test
+	void fixedLimitNeverChanges() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = AdaptiveConcurrencyLimit.fixed(3);
+
+		runRound(limit, 100, 100);
+		runRound(limit, 100, 100);
+		runRound(limit, 1000, 1000);
+		assertThat(limit.getLimit()).isEqualTo(3);
+		assertThat(limit.getMaxLimit()).isEqualTo(3);
+	}
+
+	/**
+	 * Runs as many tasks as the current limit allows in parallel, each taking the
+	 * given latency, while the round takes the given duration.
+	 */
+	private void runRound(AdaptiveConcurrencyLimit limit, long taskLatencyNanos, long roundDurationNanos)
+			throws InterruptedException {
+		int tasks = limit.getLimit();
+		for (int i = 0; i < tasks; i++) {
+			limit.acquire();
+		}
+		clock.addAndGet(roundDurationNanos);
+		for (int i = 0; i < tasks; i++) {
+			limit.release(taskLatencyNanos);
+		}
+	}
+}
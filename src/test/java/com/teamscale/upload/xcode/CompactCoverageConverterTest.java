@@ -0,0 +1,78 @@
+package com.teamscale.upload.xcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/** Tests for {@link CompactCoverageConverter} */
+class CompactCoverageConverterTest {
+
+	private static final String XCCOV_REPORT = String.join("\n", //
+			"/path/to/First.swift:", //
+			" 1: *", //
+			" 2: 1", //
+			" 3: 12", //
+			" 4: 0", //
+			" 5: 0", //
+			" 6: *", //
+			" 7: 3", //
+			" 8: 0 [", //
+			"(1, 8, 1)", //
+			"]", //
+			" 9: 2 [", //
+			"(1, 4, 2)", //
+			"(5, 2, 0)", //
+			"]", //
+			"10: 0 [", //
+			"(1, 4, 0)", //
+			"]", //
+			"", //
+			"/path/to/NotCoverable.swift:", //
+			" 1: *", //
+			"", //
+			"/path/to/Second.swift", //
+			" 1: 0");
+
+	@Test
+	void mergesLinesIntoRanges() throws IOException {
+		JsonObject report = convert(XCCOV_REPORT);
+
+		assertThat(report.get("version").getAsInt()).isEqualTo(1);
+		assertThat(report.getAsJsonArray("coverage")).hasSize(2);
+
+		JsonObject first = report.getAsJsonArray("coverage").get(0).getAsJsonObject();
+		assertThat(first.get("filePath").getAsString()).isEqualTo("/path/to/First.swift");
+		assertThat(first.get("fullyCoveredLines").toString()).isEqualTo("[\"2-3\",7]");
+		assertThat(first.get("partiallyCoveredLines").toString()).isEqualTo("[\"8-9\"]");
+		assertThat(first.get("uncoveredLines").toString()).isEqualTo("[\"4-5\",10]");
+	}
+
+	@Test
+	void acceptsFilePathsWithoutColon() throws IOException {
+		JsonObject report = convert(XCCOV_REPORT);
+
+		JsonObject second = report.getAsJsonArray("coverage").get(1).getAsJsonObject();
+		assertThat(second.get("filePath").getAsString()).isEqualTo("/path/to/Second.swift");
+		assertThat(second.has("fullyCoveredLines")).isFalse();
+		assertThat(second.get("uncoveredLines").toString()).isEqualTo("[1]");
+	}
+
+	@Test
+	void emptyReport() throws IOException {
+		assertThat(convert("").getAsJsonArray("coverage")).isEmpty();
+	}
+
+	private static JsonObject convert(String xccovReport) throws IOException {
+		StringWriter writer = new StringWriter();
+		CompactCoverageConverter.convert(new BufferedReader(new StringReader(xccovReport)), writer);
+		return JsonParser.parseString(writer.toString()).getAsJsonObject();
+	}
+}
@@ -0,0 +1,36 @@
+package com.teamscale.upload.xcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for {@link ConversionUtils} */
+class ConversionUtilsTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void compressedIntermediateFileRoundTrip() throws IOException {
+		String xccovReport = "/path/to/File.swift:\n" + " 1: 0\n".repeat(10_000);
+		Path file = tempDir.resolve("report" + ConversionUtils.XCCOV_REPORT_FILE_EXTENSION
+				+ ConversionUtils.COMPRESSED_FILE_EXTENSION);
+
+		try (BufferedWriter writer = ConversionUtils.newCompressedWriter(file)) {
+			writer.write(xccovReport);
+		}
+
+		assertThat(Files.size(file)).isLessThan(xccovReport.length() / 10);
+		try (InputStream inputStream = ConversionUtils.newDecompressedInputStream(file)) {
+			assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(xccovReport);
+		}
+	}
+}
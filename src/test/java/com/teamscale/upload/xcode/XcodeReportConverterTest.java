@@ -0,0 +1,129 @@
+package com.teamscale.upload.xcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for {@link XcodeReportConverter}. Runs the whole conversion pipeline
+ * against the fake Xcode tools in {@code src/test/resources/fake_xcode}.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class XcodeReportConverterTest {
+
+	private static final Path FAKE_XCODE_DIRECTORY = Paths.get("src/test/resources/fake_xcode").toAbsolutePath();
+
+	private static final int SOURCE_FILE_COUNT = 20;
+
+	private static final int TEST_COUNT = 15;
+
+	@TempDir
+	private Path tempDir;
+
+	@BeforeEach
+	void useFakeXcodeBuild() {
+		System.setProperty(XcodeToolRunner.XCODEBUILD_PROPERTY,
+				FAKE_XCODE_DIRECTORY.resolve("xcodebuild").toString());
+	}
+
+	@AfterEach
+	void resetFakeXcode() {
+		System.clearProperty(XcodeToolRunner.XCRUN_PROPERTY);
+		System.clearProperty(XcodeToolRunner.XCODEBUILD_PROPERTY);
+	}
+
+	@Test
+	void convertsCoverageAndTestResults() throws Exception {
+		useFakeXcrun(false);
+
+		List<ConvertedReport> reports = convertXcresultBundle();
+
+		assertThat(reports).extracting(report -> report.reportFormat).containsExactly(
+				XcodeReportConverter.TESTWISE_COVERAGE_REPORT_FORMAT, XcodeReportConverter.XCODE_REPORT_FORMAT);
+		assertThat(reports.get(1).report.getName())
+				.isEqualTo("fake.xcresult" + ConversionUtils.XCCOV_REPORT_FILE_EXTENSION);
+
+		JsonObject testwiseReport = JsonParser.parseString(Files.readString(reports.get(0).report.toPath()))
+				.getAsJsonObject();
+		assertThat(testwiseReport.getAsJsonArray("tests")).hasSize(TEST_COUNT);
+		assertThat(toCompactCoverage(reports.get(1).report).getAsJsonArray("coverage")).hasSize(SOURCE_FILE_COUNT);
+	}
+
+	@Test
+	void legacyConversionProducesSameCoverage() throws Exception {
+		useFakeXcrun(false);
+		List<ConvertedReport> reports = convertXcresultBundle();
+		JsonObject expectedCoverage = toCompactCoverage(reports.get(1).report);
+		for (ConvertedReport report : reports) {
+			Files.delete(report.report.toPath());
+		}
+
+		useFakeXcrun(true);
+		JsonObject legacyCoverage = toCompactCoverage(convertXcresultBundle().get(1).report);
+
+		// The legacy conversion sorts the source files by path
+		assertThat(legacyCoverage.getAsJsonArray("coverage"))
+				.containsExactlyInAnyOrderElementsOf(expectedCoverage.getAsJsonArray("coverage"));
+	}
+
+	@Test
+	void doesNotReplaceExistingResults() throws Exception {
+		useFakeXcrun(false);
+		Path existingResult = Files.writeString(
+				tempDir.resolve("fake.xcresult" + ConversionUtils.XCCOV_REPORT_FILE_EXTENSION), "existing");
+
+		assertThatThrownBy(this::convertXcresultBundle).isInstanceOf(ConversionException.class)
+				.hasCauseInstanceOf(FileAlreadyExistsException.class);
+		assertThat(existingResult).hasContent("existing");
+	}
+
+	/**
+	 * Writes a wrapper script around the fake xcrun that configures it via
+	 * environment variables and uses it for the conversion.
+	 */
+	private void useFakeXcrun(boolean legacyXccov) throws IOException {
+		Path xcrun = tempDir.resolve("xcrun");
+		Files.writeString(xcrun, String.join("\n", //
+				"#!/bin/sh", //
+				"export FAKE_XCODE_SOURCE_FILES=" + SOURCE_FILE_COUNT, //
+				"export FAKE_XCODE_TESTS=" + TEST_COUNT, //
+				"export FAKE_XCODE_LEGACY_XCCOV=" + legacyXccov, //
+				"exec '" + FAKE_XCODE_DIRECTORY.resolve("xcrun") + "' \"$@\"", //
+				""));
+		assertThat(xcrun.toFile().setExecutable(true)).isTrue();
+		System.setProperty(XcodeToolRunner.XCRUN_PROPERTY, xcrun.toString());
+	}
+
+	private List<ConvertedReport> convertXcresultBundle() throws Exception {
+		Path xcresult = Files.createDirectories(tempDir.resolve("fake.xcresult"));
+		return XcodeReportConverter.convert(Collections.singletonList(xcresult.toFile()));
+	}
+
+	private static JsonObject toCompactCoverage(File xccovReport) throws IOException {
+		StringWriter writer = new StringWriter();
+		try (BufferedReader reader = Files.newBufferedReader(xccovReport.toPath())) {
+			CompactCoverageConverter.convert(reader, writer);
+		}
+		return JsonParser.parseString(writer.toString()).getAsJsonObject();
+	}
+}
@@ -0,0 +1,94 @@
+package com.teamscale.upload.xcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link XcodeToolchain}. Uses the fake Xcode tools in
+ * {@code src/test/resources/fake_xcode} and counts their invocations.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class XcodeToolchainTest {
+
+	private static final Path FAKE_XCODE_DIRECTORY = Paths.get("src/test/resources/fake_xcode").toAbsolutePath();
+
+	@TempDir
+	private Path tempDir;
+
+	private Path invocationLog;
+
+	@BeforeEach
+	void useCountingFakeXcode() throws IOException {
+		invocationLog = tempDir.resolve("invocations.log");
+		System.setProperty(XcodeToolRunner.XCRUN_PROPERTY, writeCountingWrapper("xcrun").toString());
+		System.setProperty(XcodeToolRunner.XCODEBUILD_PROPERTY, writeCountingWrapper("xcodebuild").toString());
+		System.setProperty(XcodeToolRunner.XCODE_SELECT_PROPERTY,
+				FAKE_XCODE_DIRECTORY.resolve("xcode-select").toString());
+		XcodeToolchain.clearProbedToolchain();
+	}
+
+	@AfterEach
+	void resetFakeXcode() {
+		System.clearProperty(XcodeToolRunner.XCRUN_PROPERTY);
+		System.clearProperty(XcodeToolRunner.XCODEBUILD_PROPERTY);
+		System.clearProperty(XcodeToolRunner.XCODE_SELECT_PROPERTY);
+		System.clearProperty(XcodeToolchain.CACHE_FILE_PROPERTY);
+		XcodeToolchain.clearProbedToolchain();
+	}
+
+	@Test
+	void probesToolchainOnlyOnce() throws Exception {
+		XcodeToolchain.startProbing();
+		XcodeToolchain toolchain = XcodeToolchain.get();
+
+		assertThat(toolchain.version).isEqualTo(new XcodeVersion(16, 0));
+		toolchain.validateCommandLineTools();
+		assertThat(XcodeToolchain.get()).isSameAs(toolchain);
+		assertThat(Files.readAllLines(invocationLog)).containsExactlyInAnyOrder("xcrun", "xcodebuild");
+	}
+
+	@Test
+	void reusesPersistedToolchain() throws Exception {
+		System.setProperty(XcodeToolchain.CACHE_FILE_PROPERTY, tempDir.resolve("toolchain.properties").toString());
+		assertThat(XcodeToolchain.get().version).isEqualTo(new XcodeVersion(16, 0));
+
+		XcodeToolchain.clearProbedToolchain();
+		assertThat(XcodeToolchain.get().version).isEqualTo(new XcodeVersion(16, 0));
+
+		assertThat(Files.readAllLines(invocationLog)).containsExactlyInAnyOrder("xcrun", "xcodebuild");
+	}
+
+	@Test
+	void failsIfCommandLineToolsAreMissing() {
+		System.setProperty(XcodeToolRunner.XCRUN_PROPERTY, tempDir.resolve("missing-xcrun").toString());
+
+		assertThatThrownBy(() -> XcodeToolchain.get().validateCommandLineTools())
+				.isInstanceOf(ConversionException.class).hasMessageContaining("command line tools not installed");
+	}
+
+	/**
+	 * Writes a wrapper script around the fake tool that logs each invocation.
+	 */
+	private Path writeCountingWrapper(String tool) throws IOException {
+		Path wrapper = tempDir.resolve(tool);
+		Files.writeString(wrapper, String.join("\n", //
+				"#!/bin/sh", //
+				"echo " + tool + " >> '" + invocationLog + "'", //
+				"exec '" + FAKE_XCODE_DIRECTORY.resolve(tool) + "' \"$@\"", //
+				""));
+		assertThat(wrapper.toFile().setExecutable(true)).isTrue();
+		return wrapper;
+	}
+}